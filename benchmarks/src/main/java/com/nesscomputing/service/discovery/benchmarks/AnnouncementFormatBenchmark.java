@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nesscomputing.service.discovery.client.AnnouncementFormat;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Encoding and decoding an announcement node.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnouncementFormatBenchmark
+{
+    @Param({"JSON", "BINARY"})
+    public String format;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private AnnouncementFormat announcementFormat;
+    private ServiceInformation announcement;
+    private byte [] data;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        announcementFormat = AnnouncementFormat.valueOf(format);
+        announcement = BenchmarkServices.createServices("http", 1).get(0);
+        data = announcementFormat.encode(objectMapper, announcement);
+    }
+
+    @Benchmark
+    public byte [] encode() throws IOException
+    {
+        return announcementFormat.encode(objectMapper, announcement);
+    }
+
+    @Benchmark
+    public ServiceInformation decode() throws IOException
+    {
+        return AnnouncementFormat.decode(objectMapper, data);
+    }
+}
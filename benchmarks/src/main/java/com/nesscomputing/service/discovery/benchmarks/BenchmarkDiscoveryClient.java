@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.benchmarks;
+
+import java.util.Collection;
+
+import com.google.common.collect.ImmutableMap;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.client.internal.AbstractDiscoveryClient;
+import com.nesscomputing.service.discovery.client.internal.ConsistentRingGroup;
+import com.nesscomputing.service.discovery.client.internal.LoadBalancingStrategies;
+
+/**
+ * Discovery client with a fixed state of the world. Runs the same lookup code as the zookeeper backed client.
+ */
+public class BenchmarkDiscoveryClient extends AbstractDiscoveryClient
+{
+    public BenchmarkDiscoveryClient(final Collection<ServiceInformation> services)
+    {
+        this(services, LoadBalancingStrategies.RANDOM);
+    }
+
+    public BenchmarkDiscoveryClient(final Collection<ServiceInformation> services, final String loadBalancing)
+    {
+        super(false, new DiscoveryClientConfig() {
+            @Override
+            public String getLoadBalancing(final String serviceName)
+            {
+                return loadBalancing;
+            }
+        });
+        getStateOfTheWorldHolder().setState(ImmutableMap.of(BenchmarkServices.SERVICE_NAME, new ConsistentRingGroup(services)));
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Builds deterministic sets of announcements for the benchmarks, so that runs are comparable.
+ */
+public final class BenchmarkServices
+{
+    public static final String SERVICE_NAME = "user-service";
+
+    private BenchmarkServices()
+    {
+    }
+
+    /**
+     * Returns announcements for <code>count</code> servers of the given type.
+     */
+    public static List<ServiceInformation> createServices(final String serviceType, final int count)
+    {
+        final Random random = new Random(count);
+        final List<ServiceInformation> result = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            result.add(ServiceInformation.staticAnnouncement(new UUID(random.nextLong(), random.nextLong()),
+                                                             SERVICE_NAME,
+                                                             serviceType,
+                                                             "http",
+                                                             "10.0." + (i / 256) + "." + (i % 256),
+                                                             8080));
+        }
+        return result;
+    }
+
+    /**
+     * Returns a power-of-two sized array of hash keys. Callers pick a key with <code>index &amp; (count - 1)</code>.
+     */
+    public static String [] createKeys(final int count)
+    {
+        Preconditions.checkArgument(Integer.bitCount(count) == 1, "count must be a power of two, not %s", count);
+
+        final Random random = new Random(count);
+        final String [] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = Long.toString(random.nextLong());
+        }
+        return keys;
+    }
+}
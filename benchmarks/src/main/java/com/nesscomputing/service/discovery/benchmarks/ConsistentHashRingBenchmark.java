@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.client.internal.ConsistentHashRing;
+import com.nesscomputing.service.discovery.client.internal.RingStrategies;
+import com.nesscomputing.service.discovery.client.internal.RingStrategy;
+
+/**
+ * Building a ring, updating it and looking up keys in it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsistentHashRingBenchmark
+{
+    private static final int KEY_MASK = 1023;
+
+    @Param({"1", "10", "100", "1000"})
+    public int servers;
+
+    @Param({"ketama", "rendezvous", "maglev", "jump"})
+    public String ringStrategy;
+
+    private RingStrategy strategy;
+
+    private List<ServiceInformation> services;
+    private ConsistentHashRing ring;
+    private String [] keys;
+    private int keyIndex = 0;
+
+    /** A rolling deploy step: one server goes away, a new one comes up. */
+    private List<ServiceInformation> added;
+    private List<ServiceInformation> removed;
+
+    @Setup
+    public void setUp()
+    {
+        services = BenchmarkServices.createServices("http", servers);
+        strategy = RingStrategies.forName(ringStrategy, RingStrategies.DEFAULT_HASH.name(), RingStrategies.DEFAULT_VIRTUAL_NODES);
+        ring = new ConsistentHashRing(services, strategy);
+        keys = BenchmarkServices.createKeys(KEY_MASK + 1);
+
+        added = Collections.singletonList(ServiceInformation.staticAnnouncement(UUID.randomUUID(), BenchmarkServices.SERVICE_NAME, "http", "http", "10.1.0.0", 8080));
+        removed = Collections.singletonList(services.get(0));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public ConsistentHashRing construct()
+    {
+        return new ConsistentHashRing(services, strategy);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public ConsistentHashRing replaceServer()
+    {
+        return ring.withChanges(added, removed);
+    }
+
+    @Benchmark
+    public ServiceInformation get()
+    {
+        return ring.get(keys[keyIndex++ & KEY_MASK]);
+    }
+}
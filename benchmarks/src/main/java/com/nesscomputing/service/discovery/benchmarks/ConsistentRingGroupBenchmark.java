@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.client.internal.ConsistentHashRing;
+import com.nesscomputing.service.discovery.client.internal.ConsistentRingGroup;
+
+/**
+ * Selecting the ring for a service type, including the fallback paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsistentRingGroupBenchmark
+{
+    @Param({"1", "10", "100"})
+    public int serversPerType;
+
+    /** Group with "http" and "https" rings, but no untyped ring. */
+    private ConsistentRingGroup typedGroup;
+
+    /** Group with "http" and untyped rings. */
+    private ConsistentRingGroup fallbackGroup;
+
+    @Setup
+    public void setUp()
+    {
+        final List<ServiceInformation> typed = Lists.newArrayList();
+        typed.addAll(BenchmarkServices.createServices("http", serversPerType));
+        typed.addAll(BenchmarkServices.createServices("https", serversPerType));
+        typedGroup = new ConsistentRingGroup(typed);
+
+        final List<ServiceInformation> fallback = Lists.newArrayList();
+        fallback.addAll(BenchmarkServices.createServices("http", serversPerType));
+        fallback.addAll(BenchmarkServices.createServices(null, serversPerType));
+        fallbackGroup = new ConsistentRingGroup(fallback);
+    }
+
+    @Benchmark
+    public ConsistentHashRing getTypedRing()
+    {
+        return typedGroup.getRing("http");
+    }
+
+    @Benchmark
+    public ConsistentHashRing getAnyRing()
+    {
+        return typedGroup.getRing(null);
+    }
+
+    @Benchmark
+    public ConsistentHashRing getFallbackRing()
+    {
+        return fallbackGroup.getRing("thrift");
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nesscomputing.service.discovery.client.ServiceHint;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * The lookup methods of the discovery client, with and without a consistent hashing hint. Lookups
+ * without a hint go through the configured load balancing strategy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscoveryClientBenchmark
+{
+    private static final int KEY_MASK = 1023;
+
+    @Param({"1", "10", "100", "1000"})
+    public int servers;
+
+    @Param({"random", "round-robin", "power-of-two-choices"})
+    public String loadBalancing;
+
+    private BenchmarkDiscoveryClient client;
+    private ServiceHint [][] hints;
+    private int hintIndex = 0;
+
+    @Setup
+    public void setUp()
+    {
+        client = new BenchmarkDiscoveryClient(BenchmarkServices.createServices("http", servers), loadBalancing);
+
+        final String [] keys = BenchmarkServices.createKeys(KEY_MASK + 1);
+        hints = new ServiceHint[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            hints[i] = new ServiceHint[] { ServiceHint.servesKey(keys[i]) };
+        }
+    }
+
+    @Benchmark
+    public ServiceInformation findServiceInformation() throws IOException
+    {
+        return client.findServiceInformation(BenchmarkServices.SERVICE_NAME, "http");
+    }
+
+    @Benchmark
+    public ServiceInformation findServiceInformationHinted() throws IOException
+    {
+        return client.findServiceInformation(BenchmarkServices.SERVICE_NAME, "http", hints[hintIndex++ & KEY_MASK]);
+    }
+
+    @Benchmark
+    public URI findServiceUri() throws IOException
+    {
+        return client.findServiceUri(BenchmarkServices.SERVICE_NAME, "http");
+    }
+
+    @Benchmark
+    public URI findServiceUriHinted() throws IOException
+    {
+        return client.findServiceUri(BenchmarkServices.SERVICE_NAME, "http", hints[hintIndex++ & KEY_MASK]);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nesscomputing.service.discovery.client.internal.HashAlgorithm;
+
+/**
+ * Hashing a lookup key with each of the ring hash algorithms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashAlgorithmBenchmark
+{
+    private static final int KEY_MASK = 1023;
+
+    @Param({"NATIVE_HASH", "CRC32_HASH", "FNV1_64_HASH", "FNV1A_64_HASH", "FNV1_32_HASH", "FNV1A_32_HASH", "KETAMA_HASH", "MURMUR3_32_HASH", "XXHASH_64_HASH"})
+    public String algorithm;
+
+    private HashAlgorithm hashAlgorithm;
+
+    private String [] keys;
+    private StringBuilder [] builders;
+    private byte [][] bytes;
+    private int keyIndex = 0;
+
+    @Setup
+    public void setUp()
+    {
+        hashAlgorithm = HashAlgorithm.valueOf(algorithm);
+        keys = BenchmarkServices.createKeys(KEY_MASK + 1);
+        builders = new StringBuilder[keys.length];
+        bytes = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            builders[i] = new StringBuilder(keys[i]);
+            bytes[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public long hashString()
+    {
+        return hashAlgorithm.hash(keys[keyIndex++ & KEY_MASK]);
+    }
+
+    @Benchmark
+    public long hashCharSequence()
+    {
+        return hashAlgorithm.hash(builders[keyIndex++ & KEY_MASK]);
+    }
+
+    @Benchmark
+    public long hashBytes()
+    {
+        return hashAlgorithm.hash(bytes[keyIndex++ & KEY_MASK]);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nesscomputing.httpclient.HttpClient;
+import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
+import com.nesscomputing.httpclient.HttpClientResponseHandler;
+import com.nesscomputing.service.discovery.benchmarks.BenchmarkDiscoveryClient;
+import com.nesscomputing.service.discovery.benchmarks.BenchmarkServices;
+
+/**
+ * Rewriting srvc:// requests in the http client observer chain, with and without hint headers. Lives in
+ * the client package to get at the package private constructors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscoveryServiceInterceptorBenchmark
+{
+    private static final HttpClientResponseHandler<Void> NO_RESPONSE = new HttpClientResponseHandler<Void>() {
+        @Override
+        public Void handle(final HttpClientResponse response)
+        {
+            return null;
+        }
+    };
+
+    private HttpClient httpClient;
+    private DiscoveryServiceInterceptor interceptor;
+    private HttpClientRequest<Void> plainRequest;
+    private HttpClientRequest<Void> hintedRequest;
+
+    @Setup
+    public void setUp()
+    {
+        final DiscoveryClientConfig config = new DiscoveryClientConfig() {
+            @Override
+            public boolean isEnabled()
+            {
+                return true;
+            }
+        };
+
+        final BenchmarkDiscoveryClient discoveryClient = new BenchmarkDiscoveryClient(BenchmarkServices.createServices("http", 10));
+        final ServiceURIConverter converter = new ServiceURIConverter(discoveryClient, config);
+        interceptor = new DiscoveryServiceInterceptor(converter, discoveryClient, config);
+
+        httpClient = new HttpClient();
+        final URI uri = URI.create("srvc://" + BenchmarkServices.SERVICE_NAME + ":http/users/1234");
+        plainRequest = httpClient.get(uri, NO_RESPONSE)
+            .addHeader("Accept", "application/json")
+            .request();
+        hintedRequest = httpClient.get(uri, NO_RESPONSE)
+            .addHeader("Accept", "application/json")
+            .addHeader("X-Ness-SDHint-" + ServiceHint.CONSISTENTHASH_HINT, "1234")
+            .request();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        httpClient.close();
+    }
+
+    @Benchmark
+    public HttpClientRequest<Void> onRequestSubmitted() throws IOException
+    {
+        return interceptor.onRequestSubmitted(plainRequest);
+    }
+
+    @Benchmark
+    public HttpClientRequest<Void> onRequestSubmittedHinted() throws IOException
+    {
+        return interceptor.onRequestSubmitted(hintedRequest);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nesscomputing.service.discovery.benchmarks.BenchmarkDiscoveryClient;
+import com.nesscomputing.service.discovery.benchmarks.BenchmarkServices;
+
+/**
+ * Converting srvc:// URIs into http URIs. Lives in the client package to get at the package private
+ * constructor of the converter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceURIConverterBenchmark
+{
+    private ServiceURIConverter converter;
+    private ServiceURI rootUri;
+    private ServiceURI fullUri;
+
+    @Setup
+    public void setUp() throws URISyntaxException
+    {
+        final DiscoveryClientConfig config = new DiscoveryClientConfig() {
+            @Override
+            public boolean isEnabled()
+            {
+                return true;
+            }
+        };
+
+        converter = new ServiceURIConverter(new BenchmarkDiscoveryClient(BenchmarkServices.createServices("http", 10)), config);
+        rootUri = new ServiceURI("srvc://" + BenchmarkServices.SERVICE_NAME + ":http/");
+        fullUri = new ServiceURI("srvc://" + BenchmarkServices.SERVICE_NAME + ":http/users/1234/friends?limit=20&offset=40#top");
+    }
+
+    @Benchmark
+    public URI convertRootUri() throws IOException, URISyntaxException
+    {
+        return converter.convertServiceURI(rootUri);
+    }
+
+    @Benchmark
+    public URI convertFullUri() throws IOException, URISyntaxException
+    {
+        return converter.convertServiceURI(fullUri);
+    }
+}
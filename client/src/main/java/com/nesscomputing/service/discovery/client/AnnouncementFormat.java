@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
+
+/**
+ * Encodings of an announcement as stored in its zookeeper node. Nodes are always read with
+ * {@link #decode(ObjectMapper, byte[])}, which detects the format, so the write format can be switched
+ * once all readers understand it.
+ */
+public enum AnnouncementFormat
+{
+    /** Jackson JSON, understood by all clients. This is the default. */
+    JSON {
+        @Override
+        public byte [] encode(final ObjectMapper objectMapper, final ServiceInformation serviceInformation) throws IOException
+        {
+            return objectMapper.writeValueAsBytes(serviceInformation);
+        }
+    },
+
+    /**
+     * Compact binary encoding:
+     *
+     * <pre>
+     * magic (1 byte) | version (1 byte) | flags (1 byte) | service id (16 bytes)
+     * | service name | [service type] | property count (varint) | (key | value)*
+     * </pre>
+     *
+     * Strings are a varint length followed by UTF-8 bytes. Property values store their length plus one, so
+     * that zero stands for a null value.
+     */
+    BINARY {
+        @Override
+        public byte [] encode(final ObjectMapper objectMapper, final ServiceInformation serviceInformation) throws IOException
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+            out.write(MAGIC);
+            out.write(VERSION);
+
+            final String serviceType = serviceInformation.getServiceType();
+            out.write((serviceInformation.isStaticAnnouncement() ? FLAG_STATIC : 0) | (serviceType != null ? FLAG_SERVICE_TYPE : 0));
+
+            final UUID serviceId = serviceInformation.getServiceId();
+            writeLong(out, serviceId.getMostSignificantBits());
+            writeLong(out, serviceId.getLeastSignificantBits());
+
+            writeString(out, serviceInformation.getServiceName(), 0);
+            if (serviceType != null) {
+                writeString(out, serviceType, 0);
+            }
+
+            final Map<String, String> properties = serviceInformation.getGrabBag();
+            writeVarint(out, properties.size());
+            for (final Map.Entry<String, String> property : properties.entrySet()) {
+                writeString(out, property.getKey(), 0);
+                if (property.getValue() == null) {
+                    writeVarint(out, 0);
+                }
+                else {
+                    writeString(out, property.getValue(), 1);
+                }
+            }
+            return out.toByteArray();
+        }
+    };
+
+    /** First byte of a binary announcement. JSON never starts with it. */
+    static final int MAGIC = 0xd5;
+    static final int VERSION = 1;
+
+    private static final int FLAG_STATIC = 0x01;
+    private static final int FLAG_SERVICE_TYPE = 0x02;
+
+    /**
+     * Serializes an announcement.
+     */
+    public abstract byte [] encode(ObjectMapper objectMapper, ServiceInformation serviceInformation) throws IOException;
+
+    /**
+     * Parses an announcement in any of the formats.
+     *
+     * @throws IOException If the data is malformed or uses an unknown version of the binary format.
+     */
+    @Nonnull
+    public static ServiceInformation decode(final ObjectMapper objectMapper, final byte [] data) throws IOException
+    {
+        if (data.length == 0 || (data[0] & 0xff) != MAGIC) {
+            return objectMapper.readValue(data, ServiceInformation.class);
+        }
+
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            buffer.get();
+            final int version = buffer.get() & 0xff;
+            if (version != VERSION) {
+                throw new IOException("Unsupported announcement version " + version);
+            }
+            final int flags = buffer.get() & 0xff;
+            final UUID serviceId = new UUID(buffer.getLong(), buffer.getLong());
+
+            final String serviceName = readString(buffer, readVarint(buffer));
+            final String serviceType = (flags & FLAG_SERVICE_TYPE) != 0 ? readString(buffer, readVarint(buffer)) : null;
+
+            final int count = readVarint(buffer);
+            final Map<String, String> properties = Maps.newHashMapWithExpectedSize(Math.min(count, buffer.remaining()));
+            for (int i = 0; i < count; i++) {
+                final String key = readString(buffer, readVarint(buffer));
+                final int valueLength = readVarint(buffer);
+                properties.put(key, valueLength == 0 ? null : readString(buffer, valueLength - 1));
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Trailing bytes in announcement");
+            }
+
+            return new ServiceInformation(serviceName, serviceType, serviceId, properties, (flags & FLAG_STATIC) != 0);
+        }
+        catch (BufferUnderflowException bue) {
+            throw new IOException("Truncated announcement", bue);
+        }
+        catch (IllegalArgumentException iae) {
+            throw new IOException("Malformed announcement", iae);
+        }
+    }
+
+    /**
+     * Returns the format for a configured name, e.g. "json" or "binary".
+     *
+     * @throws IllegalArgumentException If the name is unknown.
+     */
+    public static AnnouncementFormat forName(final String name)
+    {
+        return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+    }
+
+    private static void writeLong(final ByteArrayOutputStream out, final long value)
+    {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, final int value)
+    {
+        int remaining = value;
+        while ((remaining & ~0x7f) != 0) {
+            out.write((remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
+    private static void writeString(final ByteArrayOutputStream out, final String value, final int lengthOffset)
+    {
+        final byte [] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + lengthOffset);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static int readVarint(final ByteBuffer buffer) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed length in announcement");
+    }
+
+    private static String readString(final ByteBuffer buffer, final int length)
+    {
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
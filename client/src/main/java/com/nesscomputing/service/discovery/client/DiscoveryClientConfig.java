@@ -19,6 +19,8 @@ import java.util.concurrent.TimeUnit;
 
 import org.skife.config.Config;
 import org.skife.config.Default;
+import org.skife.config.DefaultNull;
+import org.skife.config.Param;
 import org.skife.config.TimeSpan;
 
 public abstract class DiscoveryClientConfig
@@ -71,8 +73,9 @@ public abstract class DiscoveryClientConfig
     }
 
     /**
-     * Tick time of the internal thread. This is the interval used for checking internal
-     * state changes. Default is 100 Milliseconds.
+     * Tick time of the internal thread. The thread reacts to state changes right away, the
+     * tick interval is only used to retry while disconnected or after a failed run.
+     * Default is 100 Milliseconds.
      *
      */
     @Config("ness.discovery.tick-interval")
@@ -102,6 +105,109 @@ public abstract class DiscoveryClientConfig
         return new TimeSpan(600, TimeUnit.SECONDS);
     }
 
+    /**
+     * Format used to write announcements, "json" or "binary". Announcements in either format are
+     * always read, but clients before the binary format can only read "json". Default is "json".
+     */
+    @Config("ness.discovery.announcement-format")
+    @Default("json")
+    public String getAnnouncementFormat()
+    {
+        return "json";
+    }
+
+    /**
+     * Layout of the announcement nodes, "flat" or "hierarchical". In the flat layout, all announcements
+     * are children of the root and every client reads all of them. The hierarchical layout groups them by
+     * service and type, and a client only reads and watches the services it looks up. All clients using
+     * the same root must use the same layout. Default is "flat".
+     */
+    @Config("ness.discovery.layout")
+    @Default("flat")
+    public String getLayout()
+    {
+        return "flat";
+    }
+
+    /**
+     * If true, a client only reads the services it looks up. The first lookup of a service waits
+     * (up to the zookeeper timeout) for the service to be read, afterwards it is kept up to date. The
+     * hierarchical layout always reads services on demand. Default is false.
+     */
+    @Config("ness.discovery.lazy")
+    @Default("false")
+    public boolean isLazy()
+    {
+        return false;
+    }
+
+    /**
+     * Services that are read on demand and were not looked up for this time are dropped again. 0 keeps them
+     * forever. Default is 10 minutes.
+     */
+    @Config("ness.discovery.lazy-idle-time")
+    @Default("10m")
+    public TimeSpan getLazyIdleTime()
+    {
+        return new TimeSpan(10, TimeUnit.MINUTES);
+    }
+
+    /**
+     * If true, a client that needs to read many announcement nodes reads the compacted state that the discovery
+     * server publishes instead, as long as it is current. Only works with the flat layout. Default is false.
+     */
+    @Config("ness.discovery.compacted-state")
+    @Default("false")
+    public boolean isCompactedState()
+    {
+        return false;
+    }
+
+    /**
+     * Where a read-only client gets the service announcements from. "zookeeper" reads them from zookeeper,
+     * "http" polls the state endpoint of the discovery servers given in "ness.discovery.http.servers", so that
+     * the client does not need a zookeeper session. Read/write clients always use zookeeper. Default is
+     * "zookeeper".
+     */
+    @Config("ness.discovery.client-type")
+    @Default("zookeeper")
+    public String getClientType()
+    {
+        return "zookeeper";
+    }
+
+    /**
+     * Comma separated list of discovery server base URIs (e.g. "http://discovery1:8080,http://discovery2:8080")
+     * for the http client type. The client fails over to the next server if one can not be reached.
+     */
+    @Config("ness.discovery.http.servers")
+    @DefaultNull
+    public String getHttpServers()
+    {
+        return null;
+    }
+
+    /**
+     * Time that a discovery server may hold a poll request of the http client type until it answers that
+     * nothing changed. Default is 30 seconds.
+     */
+    @Config("ness.discovery.http.wait")
+    @Default("30s")
+    public TimeSpan getHttpWait()
+    {
+        return new TimeSpan(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Connect timeout for the http client type. Default is 1 second.
+     */
+    @Config("ness.discovery.http.connect-timeout")
+    @Default("1s")
+    public TimeSpan getHttpConnectTimeout()
+    {
+        return new TimeSpan(1, TimeUnit.SECONDS);
+    }
+
     /**
      * Time to wait at startup for the first discovery world state before moving on with no known services.
      */
@@ -111,4 +217,162 @@ public abstract class DiscoveryClientConfig
     {
         return new TimeSpan("10s");
     }
+
+    /**
+     * Local file that holds a snapshot of the discovery world state. When set, the client loads the snapshot
+     * at startup as a provisional (stale) state and does not wait for the first zookeeper scan. If services are
+     * read on demand (lazy reading or the hierarchical layout), the snapshot holds the services that were looked
+     * up, and only lookups of these services are answered from it. Default is no snapshot.
+     */
+    @Config("ness.discovery.snapshot-file")
+    @DefaultNull
+    public String getSnapshotFile()
+    {
+        return null;
+    }
+
+    /**
+     * Minimum time between two snapshot writes. Default is 30 seconds.
+     */
+    @Config("ness.discovery.snapshot-interval")
+    @Default("30s")
+    public TimeSpan getSnapshotInterval()
+    {
+        return new TimeSpan(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Load balancing strategy for lookups that do not carry a consistent hash hint. Can be set for
+     * all services or per service (e.g. "ness.discovery.user-service.load-balancing"). Accepts "random",
+     * "round-robin", "power-of-two-choices", "peak-ewma" or the class name of a LoadBalancingStrategy
+     * implementation. Default is "random". "power-of-two-choices" and "peak-ewma" use the outstanding requests and
+     * response times of requests made through the http client, other lookups do not influence them.
+     */
+    @Config({"ness.discovery.${serviceName}.load-balancing", "ness.discovery.load-balancing"})
+    @Default("random")
+    public String getLoadBalancing(@Param("serviceName") final String serviceName)
+    {
+        return "random";
+    }
+
+    /**
+     * How keys of consistent hash lookups are distributed over the servers of a service. Can be set for all
+     * services or per service (e.g. "ness.discovery.user-service.ring-strategy"). Accepts "ketama" (hash ring
+     * with virtual nodes), "rendezvous", "maglev" or "jump". Default is "ketama", which with the default hash
+     * and virtual nodes routes exactly like older clients.
+     */
+    @Config({"ness.discovery.${serviceName}.ring-strategy", "ness.discovery.ring-strategy"})
+    @Default("ketama")
+    public String getRingStrategy(@Param("serviceName") final String serviceName)
+    {
+        return "ketama";
+    }
+
+    /**
+     * Hash function for consistent hash lookups, e.g. "FNV1_32_HASH" or "KETAMA_HASH". Default is "FNV1_32_HASH".
+     */
+    @Config({"ness.discovery.${serviceName}.ring-hash", "ness.discovery.ring-hash"})
+    @Default("FNV1_32_HASH")
+    public String getRingHash(@Param("serviceName") final String serviceName)
+    {
+        return "FNV1_32_HASH";
+    }
+
+    /**
+     * Virtual nodes per server for the "ketama" ring and table slots per server for the "maglev" ring. Default is 100.
+     */
+    @Config({"ness.discovery.${serviceName}.ring-virtual-nodes", "ness.discovery.ring-virtual-nodes"})
+    @Default("100")
+    public int getRingVirtualNodes(@Param("serviceName") final String serviceName)
+    {
+        return 100;
+    }
+
+    /**
+     * Whether servers that fail too many requests are taken out of load balanced lookups for a while. Outcomes are
+     * reported by the http client for srvc:// requests or through the report methods of the discovery client.
+     * For srvc:// requests, server errors (5xx) and requests without a response after the request timeout count as
+     * failures. Default is true.
+     */
+    @Config("ness.discovery.outlier.enabled")
+    @Default("true")
+    public boolean isOutlierEjectionEnabled()
+    {
+        return true;
+    }
+
+    /**
+     * Time after which a srvc:// request without a response counts as failed. The http client does not tell its
+     * observers about requests that time out or can not connect, so such a request is only noticed when its thread
+     * submits the next one. A request that is noticed before this time counts as neither success nor failure.
+     * Should be the read timeout of the http client. Default is 10 seconds.
+     */
+    @Config("ness.discovery.outlier.request-timeout")
+    @Default("10s")
+    public TimeSpan getOutlierRequestTimeout()
+    {
+        return new TimeSpan(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Share of failed requests within an interval at which a server is ejected. Default is 0.5.
+     */
+    @Config("ness.discovery.outlier.error-rate")
+    @Default("0.5")
+    public double getOutlierErrorRate()
+    {
+        return 0.5;
+    }
+
+    /**
+     * Least number of requests within an interval before the error rate of a server is judged. Default is 10.
+     */
+    @Config("ness.discovery.outlier.min-requests")
+    @Default("10")
+    public int getOutlierMinRequests()
+    {
+        return 10;
+    }
+
+    /**
+     * Interval over which the error rate of a server is measured. Default is 10 seconds.
+     */
+    @Config("ness.discovery.outlier.interval")
+    @Default("10s")
+    public TimeSpan getOutlierInterval()
+    {
+        return new TimeSpan(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Time a server is ejected for the first time. The time doubles every time the server is ejected again
+     * without a good interval in between. Default is 30 seconds.
+     */
+    @Config("ness.discovery.outlier.ejection-time")
+    @Default("30s")
+    public TimeSpan getOutlierEjectionTime()
+    {
+        return new TimeSpan(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Longest time a server is ejected. Default is 5 minutes.
+     */
+    @Config("ness.discovery.outlier.max-ejection-time")
+    @Default("300s")
+    public TimeSpan getOutlierMaxEjectionTime()
+    {
+        return new TimeSpan(300, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Largest share of the servers of a service type that may be ejected at the same time. At least one server
+     * is always kept. Default is 0.2.
+     */
+    @Config("ness.discovery.outlier.max-ejected-share")
+    @Default("0.2")
+    public double getOutlierMaxEjectedShare()
+    {
+        return 0.2;
+    }
 }
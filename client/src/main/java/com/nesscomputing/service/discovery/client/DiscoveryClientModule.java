@@ -24,11 +24,15 @@ import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
 import com.google.inject.Provides;
 import com.google.inject.Scopes;
 import com.google.inject.Singleton;
@@ -41,6 +45,7 @@ import com.nesscomputing.config.ConfigProvider;
 import com.nesscomputing.httpclient.guice.HttpClientModule;
 import com.nesscomputing.logging.Log;
 import com.nesscomputing.service.discovery.client.internal.DiscoveryClientImpl;
+import com.nesscomputing.service.discovery.client.internal.HttpDiscoveryClientImpl;
 import com.nesscomputing.service.discovery.client.internal.ReadOnlyDiscoveryClientImpl;
 
 /**
@@ -51,6 +56,10 @@ public class DiscoveryClientModule extends AbstractModule
     public static final String ZOOKEEPER_CONNECT_NAME = "_zookeeper_connect";
     public static final Named ZOOKEEPER_CONNECT_NAMED = Names.named(ZOOKEEPER_CONNECT_NAME);
 
+    /** Bind an executor with this name to run the service discovery listeners on it. */
+    public static final String LISTENER_EXECUTOR_NAME = "_discovery_listener_executor";
+    public static final Named LISTENER_EXECUTOR_NAMED = Names.named(LISTENER_EXECUTOR_NAME);
+
     private static final Log LOG = Log.findLog();
 
     private final boolean readOnly;
@@ -80,7 +89,8 @@ public class DiscoveryClientModule extends AbstractModule
         bind(ServiceURIConverter.class).in(Scopes.SINGLETON);
 
         if (readOnly) {
-            bind(ReadOnlyDiscoveryClient.class).to(ReadOnlyDiscoveryClientImpl.class).in(Scopes.SINGLETON);
+            // Only the selected implementation may be created, both start a client when the lifecycle starts.
+            bind(ReadOnlyDiscoveryClient.class).toProvider(ReadOnlyDiscoveryClientProvider.class).in(Scopes.SINGLETON);
         }
         else {
             bind(DiscoveryClient.class).to(DiscoveryClientImpl.class).in(Scopes.SINGLETON);
@@ -194,5 +204,46 @@ public class DiscoveryClientModule extends AbstractModule
         return results;
     }
 
+    /**
+     * Selects the read-only client implementation according to "ness.discovery.client-type" and creates only that
+     * one. The implementations are not bound, so an injector in production stage does not create the other one.
+     */
+    private static class ReadOnlyDiscoveryClientProvider implements Provider<ReadOnlyDiscoveryClient>
+    {
+        private final Injector injector;
+        private final DiscoveryClientConfig clientConfig;
+        private final ObjectMapper objectMapper;
+        private final Provider<String> connectStringProvider;
+
+        @Inject
+        ReadOnlyDiscoveryClientProvider(final Injector injector,
+                                        final DiscoveryClientConfig clientConfig,
+                                        final ObjectMapper objectMapper,
+                                        @Named(ZOOKEEPER_CONNECT_NAME) final Provider<String> connectStringProvider)
+        {
+            this.injector = injector;
+            this.clientConfig = clientConfig;
+            this.objectMapper = objectMapper;
+            this.connectStringProvider = connectStringProvider;
+        }
 
+        @Override
+        public ReadOnlyDiscoveryClient get()
+        {
+            final String clientType = StringUtils.trimToEmpty(clientConfig.getClientType());
+            final ReadOnlyDiscoveryClient client;
+            if ("http".equalsIgnoreCase(clientType)) {
+                client = new HttpDiscoveryClientImpl(clientConfig, objectMapper);
+            }
+            else {
+                if (!"zookeeper".equalsIgnoreCase(clientType)) {
+                    LOG.warn("Unknown discovery client type '%s', using zookeeper!", clientType);
+                }
+                client = new ReadOnlyDiscoveryClientImpl(connectStringProvider.get(), clientConfig, objectMapper);
+            }
+            // Lifecycle and listener executor.
+            injector.injectMembers(client);
+            return client;
+        }
+    }
 }
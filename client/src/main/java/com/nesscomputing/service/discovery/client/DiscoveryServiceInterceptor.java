@@ -19,11 +19,13 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.nesscomputing.httpclient.HttpClientObserver;
 import com.nesscomputing.httpclient.HttpClientRequest;
+import com.nesscomputing.httpclient.HttpClientResponse;
 import com.nesscomputing.httpclient.internal.HttpClientHeader;
 import com.nesscomputing.logging.Log;
 
@@ -31,23 +33,43 @@ import com.nesscomputing.logging.Log;
  * Translates "srvc://" URIs into service discovered http/https URIs.
  *
  * Service discovery hints can be added as headers prefixed with "X-Ness-SDHint-"
+ *
+ * Every translated request and its outcome are reported back to the discovery client, a server error (5xx) counts
+ * as failure. The http client runs a request and its observers on the calling thread, so the pending request is
+ * kept per thread. The http client does not tell observers about requests that end without a response, they are
+ * noticed when the thread submits its next request. If the request timeout passed by then, the request counts as
+ * failed with the timeout as latency, otherwise it is reported as abandoned.
  */
 public class DiscoveryServiceInterceptor extends HttpClientObserver
 {
     private static final Log LOG = Log.findLog();
 
     private final ServiceURIConverter serviceUriConverter;
+    private final ReadOnlyDiscoveryClient discoveryClient;
+    private final long requestTimeout;
+
+    private final ThreadLocal<PendingRequest> pendingRequest = new ThreadLocal<PendingRequest>();
 
     @Inject
-    DiscoveryServiceInterceptor(final ServiceURIConverter serviceUriConverter)
+    DiscoveryServiceInterceptor(final ServiceURIConverter serviceUriConverter,
+                                final ReadOnlyDiscoveryClient discoveryClient,
+                                final DiscoveryClientConfig discoveryConfig)
     {
         this.serviceUriConverter = serviceUriConverter;
+        this.discoveryClient = discoveryClient;
+        this.requestTimeout = TimeUnit.MILLISECONDS.toNanos(discoveryConfig.getOutlierRequestTimeout().getMillis());
     }
 
     @Override
     public <RequestType> HttpClientRequest<RequestType> onRequestSubmitted(final HttpClientRequest<RequestType> request)
         throws IOException
     {
+        final PendingRequest unanswered = pendingRequest.get();
+        if (unanswered != null) {
+            pendingRequest.remove();
+            reportUnanswered(unanswered);
+        }
+
         final URI requestUri = request.getUri();
         if (!"srvc".equals(requestUri.getScheme())) {
             return request;
@@ -64,10 +86,13 @@ public class DiscoveryServiceInterceptor extends HttpClientObserver
                 		hints.add(new ServiceHint(name.substring("X-Ness-SDHint-".length(), name.length()), header.getValue()));
                 	}
                 }
-                final URI newUri = serviceUriConverter.convertServiceURI(serviceURI, hints.toArray(new ServiceHint[hints.size()]));
+                final ServiceInformation serviceInfo = serviceUriConverter.findServiceInformation(serviceURI, hints.toArray(new ServiceHint[hints.size()]));
+                final URI newUri = serviceUriConverter.convertServiceURI(serviceURI, serviceInfo);
                 final HttpClientRequest.Builder<RequestType> builder = HttpClientRequest.Builder.fromRequest(request);
                 LOG.trace("New URI now %s", newUri);
                 builder.setUrl(newUri);
+                discoveryClient.reportRequest(serviceInfo);
+                pendingRequest.set(new PendingRequest(serviceInfo));
                 return builder.request();
             }
             catch (URISyntaxException use) {
@@ -75,4 +100,43 @@ public class DiscoveryServiceInterceptor extends HttpClientObserver
             }
         }
     }
+
+    @Override
+    public HttpClientResponse onResponseReceived(final HttpClientResponse response)
+        throws IOException
+    {
+        final PendingRequest pending = pendingRequest.get();
+        if (pending != null) {
+            pendingRequest.remove();
+            if (response.getStatusCode() >= 500) {
+                discoveryClient.reportFailure(pending.serviceInfo, System.nanoTime() - pending.startTime, TimeUnit.NANOSECONDS);
+            }
+            else {
+                discoveryClient.reportSuccess(pending.serviceInfo, System.nanoTime() - pending.startTime, TimeUnit.NANOSECONDS);
+            }
+        }
+        return response;
+    }
+
+    private void reportUnanswered(final PendingRequest pending)
+    {
+        // Only an overdue request is known to have failed, an earlier one may just have been dropped.
+        if (System.nanoTime() - pending.startTime >= requestTimeout) {
+            discoveryClient.reportFailure(pending.serviceInfo, requestTimeout, TimeUnit.NANOSECONDS);
+        }
+        else {
+            discoveryClient.reportAbandoned(pending.serviceInfo);
+        }
+    }
+
+    private static final class PendingRequest
+    {
+        private final ServiceInformation serviceInfo;
+        private final long startTime = System.nanoTime();
+
+        private PendingRequest(final ServiceInformation serviceInfo)
+        {
+            this.serviceInfo = serviceInfo;
+        }
+    }
 }
@@ -18,6 +18,7 @@ package com.nesscomputing.service.discovery.client;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 
@@ -68,4 +69,64 @@ public interface ReadOnlyDiscoveryClient
      * Return a full view of the service information.
      */
     Map<String, List<ServiceInformation>> findAllServiceInformation();
+
+    /**
+     * Return the service element with the given service id or null if there is none.
+     */
+    ServiceInformation findServiceInformation(UUID serviceId);
+
+    /**
+     * Return all service elements announced for the given address. The list is immutable.
+     */
+    List<ServiceInformation> findAllServiceInformationByAddress(String serviceAddress);
+
+    /**
+     * Return all static announcements. The list is immutable.
+     */
+    List<ServiceInformation> findStaticAnnouncements();
+
+    /**
+     * Return all static announcements for the given service name. The list is immutable.
+     */
+    List<ServiceInformation> findStaticAnnouncements(String serviceName);
+
+    /**
+     * Registers a listener for all changes of the state of the world. Only changes after the registration are
+     * delivered, so read the current state after adding the listener.
+     */
+    void addListener(ServiceDiscoveryListener listener);
+
+    /**
+     * Registers a listener for the changes of a service. If the service type is null, the changes of all types
+     * are delivered.
+     */
+    void addListener(ServiceDiscoveryListener listener, String serviceName, String serviceType);
+
+    /**
+     * Removes all registrations of a listener. Events that were not delivered yet are dropped.
+     */
+    void removeListener(ServiceDiscoveryListener listener);
+
+    /**
+     * Reports that a request was sent to a server that was returned by a lookup. Every reported request must be
+     * followed by a success, failure or abandoned report.
+     */
+    void reportRequest(ServiceInformation serviceInformation);
+
+    /**
+     * Reports a successful request to a server that was returned by a lookup.
+     */
+    void reportSuccess(ServiceInformation serviceInformation, long latency, TimeUnit timeUnit);
+
+    /**
+     * Reports a failed request to a server that was returned by a lookup. Servers that fail too often are left out of
+     * lookups without a consistent hash hint for a while.
+     */
+    void reportFailure(ServiceInformation serviceInformation, long latency, TimeUnit timeUnit);
+
+    /**
+     * Reports a request to a server that was returned by a lookup whose outcome is not known, e.g. because it ended
+     * without a response. The request counts as neither success nor failure.
+     */
+    void reportAbandoned(ServiceInformation serviceInformation);
 }
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client;
+
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A change of the state of the world, limited to the services that a listener registered for. An announcement
+ * that is still there under the same service id but with different content is reported as changed, not as removed
+ * and added again.
+ */
+public final class ServiceDiscoveryEvent
+{
+    private final long generation;
+    private final List<ServiceInformation> added;
+    private final List<ServiceInformation> removed;
+    private final List<ServiceInformation> changed;
+
+    public ServiceDiscoveryEvent(final long generation,
+                                 final List<ServiceInformation> added,
+                                 final List<ServiceInformation> removed,
+                                 final List<ServiceInformation> changed)
+    {
+        this.generation = generation;
+        this.added = ImmutableList.copyOf(added);
+        this.removed = ImmutableList.copyOf(removed);
+        this.changed = ImmutableList.copyOf(changed);
+    }
+
+    /**
+     * Generation of the state of the world after the change.
+     */
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    public List<ServiceInformation> getAdded()
+    {
+        return added;
+    }
+
+    public List<ServiceInformation> getRemoved()
+    {
+        return removed;
+    }
+
+    /**
+     * The new versions of the announcements that changed.
+     */
+    public List<ServiceInformation> getChanged()
+    {
+        return changed;
+    }
+
+    public boolean isEmpty()
+    {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this).append("generation", generation)
+            .append("added", added)
+            .append("removed", removed)
+            .append("changed", changed)
+            .toString();
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client;
+
+/**
+ * Receives the changes of the state of the world. Register with {@link ReadOnlyDiscoveryClient#addListener}.
+ */
+public interface ServiceDiscoveryListener
+{
+    /**
+     * Called after the state of the world changed. Events are delivered one at a time and in the order of their
+     * generations, but not on the thread that changed the state.
+     */
+    void onWorldChange(ServiceDiscoveryEvent event);
+}
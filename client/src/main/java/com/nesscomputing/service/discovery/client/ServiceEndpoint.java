@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The network endpoint of a service announcement, resolved once from the scheme, address and
+ * port properties of the {@link ServiceInformation}. Lookups only need to append path, query and
+ * fragment to the pre-rendered prefix.
+ */
+@Immutable
+public final class ServiceEndpoint
+{
+    private final String scheme;
+    private final String host;
+    private final int port;
+    private final URI baseUri;
+    private final String prefix;
+
+    /** URI form of the prefix, created on first use. */
+    private volatile URI prefixUri = null;
+
+    /**
+     * Resolves the endpoint of a service announcement.
+     *
+     * @return The endpoint or null if the announcement does not contain scheme, address and port.
+     * @throws IllegalArgumentException If the announcement contains address information that can not be turned into an URI.
+     */
+    @Nullable
+    static ServiceEndpoint resolve(@Nonnull final ServiceInformation serviceInfo)
+    {
+        final String scheme = serviceInfo.getProperty(ServiceInformation.PROP_SERVICE_SCHEME);
+        final String address = serviceInfo.getProperty(ServiceInformation.PROP_SERVICE_ADDRESS);
+        final String portStr = serviceInfo.getProperty(ServiceInformation.PROP_SERVICE_PORT);
+
+        if (StringUtils.isEmpty(scheme) || StringUtils.isEmpty(address) || StringUtils.isEmpty(portStr)) {
+            return null;
+        }
+
+        final int port;
+        try {
+            port = Integer.parseInt(portStr);
+        }
+        catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(String.format("Bad port (%s) in Service Information %s!", portStr, serviceInfo), nfe);
+        }
+
+        try {
+            return new ServiceEndpoint(scheme, address, port, new URI(scheme, null, address, port, "", null, null));
+        }
+        catch (URISyntaxException use) {
+            throw new IllegalArgumentException(String.format("Could not create URI from '%s'!", serviceInfo), use);
+        }
+    }
+
+    private ServiceEndpoint(final String scheme, final String host, final int port, final URI baseUri)
+    {
+        this.scheme = scheme;
+        this.host = host;
+        this.port = port;
+        this.baseUri = baseUri;
+
+        final StringBuilder sb = new StringBuilder(scheme).append("://").append(host);
+        if (!isDefaultPort(scheme, port)) {
+            sb.append(':').append(port);
+        }
+        this.prefix = sb.toString();
+    }
+
+    private static boolean isDefaultPort(final String scheme, final int port)
+    {
+        return ("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443);
+    }
+
+    public String getScheme()
+    {
+        return scheme;
+    }
+
+    public String getHost()
+    {
+        return host;
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * @return The URI of the endpoint with an empty path. The port is always present.
+     */
+    public URI getBaseUri()
+    {
+        return baseUri;
+    }
+
+    /**
+     * @return scheme://host[:port]. The port is omitted if it is the default port for http or https.
+     */
+    public String getPrefix()
+    {
+        return prefix;
+    }
+
+    /**
+     * Builds an URI for this endpoint. Path, query and fragment are expected in their raw (escaped) form
+     * and are appended as-is.
+     */
+    public URI toUri(@Nullable final String path, @Nullable final String query, @Nullable final String fragment)
+        throws URISyntaxException
+    {
+        final boolean hasPath = !StringUtils.isBlank(path);
+        final boolean hasQuery = !StringUtils.isBlank(query);
+        final boolean hasFragment = !StringUtils.isBlank(fragment);
+
+        if (!(hasPath || hasQuery || hasFragment)) {
+            URI uri = prefixUri;
+            if (uri == null) {
+                uri = new URI(prefix);
+                prefixUri = uri;
+            }
+            return uri;
+        }
+
+        final StringBuilder sb = new StringBuilder(prefix.length()
+                                                   + (hasPath ? path.length() : 0)
+                                                   + (hasQuery ? query.length() + 1 : 0)
+                                                   + (hasFragment ? fragment.length() + 1 : 0));
+        sb.append(prefix);
+        if (hasPath) {
+            sb.append(path);
+        }
+        if (hasQuery) {
+            sb.append('?').append(query);
+        }
+        if (hasFragment) {
+            sb.append('#').append(fragment);
+        }
+
+        // Any other c'tor does double-escape of the raw elements in path, query and fragment.
+        return new URI(sb.toString());
+    }
+
+    @Override
+    public String toString()
+    {
+        return prefix;
+    }
+}
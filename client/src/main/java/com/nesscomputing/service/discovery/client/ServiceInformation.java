@@ -142,6 +142,15 @@ public class ServiceInformation
         return grabBag.get(propertyName);
     }
 
+    /**
+     * All properties of the announcement, for serialization.
+     */
+    @JsonIgnore
+    Map<String, String> getGrabBag()
+    {
+        return grabBag;
+    }
+
     @JsonIgnore
     public String getAnnouncementName()
     {
@@ -154,6 +163,26 @@ public class ServiceInformation
         return staticAnnouncement;
     }
 
+    private transient volatile ServiceEndpoint endpoint;
+    private transient volatile boolean endpointResolved;
+
+    /**
+     * Returns the network endpoint of this service. The endpoint is resolved on first access and then cached.
+     *
+     * @return The endpoint or null if the service does not announce scheme, address and port.
+     * @throws IllegalArgumentException If the announced address information is malformed.
+     */
+    @JsonIgnore
+    @Nullable
+    public ServiceEndpoint getEndpoint()
+    {
+        if (!endpointResolved) {
+            endpoint = ServiceEndpoint.resolve(this);
+            endpointResolved = true;
+        }
+        return endpoint;
+    }
+
     @Override
     public boolean equals(final Object other)
     {
@@ -20,8 +20,6 @@ import java.net.URISyntaxException;
 
 import javax.annotation.Nonnull;
 
-import org.apache.commons.lang3.StringUtils;
-
 import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -45,9 +43,17 @@ public class ServiceURIConverter
         this.discoveryClientConfig = discoveryClientConfig;
     }
 
-    @SuppressWarnings("PMD.PreserveStackTrace")
     public URI convertServiceURI(@Nonnull final ServiceURI serviceUri, ServiceHint ... hints)
         throws URISyntaxException, ServiceNotAvailableException
+    {
+        return convertServiceURI(serviceUri, findServiceInformation(serviceUri, hints));
+    }
+
+    /**
+     * Looks up the server for a service URI.
+     */
+    public ServiceInformation findServiceInformation(@Nonnull final ServiceURI serviceUri, ServiceHint ... hints)
+        throws ServiceNotAvailableException
     {
         Preconditions.checkArgument(serviceUri != null, "serviceURI can not be null!");
 
@@ -55,52 +61,28 @@ public class ServiceURIConverter
             throw new ServiceNotAvailableException("Service discovery is disabled!");
         }
 
-        final ServiceInformation serviceInfo = discoveryClient.findServiceInformation(serviceUri.getServiceName(), serviceUri.getServiceType(), hints);
-
-        final String scheme = serviceInfo.getProperty(ServiceInformation.PROP_SERVICE_SCHEME);
-        final String address = serviceInfo.getProperty(ServiceInformation.PROP_SERVICE_ADDRESS);
-        if (StringUtils.isEmpty(scheme) || StringUtils.isEmpty(address)) {
-            throw new ServiceNotAvailableException("Service Information %s is incomplete!", serviceInfo);
-        }
-
-        final StringBuilder sb = new StringBuilder(scheme).append("://");
-        sb.append(address);
-
-        final String portStr = serviceInfo.getProperty(ServiceInformation.PROP_SERVICE_PORT);
+        return discoveryClient.findServiceInformation(serviceUri.getServiceName(), serviceUri.getServiceType(), hints);
+    }
 
-        int port = -1;
+    /**
+     * Converts a service URI into a URI on the given server.
+     */
+    @SuppressWarnings("PMD.PreserveStackTrace")
+    public URI convertServiceURI(@Nonnull final ServiceURI serviceUri, @Nonnull final ServiceInformation serviceInfo)
+        throws URISyntaxException, ServiceNotAvailableException
+    {
+        final ServiceEndpoint endpoint;
         try {
-            port = Integer.parseInt(portStr);
-        }
-        catch (NumberFormatException nfe) {
-            throw new ServiceNotAvailableException("Bad port (%s) in Service Information %s is incomplete!", portStr, serviceInfo);
-        }
-
-        if ("http".equals(scheme) && port == 80) {
-            port = -1;
+            endpoint = serviceInfo.getEndpoint();
         }
-        else if ("https".equals(scheme) && port == 443) {
-            port = -1;
+        catch (IllegalArgumentException iae) {
+            throw new ServiceNotAvailableException("Bad address information in Service Information %s!", serviceInfo);
         }
 
-        if (port != -1) {
-            sb.append(':').append(port);
-        }
-
-        final String path = serviceUri.getPath();
-        if (!StringUtils.isBlank(path)) {
-            sb.append(path);
-        }
-        final String query = serviceUri.getQuery();
-        if (!StringUtils.isBlank(query)) {
-            sb.append('?').append(query);
-        }
-        final String fragment = serviceUri.getFragment();
-        if (!StringUtils.isBlank(fragment)) {
-            sb.append('#').append(fragment);
+        if (endpoint == null) {
+            throw new ServiceNotAvailableException("Service Information %s is incomplete!", serviceInfo);
         }
 
-        // Any other c'tor does double-escape of the raw elements in path, query and fragment.
-        return new URI(sb.toString());
+        return endpoint.toUri(serviceUri.getPath(), serviceUri.getQuery(), serviceUri.getFragment());
     }
 }
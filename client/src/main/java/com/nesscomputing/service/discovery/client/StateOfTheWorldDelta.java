@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Changes of the discovery state of the world between two generations, as served by the state endpoint of the
+ * discovery server. A full delta contains the complete state in the added list and replaces everything a client
+ * knows.
+ *
+ * Generations are only meaningful within the epoch of the server that handed them out. The epoch is random for
+ * every server process, so the version of a delta from one server is never taken for one of another server.
+ */
+public class StateOfTheWorldDelta
+{
+    private final long epoch;
+    private final long generation;
+    private final boolean full;
+    private final List<ServiceInformation> added;
+    private final List<ServiceInformation> removed;
+
+    @JsonCreator
+    public StateOfTheWorldDelta(@JsonProperty("epoch") final long epoch,
+                                @JsonProperty("generation") final long generation,
+                                @JsonProperty("full") final boolean full,
+                                @JsonProperty("added") final List<ServiceInformation> added,
+                                @JsonProperty("removed") final List<ServiceInformation> removed)
+    {
+        this.epoch = epoch;
+        this.generation = generation;
+        this.full = full;
+        this.added = added == null ? Collections.<ServiceInformation>emptyList() : added;
+        this.removed = removed == null ? Collections.<ServiceInformation>emptyList() : removed;
+    }
+
+    /**
+     * Epoch of the server that created this delta.
+     */
+    @JsonProperty
+    public long getEpoch()
+    {
+        return epoch;
+    }
+
+    /**
+     * Generation of the state after applying this delta.
+     */
+    @JsonProperty
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    @JsonProperty
+    public boolean isFull()
+    {
+        return full;
+    }
+
+    @JsonProperty
+    public List<ServiceInformation> getAdded()
+    {
+        return added;
+    }
+
+    @JsonProperty
+    public List<ServiceInformation> getRemoved()
+    {
+        return removed;
+    }
+
+    /**
+     * Version of the state after applying this delta, to ask for the next changes with. Also used as ETag.
+     */
+    @JsonIgnore
+    public String getVersion()
+    {
+        return toVersion(epoch, generation);
+    }
+
+    public static String toVersion(final long epoch, final long generation)
+    {
+        return epoch + "-" + generation;
+    }
+
+    @JsonIgnore
+    public boolean isEmpty()
+    {
+        return !full && added.isEmpty() && removed.isEmpty();
+    }
+}
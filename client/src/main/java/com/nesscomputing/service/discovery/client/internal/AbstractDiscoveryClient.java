@@ -16,20 +16,30 @@
 package com.nesscomputing.service.discovery.client.internal;
 
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.lang3.StringUtils;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.DiscoveryClientModule;
 import com.nesscomputing.service.discovery.client.ReadOnlyDiscoveryClient;
+import com.nesscomputing.service.discovery.client.ServiceEndpoint;
+import com.nesscomputing.service.discovery.client.ServiceDiscoveryListener;
 import com.nesscomputing.service.discovery.client.ServiceHint;
 import com.nesscomputing.service.discovery.client.ServiceInformation;
 import com.nesscomputing.service.discovery.client.ServiceNotAvailableException;
@@ -42,14 +52,29 @@ import com.nesscomputing.service.discovery.client.ServiceNotAvailableException;
 @Singleton
 public abstract class AbstractDiscoveryClient implements
         ReadOnlyDiscoveryClient {
+    /** Number of times the load balancing strategy is asked again when it picked an ejected server. */
+    private static final int MAX_SELECT_ATTEMPTS = 3;
+
     private final StateOfTheWorldHolder stateHolder;
 
-    private final Random random = new Random();
+    private final DiscoveryClientConfig discoveryClientConfig;
+
+    private final OutlierDetector outlierDetector;
+
+    /** Load balancing strategy by service name, created on first lookup. */
+    private final ConcurrentMap<String, LoadBalancingStrategy> strategies = new ConcurrentHashMap<String, LoadBalancingStrategy>();
 
     protected AbstractDiscoveryClient(final boolean enabled) {
+        this(enabled, new DiscoveryClientConfig() {});
+    }
+
+    protected AbstractDiscoveryClient(final boolean enabled,
+            final DiscoveryClientConfig discoveryClientConfig) {
         // Only wait for the first service update to happen if service discovery
         // is actually enabled.
         this.stateHolder = new StateOfTheWorldHolder(enabled);
+        this.discoveryClientConfig = discoveryClientConfig;
+        this.outlierDetector = new OutlierDetector(discoveryClientConfig);
     }
 
     @Override
@@ -67,6 +92,23 @@ public abstract class AbstractDiscoveryClient implements
         return stateHolder;
     }
 
+    /**
+     * Returns the generation of the current service map. The generation increases with every change.
+     */
+    public long getStateGeneration() {
+        return stateHolder.getGeneration();
+    }
+
+    /**
+     * Waits until the service map changed from the given generation or the timeout expired.
+     *
+     * @return The current generation.
+     */
+    public long waitForStateChange(final long generation, final long timeout,
+            final TimeUnit timeUnit) throws InterruptedException {
+        return stateHolder.waitForChange(generation, timeout, timeUnit);
+    }
+
     @Override
     @SuppressWarnings("PMD.PreserveStackTrace")
     public URI findServiceUri(final String serviceName,
@@ -75,28 +117,23 @@ public abstract class AbstractDiscoveryClient implements
         final ServiceInformation service = findServiceInformation(serviceName,
                 serviceType, hints);
 
-        final String locatedScheme = service
-                .getProperty(ServiceInformation.PROP_SERVICE_SCHEME);
-        final String locatedAddress = service
-                .getProperty(ServiceInformation.PROP_SERVICE_ADDRESS);
-        final String locatedPort = service
-                .getProperty(ServiceInformation.PROP_SERVICE_PORT);
-
-        if (StringUtils.isEmpty(locatedScheme)
-                || StringUtils.isEmpty(locatedAddress)
-                || StringUtils.isEmpty(locatedPort)) {
+        final ServiceEndpoint endpoint;
+        try {
+            endpoint = service.getEndpoint();
+        } catch (IllegalArgumentException iae) {
             throw new ServiceNotAvailableException(
-                    "Service %s/%s exists but misses address information (%s/%s)",
-                    serviceName, serviceType, locatedAddress, locatedPort);
+                    "Could not create URI from '%s'!", service);
         }
 
-        try {
-            return new URI(locatedScheme, null, locatedAddress,
-                    Integer.parseInt(locatedPort), "", null, null);
-        } catch (URISyntaxException use) {
+        if (endpoint == null) {
             throw new ServiceNotAvailableException(
-                    "Could not create URI from '%s'!", service);
+                    "Service %s/%s exists but misses address information (%s/%s)",
+                    serviceName, serviceType,
+                    service.getProperty(ServiceInformation.PROP_SERVICE_ADDRESS),
+                    service.getProperty(ServiceInformation.PROP_SERVICE_PORT));
         }
+
+        return endpoint.getBaseUri();
     }
 
     @Override
@@ -110,7 +147,7 @@ public abstract class AbstractDiscoveryClient implements
                     serviceName, serviceType);
         }
 
-        final ServiceInformation service = selectHintedService(services, hints);
+        final ServiceInformation service = selectHintedService(serviceName, services, hints);
         if (service == null) {
             throw new ServiceNotAvailableException("No %s/%s service found",
                     serviceName, serviceType);
@@ -129,8 +166,19 @@ public abstract class AbstractDiscoveryClient implements
         return Lists.newArrayList(services);
     }
 
+    /**
+     * Called before a service is looked up. Clients that only read the services they need
+     * make sure here that the service is available.
+     *
+     * @param serviceName The service name or null if all services are looked up.
+     */
+    protected void registerInterest(@Nullable final String serviceName) {
+        // Do nothing, derived classes override this.
+    }
+
     private ConsistentHashRing findRing(final String serviceName,
             final String serviceType) {
+        registerInterest(serviceName);
         final Map<String, ConsistentRingGroup> current = stateHolder.getState();
         ConsistentRingGroup group = current.get(serviceName);
         if (CollectionUtils.isEmpty(group)) {
@@ -144,6 +192,7 @@ public abstract class AbstractDiscoveryClient implements
     @Override
     public List<ServiceInformation> findAllServiceInformation(
             final String serviceName) {
+        registerInterest(serviceName);
         ConsistentRingGroup group = stateHolder.getState().get(serviceName);
         if (CollectionUtils.isEmpty(group)) {
             return Collections.emptyList();
@@ -158,6 +207,7 @@ public abstract class AbstractDiscoveryClient implements
 
     @Override
     public Map<String, List<ServiceInformation>> findAllServiceInformation() {
+        registerInterest(null);
         final Map<String, ConsistentRingGroup> current = stateHolder.getState();
 
         // Do a deep copy to make sure no one can hold a reference to the full
@@ -176,7 +226,111 @@ public abstract class AbstractDiscoveryClient implements
         return result;
     }
 
-    private ServiceInformation selectHintedService(
+    @Override
+    public ServiceInformation findServiceInformation(final UUID serviceId) {
+        registerInterest(null);
+        return stateHolder.getIndex().getByServiceId(serviceId);
+    }
+
+    @Override
+    public List<ServiceInformation> findAllServiceInformationByAddress(
+            final String serviceAddress) {
+        registerInterest(null);
+        return stateHolder.getIndex().getByAddress(serviceAddress);
+    }
+
+    @Override
+    public List<ServiceInformation> findStaticAnnouncements() {
+        registerInterest(null);
+        return stateHolder.getIndex().getStaticAnnouncements();
+    }
+
+    @Override
+    public List<ServiceInformation> findStaticAnnouncements(
+            final String serviceName) {
+        registerInterest(serviceName);
+        return stateHolder.getIndex().getStaticAnnouncements(serviceName);
+    }
+
+    @Override
+    public void addListener(final ServiceDiscoveryListener listener) {
+        stateHolder.getDispatcher().addListener(listener, null, null);
+        registerInterest(null);
+    }
+
+    @Override
+    public void addListener(final ServiceDiscoveryListener listener,
+            final String serviceName, @Nullable final String serviceType) {
+        Preconditions.checkArgument(serviceName != null, "service name must not be null");
+        stateHolder.getDispatcher().addListener(listener, serviceName, serviceType);
+        registerInterest(serviceName);
+    }
+
+    @Override
+    public void removeListener(final ServiceDiscoveryListener listener) {
+        stateHolder.getDispatcher().removeListener(listener);
+    }
+
+    @Override
+    public void reportRequest(final ServiceInformation serviceInformation) {
+        final LoadBalancingStrategy strategy = strategies.get(serviceInformation.getServiceName());
+        if (strategy instanceof LatencyAwareLoadBalancingStrategy) {
+            ((LatencyAwareLoadBalancingStrategy) strategy).requestStarted(serviceInformation);
+        }
+    }
+
+    @Override
+    public void reportSuccess(final ServiceInformation serviceInformation,
+            final long latency, final TimeUnit timeUnit) {
+        reportFinished(serviceInformation, latency, timeUnit, true);
+    }
+
+    @Override
+    public void reportFailure(final ServiceInformation serviceInformation,
+            final long latency, final TimeUnit timeUnit) {
+        reportFinished(serviceInformation, latency, timeUnit, false);
+    }
+
+    @Override
+    public void reportAbandoned(final ServiceInformation serviceInformation) {
+        // Nothing to judge the server on, only the strategy needs to know that the request is over.
+        final LoadBalancingStrategy strategy = strategies.get(serviceInformation.getServiceName());
+        if (strategy instanceof LatencyAwareLoadBalancingStrategy) {
+            ((LatencyAwareLoadBalancingStrategy) strategy).requestAbandoned(serviceInformation);
+        }
+    }
+
+    private void reportFinished(final ServiceInformation serviceInformation,
+            final long latency, final TimeUnit timeUnit, final boolean success) {
+        if (outlierDetector.isEnabled()) {
+            outlierDetector.report(serviceInformation, success, getRingSize(serviceInformation));
+        }
+        final LoadBalancingStrategy strategy = strategies.get(serviceInformation.getServiceName());
+        if (strategy instanceof LatencyAwareLoadBalancingStrategy) {
+            ((LatencyAwareLoadBalancingStrategy) strategy).requestFinished(serviceInformation, timeUnit.toNanos(latency), success);
+        }
+    }
+
+    private int getRingSize(final ServiceInformation serviceInformation) {
+        final ConsistentRingGroup group = stateHolder.getState().get(serviceInformation.getServiceName());
+        if (group == null) {
+            return 0;
+        }
+        final ConsistentHashRing ring = group.getRing(serviceInformation.getServiceType());
+        return ring == null ? 0 : ring.size();
+    }
+
+    /**
+     * Sets the executor that delivers the events to listeners. By default, a
+     * single daemon thread is used.
+     */
+    @Inject(optional = true)
+    public void setListenerExecutor(
+            @Named(DiscoveryClientModule.LISTENER_EXECUTOR_NAME) final Executor executor) {
+        stateHolder.getDispatcher().setExecutor(executor);
+    }
+
+    private ServiceInformation selectHintedService(final String serviceName,
             final ConsistentHashRing ring, final ServiceHint... hints) {
         if (CollectionUtils.isEmpty(ring)) {
             return null;
@@ -193,7 +347,49 @@ public abstract class AbstractDiscoveryClient implements
         if (hashKey != null) {
             return ring.get(hashKey);
         } else {
-            return ring.get(String.valueOf(random.nextInt()));
+            return selectHealthyService(getLoadBalancingStrategy(serviceName), ring);
+        }
+    }
+
+    /**
+     * Asks the strategy again if it picked an ejected server. Only a share of the servers can be ejected, so
+     * this rarely takes more than one more try.
+     */
+    private ServiceInformation selectHealthyService(
+            final LoadBalancingStrategy strategy, final ConsistentHashRing ring) {
+        final ServiceInformation selected = strategy.select(ring);
+        if (!outlierDetector.isEjected(selected)) {
+            return selected;
+        }
+
+        for (int i = 0; i < MAX_SELECT_ATTEMPTS; i++) {
+            final ServiceInformation other = strategy.select(ring);
+            if (!outlierDetector.isEjected(other)) {
+                return other;
+            }
+        }
+
+        for (int i = 0; i < ring.size(); i++) {
+            final ServiceInformation other = ring.getServer(i);
+            if (!outlierDetector.isEjected(other)) {
+                return other;
+            }
+        }
+        return selected;
+    }
+
+    private LoadBalancingStrategy getLoadBalancingStrategy(
+            final String serviceName) {
+        LoadBalancingStrategy strategy = strategies.get(serviceName);
+        if (strategy == null) {
+            strategy = LoadBalancingStrategies.forName(discoveryClientConfig
+                    .getLoadBalancing(serviceName));
+            final LoadBalancingStrategy oldStrategy = strategies.putIfAbsent(
+                    serviceName, strategy);
+            if (oldStrategy != null) {
+                strategy = oldStrategy;
+            }
         }
+        return strategy;
     }
 }
@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.CheckForNull;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Compacted copy of all announcement nodes of the discovery root. The discovery server publishes it so that
+ * clients can load all announcements with a few reads instead of one read per announcement.
+ * <p>
+ * The state lives next to the discovery root (e.g. <code>/ness/srvc-compacted</code>). The data of that node
+ * is a small header, the deflated announcements are split into chunk nodes named
+ * <code>&lt;generation&gt;-&lt;index&gt;</code> below it. A new state is published by creating the chunks of
+ * the next generation, then updating the header and finally deleting the chunks of older generations.
+ * <p>
+ * The header carries the child version (cversion) of the root that the state was built from. A client only
+ * trusts the state if it is not older than the root it sees.
+ */
+public final class CompactedState
+{
+    public static final String PATH_SUFFIX = "-compacted";
+
+    /** Chunks stay well below the default zookeeper node size limit of 1 MB. */
+    public static final int CHUNK_SIZE = 512 * 1024;
+
+    static final int MAGIC = 0x4e44434d;
+    static final int VERSION = 1;
+
+    private final long generation;
+    private final int rootCversion;
+    private final List<Node> nodes;
+
+    public CompactedState(final long generation, final int rootCversion, final List<Node> nodes)
+    {
+        this.generation = generation;
+        this.rootCversion = rootCversion;
+        this.nodes = Collections.unmodifiableList(nodes);
+    }
+
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    public int getRootCversion()
+    {
+        return rootCversion;
+    }
+
+    public List<Node> getNodes()
+    {
+        return nodes;
+    }
+
+    public static String getStatePath(final String root)
+    {
+        return root + PATH_SUFFIX;
+    }
+
+    public static String getChunkName(final long generation, final int index)
+    {
+        return generation + "-" + index;
+    }
+
+    /**
+     * Returns the generation of a chunk node or -1 if the name is not a chunk name.
+     */
+    public static long getChunkGeneration(final String chunkName)
+    {
+        final int index = chunkName.indexOf('-');
+        if (index > 0) {
+            try {
+                return Long.parseLong(chunkName.substring(0, index));
+            }
+            catch (NumberFormatException nfe) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the deflated nodes, split into chunks.
+     */
+    public List<byte []> encodeChunks() throws IOException
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bos));
+        out.writeInt(nodes.size());
+        for (final Node node : nodes) {
+            out.writeUTF(node.getName());
+            out.writeLong(node.getCzxid());
+            out.writeInt(node.getVersion());
+            out.writeInt(node.getData().length);
+            out.write(node.getData());
+        }
+        out.close();
+
+        final byte [] payload = bos.toByteArray();
+        final List<byte []> chunks = new ArrayList<byte []>();
+        for (int offset = 0; offset < payload.length; offset += CHUNK_SIZE) {
+            chunks.add(Arrays.copyOfRange(payload, offset, Math.min(payload.length, offset + CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the header for the given chunks, as returned by {@link #encodeChunks()}.
+     */
+    public byte [] encodeHeader(final List<byte []> chunks)
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + 8 + 4 + 4 + 8);
+        buffer.putInt(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.putLong(generation);
+        buffer.putInt(rootCversion);
+        buffer.putInt(chunks.size());
+        buffer.putLong(checksum(chunks));
+        return buffer.array();
+    }
+
+    /**
+     * Parses a header and the chunks it points to.
+     *
+     * @throws IOException If the data is malformed or the chunks do not match the header.
+     */
+    public static CompactedState decode(final byte [] header, final List<byte []> chunks) throws IOException
+    {
+        final Header h = Header.decode(header);
+        if (chunks.size() != h.chunkCount || checksum(chunks) != h.checksum) {
+            throw new IOException("Chunks do not match compacted state " + h.generation);
+        }
+
+        final List<InputStream> streams = new ArrayList<InputStream>(chunks.size());
+        for (final byte [] chunk : chunks) {
+            streams.add(new ByteArrayInputStream(chunk));
+        }
+        final DataInputStream in = new DataInputStream(new InflaterInputStream(new SequenceInputStream(Iterators.asEnumeration(streams.iterator()))));
+        try {
+            final int count = in.readInt();
+            Preconditions.checkState(count >= 0, "negative node count");
+            final List<Node> nodes = new ArrayList<Node>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                final String name = in.readUTF();
+                final long czxid = in.readLong();
+                final int version = in.readInt();
+                final byte [] data = new byte [in.readInt()];
+                in.readFully(data);
+                nodes.add(new Node(name, czxid, version, data));
+            }
+            if (in.read() != -1) {
+                throw new IOException("Trailing bytes in compacted state " + h.generation);
+            }
+            return new CompactedState(h.generation, h.rootCversion, nodes);
+        }
+        catch (IllegalStateException ise) {
+            throw new IOException("Malformed compacted state " + h.generation, ise);
+        }
+        catch (NegativeArraySizeException nase) {
+            throw new IOException("Malformed compacted state " + h.generation, nase);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the compacted state from zookeeper. The chunks are read in parallel.
+     *
+     * @return The compacted state or null if none was published or a newer one replaced it while it was read.
+     * @throws IOException If the state is malformed.
+     */
+    @CheckForNull
+    static CompactedState read(final ZooKeeper zookeeper, final String statePath, final long timeout, final TimeUnit unit)
+        throws KeeperException, InterruptedException, IOException
+    {
+        final byte [] header;
+        try {
+            header = zookeeper.getData(statePath, false, null);
+        }
+        catch (KeeperException.NoNodeException nne) {
+            return null;
+        }
+        if (header == null || header.length == 0) {
+            // Created, but nothing was published yet.
+            return null;
+        }
+
+        final Header h = Header.decode(header);
+        final AtomicReferenceArray<byte []> chunks = new AtomicReferenceArray<byte []>(h.chunkCount);
+        final CountDownLatch latch = new CountDownLatch(h.chunkCount);
+        for (int i = 0; i < h.chunkCount; i++) {
+            final int index = i;
+            zookeeper.getData(statePath + "/" + getChunkName(h.generation, i), false, new DataCallback() {
+                @Override
+                public void processResult(final int rc, final String path, final Object ctx, final byte [] data, final Stat stat) {
+                    if (rc == Code.OK.intValue()) {
+                        chunks.set(index, data);
+                    }
+                    latch.countDown();
+                }
+            }, null);
+        }
+
+        if (!latch.await(timeout, unit)) {
+            throw KeeperException.create(Code.OPERATIONTIMEOUT, statePath);
+        }
+
+        final List<byte []> result = new ArrayList<byte []>(h.chunkCount);
+        for (int i = 0; i < h.chunkCount; i++) {
+            final byte [] chunk = chunks.get(i);
+            if (chunk == null) {
+                // A newer state was published and the chunks of this one were removed.
+                return null;
+            }
+            result.add(chunk);
+        }
+        return decode(header, result);
+    }
+
+    private static long checksum(final List<byte []> chunks)
+    {
+        final CRC32 crc = new CRC32();
+        for (final byte [] chunk : chunks) {
+            crc.update(chunk, 0, chunk.length);
+        }
+        return crc.getValue();
+    }
+
+    private static final class Header
+    {
+        private final long generation;
+        private final int rootCversion;
+        private final int chunkCount;
+        private final long checksum;
+
+        private Header(final long generation, final int rootCversion, final int chunkCount, final long checksum)
+        {
+            this.generation = generation;
+            this.rootCversion = rootCversion;
+            this.chunkCount = chunkCount;
+            this.checksum = checksum;
+        }
+
+        private static Header decode(final byte [] data) throws IOException
+        {
+            try {
+                final ByteBuffer buffer = ByteBuffer.wrap(data);
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException("Not a compacted state");
+                }
+                final int version = buffer.get() & 0xff;
+                if (version != VERSION) {
+                    throw new IOException("Unsupported compacted state version " + version);
+                }
+                final Header header = new Header(buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+                if (header.chunkCount < 0 || buffer.hasRemaining()) {
+                    throw new IOException("Malformed compacted state header");
+                }
+                return header;
+            }
+            catch (BufferUnderflowException bue) {
+                throw new IOException("Truncated compacted state header", bue);
+            }
+        }
+    }
+
+    /**
+     * A single announcement node.
+     */
+    public static final class Node
+    {
+        private final String name;
+        private final long czxid;
+        private final int version;
+        private final byte [] data;
+
+        public Node(final String name, final long czxid, final int version, final byte [] data)
+        {
+            this.name = name;
+            this.czxid = czxid;
+            this.version = version;
+            this.data = data;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getCzxid()
+        {
+            return czxid;
+        }
+
+        public int getVersion()
+        {
+            return version;
+        }
+
+        public byte [] getData()
+        {
+            return data;
+        }
+    }
+}
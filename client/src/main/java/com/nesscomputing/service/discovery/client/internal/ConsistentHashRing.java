@@ -19,77 +19,162 @@
 package com.nesscomputing.service.discovery.client.internal;
 
 import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
-import java.util.SortedMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import javax.annotation.concurrent.Immutable;
 
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.nesscomputing.service.discovery.client.ServiceInformation;
 
 /** Data structure that can be used to efficiently find the correct server
  * that serves a particular hash key.
  *
  * Given two ConsistentHashRings that were created from similar lists of servers,
- * "many" keys should result in the same server being chosen.
- *
- * For some background, see: <http://www.last.fm/user/RJ/journal/2007/04/10/rz_libketama_-_a_consistent_hashing_algo_for_memcache_clients>
+ * "many" keys should result in the same server being chosen. How keys are distributed
+ * is decided by the {@link RingStrategy} of the ring, the default is the classic hash ring
+ * ({@link RingStrategies#COMPATIBLE}).
  *
  * @author christopher
  *
  */
 @Immutable
 public class ConsistentHashRing extends AbstractCollection<ServiceInformation> {
-    private final HashAlgorithm algorithm = HashAlgorithm.FNV1_32_HASH;
-    private final SortedMap<Long, ServiceInformation> ring = Maps.newTreeMap();
+    private static final Comparator<ServiceInformation> SERVICE_ID_ORDER = new Comparator<ServiceInformation>() {
+        @Override
+        public int compare(ServiceInformation o1, ServiceInformation o2) {
+            return o1.getServiceId().compareTo(o2.getServiceId());
+        }
+    };
+
+    private final RingStrategy strategy;
     private final List<ServiceInformation> servers;
+    /** Maps keys to servers. Null if the ring is empty. */
+    private final RingLayout layout;
 
     public ConsistentHashRing(List<ServiceInformation> servers) {
+        this(servers, RingStrategies.COMPATIBLE);
+    }
+
+    public ConsistentHashRing(List<ServiceInformation> servers, RingStrategy strategy) {
+        Preconditions.checkArgument(strategy != null, "ring strategy can not be null!");
+        this.strategy = strategy;
         //Make a copy before sorting the list
         this.servers = Lists.newArrayList(servers);
         //Sort the servers, so that the order in which we insert them into the ring is stable
-        Collections.sort(this.servers, new Comparator<ServiceInformation>() {
-            @Override
-            public int compare(ServiceInformation o1, ServiceInformation o2) {
-                return o1.getServiceId().compareTo(o2.getServiceId());
+        Collections.sort(this.servers, SERVICE_ID_ORDER);
+        this.layout = this.servers.isEmpty() ? null : strategy.build(this.servers);
+    }
+
+    private ConsistentHashRing(List<ServiceInformation> servers, RingStrategy strategy, RingLayout layout) {
+        this.strategy = strategy;
+        this.servers = servers;
+        this.layout = layout;
+    }
+
+    /** Returns a ring for the servers of this ring minus the removed servers plus the added servers.
+     *
+     * The result routes exactly like a ring built from scratch for the same servers and strategy. Strategies
+     * that support it carry over the unchanged parts, e.g. the classic hash ring only computes the virtual
+     * nodes of the added servers.
+     *
+     * @param added servers to add
+     * @param removed servers to remove. Servers that are not part of this ring are ignored.
+     */
+    public ConsistentHashRing withChanges(Collection<ServiceInformation> added, Collection<ServiceInformation> removed) {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return this;
+        }
+
+        final Set<ServiceInformation> removedSet = Sets.newHashSet(removed);
+        final List<ServiceInformation> newServers = Lists.newArrayListWithCapacity(servers.size() + added.size());
+        for (ServiceInformation info : servers) {
+            if (!removedSet.contains(info)) {
+                newServers.add(info);
             }
-        });
-
-        for (ServiceInformation info: this.servers) {
-            //Insert each server at 100 points in the ring, so that load is
-            //(more) evenly redistributed if it dies, and a new ring is built from the remaining servers.
-            Random rand = new Random(0);
-            for (int i = 0; i < 100; i++) {
-                //Append a deterministic random sequence
-                long hash = algorithm.hash(info.getServiceId().toString() + rand.nextInt());
-                ring.put(hash, info);
+        }
+        newServers.addAll(added);
+        Collections.sort(newServers, SERVICE_ID_ORDER);
+
+        if (newServers.isEmpty() || layout == null) {
+            return new ConsistentHashRing(newServers, strategy);
+        }
+
+        //Servers sharing an id have no well defined order, so the layout can not be carried over.
+        //This does not happen with real announcements, do the slow thing.
+        for (int i = 1; i < newServers.size(); i++) {
+            if (SERVICE_ID_ORDER.compare(newServers.get(i - 1), newServers.get(i)) == 0) {
+                return new ConsistentHashRing(newServers, strategy);
             }
         }
+
+        //Map the index of every kept server to its index in the new ring. As both lists are
+        //sorted the same way, the mapping keeps the order.
+        final Map<ServiceInformation, Integer> newIndexes = new IdentityHashMap<ServiceInformation, Integer>(newServers.size());
+        for (int i = 0; i < newServers.size(); i++) {
+            newIndexes.put(newServers.get(i), i);
+        }
+        final int[] remap = new int[servers.size()];
+        for (int i = 0; i < remap.length; i++) {
+            final Integer newIndex = newIndexes.get(servers.get(i));
+            remap[i] = (newIndex == null || removedSet.contains(servers.get(i))) ? -1 : newIndex;
+        }
+        final int[] addedIndexes = new int[added.size()];
+        int a = 0;
+        for (ServiceInformation info : added) {
+            addedIndexes[a++] = newIndexes.get(info);
+        }
+        Arrays.sort(addedIndexes);
+
+        return new ConsistentHashRing(newServers, strategy, strategy.update(layout, newServers, remap, addedIndexes));
     }
 
     /** Returns the appropriate server for the given key.
      *
-     * Running time: O(1)
+     * Running time depends on the ring strategy, the default ring is O(log N), where N is the number of
+     * virtual nodes. Does not allocate.
      *
      * @param key
      * @throws java.util.NoSuchElementException if the ring is empty
      * @return
      */
     public ServiceInformation get(String key) {
-        ServiceInformation info = null;
-        long hash = algorithm.hash(key);
-        //Find the first server with a hash key after this one
-        final SortedMap<Long, ServiceInformation> tailMap = ring.tailMap(hash);
-        //Wrap around to the beginning of the ring, if we went past the last one
-        hash = tailMap.isEmpty() ? ring.firstKey() : tailMap.firstKey();
-        info = ring.get(hash);
-        return info;
+        if (layout == null) {
+            throw new NoSuchElementException();
+        }
+        return servers.get(layout.locate(key));
+    }
+
+    public RingStrategy getStrategy() {
+        return strategy;
+    }
+
+    /** Returns the server at the given position. Servers are ordered by service id.
+     *
+     * @param index 0 <= index < size()
+     */
+    public ServiceInformation getServer(int index) {
+        return servers.get(index);
+    }
+
+    /** Returns true if the other ring contains the same servers and an equal layout.
+     */
+    @VisibleForTesting
+    boolean hasSameLayout(ConsistentHashRing other) {
+        return servers.equals(other.servers) && Objects.equal(layout, other.layout);
     }
 
     @Override
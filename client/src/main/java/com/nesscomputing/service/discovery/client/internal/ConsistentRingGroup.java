@@ -18,10 +18,11 @@ package com.nesscomputing.service.discovery.client.internal;
 import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 import org.apache.commons.lang3.StringUtils;
@@ -29,6 +30,7 @@ import org.apache.commons.lang3.StringUtils;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.nesscomputing.service.discovery.client.ServiceInformation;
 
 /** A group of servers, partitioned into rings by their service type, which provide a particular service.
@@ -38,10 +40,16 @@ import com.nesscomputing.service.discovery.client.ServiceInformation;
  */
 public class ConsistentRingGroup extends AbstractCollection<ConsistentHashRing> {
 	private final Map<String, ConsistentHashRing> rings = Maps.newHashMap();
-	private final Random rand = new Random();
 	private final int totalServers;
+	private final RingStrategy ringStrategy;
 
 	public ConsistentRingGroup(Collection<ServiceInformation> servers) {
+		this(servers, RingStrategies.COMPATIBLE);
+	}
+
+	public ConsistentRingGroup(Collection<ServiceInformation> servers, RingStrategy ringStrategy) {
+		Preconditions.checkArgument(ringStrategy != null, "ring strategy can not be null!");
+		this.ringStrategy = ringStrategy;
 		totalServers = servers.size();
 		Map<String, List<ServiceInformation>> serverGroups = Maps.newHashMap();
 		String serviceName = null;
@@ -58,8 +66,77 @@ public class ConsistentRingGroup extends AbstractCollection<ConsistentHashRing>
 		}
 
 		for (Map.Entry<String, List<ServiceInformation>> entry: serverGroups.entrySet()) {
-			rings.put(entry.getKey(), new ConsistentHashRing(entry.getValue()));
+			rings.put(entry.getKey(), new ConsistentHashRing(entry.getValue(), ringStrategy));
+		}
+	}
+
+	private ConsistentRingGroup(Map<String, ConsistentHashRing> rings, int totalServers, RingStrategy ringStrategy) {
+		this.rings.putAll(rings);
+		this.totalServers = totalServers;
+		this.ringStrategy = ringStrategy;
+	}
+
+	/** Returns a group for the servers of this group minus the removed servers plus the added servers.
+	 *
+	 * Rings for types that are not affected by the change are shared with this group, affected
+	 * rings are updated incrementally (see {@link ConsistentHashRing#withChanges(Collection, Collection)}).
+	 *
+	 * @param added servers to add
+	 * @param removed servers to remove. Servers that are not part of this group are ignored.
+	 */
+	public ConsistentRingGroup withChanges(Collection<ServiceInformation> added, Collection<ServiceInformation> removed) {
+		if (added.isEmpty() && removed.isEmpty()) {
+			return this;
+		}
+
+		String serviceName = null;
+		if (!rings.isEmpty()) {
+			serviceName = rings.values().iterator().next().iterator().next().getServiceName();
+		}
+
+		Map<String, List<ServiceInformation>> addedByType = Maps.newHashMap();
+		for (ServiceInformation info: added) {
+			Preconditions.checkArgument(serviceName == null || StringUtils.equals(serviceName, info.getServiceName()),
+					"All services must have the same name: " + added);
+			serviceName = info.getServiceName();
+			if (!addedByType.containsKey(info.getServiceType())) {
+				addedByType.put(info.getServiceType(), new ArrayList<ServiceInformation>());
+			}
+			addedByType.get(info.getServiceType()).add(info);
+		}
+
+		Map<String, List<ServiceInformation>> removedByType = Maps.newHashMap();
+		for (ServiceInformation info: removed) {
+			if (!removedByType.containsKey(info.getServiceType())) {
+				removedByType.put(info.getServiceType(), new ArrayList<ServiceInformation>());
+			}
+			removedByType.get(info.getServiceType()).add(info);
+		}
+
+		Map<String, ConsistentHashRing> newRings = Maps.newHashMap(rings);
+		for (String type: Sets.union(addedByType.keySet(), removedByType.keySet())) {
+			List<ServiceInformation> addedServers = addedByType.containsKey(type) ? addedByType.get(type) : Collections.<ServiceInformation>emptyList();
+			List<ServiceInformation> removedServers = removedByType.containsKey(type) ? removedByType.get(type) : Collections.<ServiceInformation>emptyList();
+
+			ConsistentHashRing ring = rings.get(type);
+			if (ring == null) {
+				ring = new ConsistentHashRing(addedServers, ringStrategy);
+			} else {
+				ring = ring.withChanges(addedServers, removedServers);
+			}
+
+			if (ring.isEmpty()) {
+				newRings.remove(type);
+			} else {
+				newRings.put(type, ring);
+			}
+		}
+
+		int newTotalServers = 0;
+		for (ConsistentHashRing ring: newRings.values()) {
+			newTotalServers += ring.size();
 		}
+		return new ConsistentRingGroup(newRings, newTotalServers, ringStrategy);
 	}
 
 	/** Get the server ring for a particular type.
@@ -80,12 +157,13 @@ public class ConsistentRingGroup extends AbstractCollection<ConsistentHashRing>
 		if (type == null) {
 			//If there's no ring without a type, then any type will do
 			//Use weighted random among the types, based on how many servers are serving each type
-			int selection = rand.nextInt() % totalServers;
-			for (ConsistentHashRing candidateRing: rings.values()) {
-				if (selection <= 0) {
-					return candidateRing;
-				} else {
+			if (totalServers > 0) {
+				int selection = ThreadLocalRandom.current().nextInt(totalServers);
+				for (ConsistentHashRing candidateRing: rings.values()) {
 					selection -= candidateRing.size();
+					if (selection < 0) {
+						return candidateRing;
+					}
 				}
 			}
 			//It's possible there are no rings
@@ -17,6 +17,8 @@ package com.nesscomputing.service.discovery.client.internal;
 
 import com.google.common.base.Throwables;
 
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.zip.CRC32;
@@ -30,6 +32,10 @@ import java.util.zip.CRC32;
  * Note that all hash algorithms return 64-bits of hash, but only the lower
  * 32-bits are significant.  This allows a positive 32-bit number to be
  * returned for all cases.
+ *
+ * Keys can be passed as String, CharSequence or UTF-8 encoded bytes, all give the
+ * same result for the same key. Hashing does not allocate (see
+ * {@link #hash(byte[], int, int)} for the one exception).
  */
 public enum HashAlgorithm {
 
@@ -67,7 +73,19 @@ public enum HashAlgorithm {
     /**
      * MD5-based hash algorithm used by ketama.
      */
-    KETAMA_HASH;
+    KETAMA_HASH,
+    /**
+     * 32-bit MurmurHash3 (x86 variant, seed 0) of the UTF-8 bytes of the key.
+     *
+     * @see <a href="https://github.com/aappleby/smhasher">smhasher</a>
+     */
+    MURMUR3_32_HASH,
+    /**
+     * Lower 32 bits of the 64-bit xxHash (seed 0) of the UTF-8 bytes of the key.
+     *
+     * @see <a href="https://github.com/Cyan4973/xxHash">xxHash</a>
+     */
+    XXHASH_64_HASH;
 
     private static final long FNV_64_INIT = 0xcbf29ce484222325L;
     private static final long FNV_64_PRIME = 0x100000001b3L;
@@ -75,15 +93,24 @@ public enum HashAlgorithm {
     private static final long FNV_32_INIT = 2166136261L;
     private static final long FNV_32_PRIME = 16777619;
 
-    private static MessageDigest MD5_DIGEST = null;
+    private static final int MURMUR3_C1 = 0xcc9e2d51;
+    private static final int MURMUR3_C2 = 0x1b873593;
 
-    static {
-        try {
-            MD5_DIGEST = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw Throwables.propagate(e);
+    private static final long XXHASH_P1 = 0x9E3779B185EBCA87L;
+    private static final long XXHASH_P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long XXHASH_P3 = 0x165667B19E3779F9L;
+    private static final long XXHASH_P4 = 0x85EBCA77C2B2AE63L;
+    private static final long XXHASH_P5 = 0x27D4EB2F165667C5L;
+
+    /**
+     * Reusable per thread state for the byte based algorithms. Keeps the hash functions free of allocations.
+     */
+    private static final ThreadLocal<HashState> HASH_STATE = new ThreadLocal<HashState>() {
+        @Override
+        protected HashState initialValue() {
+            return new HashState();
         }
-    }
+    };
 
     /**
      * Compute the hash for the given key.
@@ -91,16 +118,30 @@ public enum HashAlgorithm {
      * @return a positive integer hash
      */
     public long hash(final String k) {
+        return hash((CharSequence) k);
+    }
+
+    /**
+     * Compute the hash for the given key. Returns the same value as {@link #hash(String)} for the same
+     * sequence of characters.
+     *
+     * @return a positive integer hash
+     */
+    public long hash(final CharSequence k) {
         long rv = 0;
         switch (this) {
             case NATIVE_HASH:
-                rv = k.hashCode();
-                break;
-            case CRC32_HASH:
-                // return (crc32(shift) >> 16) & 0x7fff;
-                CRC32 crc32 = new CRC32();
-                crc32.update(KeyUtil.getKeyBytes(k));
-                rv = (crc32.getValue() >> 16) & 0x7fff;
+                if (k instanceof String) {
+                    rv = k.hashCode();
+                }
+                else {
+                    int h = 0;
+                    int len = k.length();
+                    for (int i = 0; i < len; i++) {
+                        h = 31 * h + k.charAt(i);
+                    }
+                    rv = h;
+                }
                 break;
             case FNV1_64_HASH: {
                     // Thanks to pierre@demartines.com for the pointer
@@ -139,12 +180,77 @@ public enum HashAlgorithm {
                     }
                 }
                 break;
-            case KETAMA_HASH:
-                byte[] bKey=computeMd5(k);
-                rv = ((long) (bKey[3] & 0xFF) << 24)
-                        | ((long) (bKey[2] & 0xFF) << 16)
-                        | ((long) (bKey[1] & 0xFF) << 8)
-                        | (bKey[0] & 0xFF);
+            default: {
+                    // Byte based algorithms hash the UTF-8 encoding of the key.
+                    final HashState state = HASH_STATE.get();
+                    final int len = state.encode(k);
+                    return hash(state.buffer, 0, len);
+                }
+        }
+        return rv & 0xffffffffL; /* Truncate to 32-bits */
+    }
+
+    /**
+     * Compute the hash for the given key.
+     *
+     * @param data the UTF-8 encoded key
+     * @return a positive integer hash
+     */
+    public long hash(final byte[] data) {
+        return hash(data, 0, data.length);
+    }
+
+    /**
+     * Compute the hash for a key given as a slice of UTF-8 encoded bytes. Returns the same value as
+     * {@link #hash(String)} for the decoded key. The character based algorithms (native and FNV) need to
+     * decode keys that are not pure ASCII, which allocates.
+     *
+     * @return a positive integer hash
+     */
+    public long hash(final byte[] data, final int offset, final int length) {
+        long rv = 0;
+        switch (this) {
+            case NATIVE_HASH:
+            case FNV1_64_HASH:
+            case FNV1A_64_HASH:
+            case FNV1_32_HASH:
+            case FNV1A_32_HASH:
+                for (int i = offset; i < offset + length; i++) {
+                    if (data[i] < 0) {
+                        return hash(new String(data, offset, length, StandardCharsets.UTF_8));
+                    }
+                }
+                rv = hashAscii(data, offset, length);
+                break;
+            case CRC32_HASH: {
+                    // return (crc32(shift) >> 16) & 0x7fff;
+                    final CRC32 crc32 = HASH_STATE.get().crc32;
+                    crc32.reset();
+                    crc32.update(data, offset, length);
+                    rv = (crc32.getValue() >> 16) & 0x7fff;
+                }
+                break;
+            case KETAMA_HASH: {
+                    final HashState state = HASH_STATE.get();
+                    state.md5.update(data, offset, length);
+                    try {
+                        state.md5.digest(state.digest, 0, state.digest.length);
+                    }
+                    catch (DigestException e) {
+                        throw Throwables.propagate(e);
+                    }
+                    final byte[] bKey = state.digest;
+                    rv = ((long) (bKey[3] & 0xFF) << 24)
+                            | ((long) (bKey[2] & 0xFF) << 16)
+                            | ((long) (bKey[1] & 0xFF) << 8)
+                            | (bKey[0] & 0xFF);
+                }
+                break;
+            case MURMUR3_32_HASH:
+                rv = murmur3(data, offset, length);
+                break;
+            case XXHASH_64_HASH:
+                rv = xxHash64(data, offset, length);
                 break;
             default:
                 assert false;
@@ -152,17 +258,225 @@ public enum HashAlgorithm {
         return rv & 0xffffffffL; /* Truncate to 32-bits */
     }
 
+    /**
+     * The character based algorithms for keys where every byte is a character.
+     */
+    private long hashAscii(final byte[] data, final int offset, final int length) {
+        final int end = offset + length;
+        long rv = 0;
+        switch (this) {
+            case NATIVE_HASH: {
+                    int h = 0;
+                    for (int i = offset; i < end; i++) {
+                        h = 31 * h + data[i];
+                    }
+                    rv = h;
+                }
+                break;
+            case FNV1_64_HASH:
+                rv = FNV_64_INIT;
+                for (int i = offset; i < end; i++) {
+                    rv *= FNV_64_PRIME;
+                    rv ^= data[i];
+                }
+                break;
+            case FNV1A_64_HASH:
+                rv = FNV_64_INIT;
+                for (int i = offset; i < end; i++) {
+                    rv ^= data[i];
+                    rv *= FNV_64_PRIME;
+                }
+                break;
+            case FNV1_32_HASH:
+                rv = FNV_32_INIT;
+                for (int i = offset; i < end; i++) {
+                    rv *= FNV_32_PRIME;
+                    rv ^= data[i];
+                }
+                break;
+            case FNV1A_32_HASH:
+                rv = FNV_32_INIT;
+                for (int i = offset; i < end; i++) {
+                    rv ^= data[i];
+                    rv *= FNV_32_PRIME;
+                }
+                break;
+            default:
+                assert false;
+        }
+        return rv;
+    }
+
+    @SuppressWarnings("fallthrough")
+    private static int murmur3(final byte[] data, final int offset, final int length) {
+        int h1 = 0;
+        final int blockEnd = offset + (length & ~3);
+        for (int i = offset; i < blockEnd; i += 4) {
+            int k1 = (data[i] & 0xff) | ((data[i + 1] & 0xff) << 8) | ((data[i + 2] & 0xff) << 16) | (data[i + 3] << 24);
+            k1 *= MURMUR3_C1;
+            k1 = Integer.rotateLeft(k1, 15);
+            k1 *= MURMUR3_C2;
+            h1 ^= k1;
+            h1 = Integer.rotateLeft(h1, 13);
+            h1 = h1 * 5 + 0xe6546b64;
+        }
+
+        int k1 = 0;
+        switch (length & 3) {
+            case 3:
+                k1 = (data[blockEnd + 2] & 0xff) << 16;
+                // fall through
+            case 2:
+                k1 |= (data[blockEnd + 1] & 0xff) << 8;
+                // fall through
+            case 1:
+                k1 |= data[blockEnd] & 0xff;
+                k1 *= MURMUR3_C1;
+                k1 = Integer.rotateLeft(k1, 15);
+                k1 *= MURMUR3_C2;
+                h1 ^= k1;
+                break;
+            default:
+                break;
+        }
+
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+
+    private static long xxHash64(final byte[] data, final int offset, final int length) {
+        final int end = offset + length;
+        int i = offset;
+        long h;
+
+        if (length >= 32) {
+            long v1 = XXHASH_P1 + XXHASH_P2;
+            long v2 = XXHASH_P2;
+            long v3 = 0;
+            long v4 = -XXHASH_P1;
+            final int limit = end - 32;
+            do {
+                v1 = xxHashRound(v1, readLong(data, i));
+                v2 = xxHashRound(v2, readLong(data, i + 8));
+                v3 = xxHashRound(v3, readLong(data, i + 16));
+                v4 = xxHashRound(v4, readLong(data, i + 24));
+                i += 32;
+            } while (i <= limit);
+
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = (h ^ xxHashRound(0, v1)) * XXHASH_P1 + XXHASH_P4;
+            h = (h ^ xxHashRound(0, v2)) * XXHASH_P1 + XXHASH_P4;
+            h = (h ^ xxHashRound(0, v3)) * XXHASH_P1 + XXHASH_P4;
+            h = (h ^ xxHashRound(0, v4)) * XXHASH_P1 + XXHASH_P4;
+        }
+        else {
+            h = XXHASH_P5;
+        }
+
+        h += length;
+
+        for (; i + 8 <= end; i += 8) {
+            h ^= xxHashRound(0, readLong(data, i));
+            h = Long.rotateLeft(h, 27) * XXHASH_P1 + XXHASH_P4;
+        }
+        if (i + 4 <= end) {
+            h ^= (readInt(data, i) & 0xffffffffL) * XXHASH_P1;
+            h = Long.rotateLeft(h, 23) * XXHASH_P2 + XXHASH_P3;
+            i += 4;
+        }
+        for (; i < end; i++) {
+            h ^= (data[i] & 0xff) * XXHASH_P5;
+            h = Long.rotateLeft(h, 11) * XXHASH_P1;
+        }
+
+        h ^= h >>> 33;
+        h *= XXHASH_P2;
+        h ^= h >>> 29;
+        h *= XXHASH_P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long xxHashRound(final long acc, final long input) {
+        return Long.rotateLeft(acc + input * XXHASH_P2, 31) * XXHASH_P1;
+    }
+
+    private static long readLong(final byte[] data, final int i) {
+        return (readInt(data, i) & 0xffffffffL) | ((long) readInt(data, i + 4) << 32);
+    }
+
+    private static int readInt(final byte[] data, final int i) {
+        return (data[i] & 0xff) | ((data[i + 1] & 0xff) << 8) | ((data[i + 2] & 0xff) << 16) | (data[i + 3] << 24);
+    }
+
     /**
      * Get the md5 of the given key.
      */
     public static byte[] computeMd5(String k) {
-        MessageDigest md5;
-        try {
-            md5 = (MessageDigest)MD5_DIGEST.clone();
-        } catch (CloneNotSupportedException e) {
-            throw Throwables.propagate(e);
-        }
+        final MessageDigest md5 = HASH_STATE.get().md5;
         md5.update(KeyUtil.getKeyBytes(k));
         return md5.digest();
     }
+
+    private static final class HashState {
+        private final CRC32 crc32 = new CRC32();
+        private final MessageDigest md5;
+        private final byte[] digest = new byte[16];
+        private byte[] buffer = new byte[64];
+
+        private HashState() {
+            try {
+                md5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        /**
+         * UTF-8 encodes the key into the buffer, exactly like String#getBytes does (unpaired surrogates become '?').
+         *
+         * @return the number of bytes in the buffer
+         */
+        private int encode(final CharSequence k) {
+            final int len = k.length();
+            if (buffer.length < len * 3) {
+                buffer = new byte[Math.max(len * 3, buffer.length * 2)];
+            }
+            final byte[] b = buffer;
+            int pos = 0;
+            for (int i = 0; i < len; i++) {
+                final char c = k.charAt(i);
+                if (c < 0x80) {
+                    b[pos++] = (byte) c;
+                }
+                else if (c < 0x800) {
+                    b[pos++] = (byte) (0xc0 | (c >> 6));
+                    b[pos++] = (byte) (0x80 | (c & 0x3f));
+                }
+                else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(k.charAt(i + 1))) {
+                        final int cp = Character.toCodePoint(c, k.charAt(++i));
+                        b[pos++] = (byte) (0xf0 | (cp >> 18));
+                        b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                        b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                        b[pos++] = (byte) (0x80 | (cp & 0x3f));
+                    }
+                    else {
+                        b[pos++] = '?';
+                    }
+                }
+                else {
+                    b[pos++] = (byte) (0xe0 | (c >> 12));
+                    b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    b[pos++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            return pos;
+        }
+    }
 }
@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleListener;
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.logging.Log;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ReadOnlyDiscoveryClient;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.client.StateOfTheWorldDelta;
+
+/**
+ * Read-only service discovery client that polls the state endpoint of the discovery servers instead of reading
+ * zookeeper. It asks for the changes since the last version it has and lets the server hold the request until
+ * something changes. If a server can not be reached, the client fails over to the next one and asks it for the full
+ * state. Versions are only meaningful to the server that handed them out.
+ */
+@Singleton
+public class HttpDiscoveryClientImpl extends AbstractDiscoveryClient implements ReadOnlyDiscoveryClient
+{
+    private static final Log LOG = Log.findLog();
+
+    /** Version that no server knows, so the server answers with the full state. */
+    private static final String FULL_STATE = "-1";
+
+    /** Longest time to wait before the servers are tried again after all of them failed. */
+    private static final long MAX_RETRY_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    private final DiscoveryClientConfig discoveryConfig;
+    private final ObjectMapper objectMapper;
+    private final List<String> servers = new ArrayList<String>();
+
+    /** Ring strategy by service name. Only used by the poll thread. */
+    private final Map<String, RingStrategy> ringStrategies = new HashMap<String, RingStrategy>();
+
+    private volatile Thread pollThread = null;
+
+    @Inject
+    public HttpDiscoveryClientImpl(final DiscoveryClientConfig discoveryConfig,
+                                   final ObjectMapper objectMapper)
+    {
+        super(discoveryConfig.isEnabled(), discoveryConfig);
+
+        for (final String server : StringUtils.split(StringUtils.defaultString(discoveryConfig.getHttpServers()), ",")) {
+            if (!StringUtils.isBlank(server)) {
+                servers.add(StringUtils.removeEnd(server.trim(), "/"));
+            }
+        }
+
+        if (discoveryConfig.isEnabled()) {
+            Preconditions.checkState(!servers.isEmpty(), "no discovery server configured!");
+        }
+
+        this.discoveryConfig = discoveryConfig;
+        this.objectMapper = objectMapper;
+    }
+
+    @Inject(optional=true)
+    public void injectLifecycle(final Lifecycle lifecycle)
+    {
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage stage) {
+                HttpDiscoveryClientImpl.this.start();
+            }
+        });
+
+        lifecycle.addListener(LifecycleStage.STOP_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage stage) {
+                HttpDiscoveryClientImpl.this.stop();
+            }
+        });
+    }
+
+    public synchronized void start()
+    {
+        if (!discoveryConfig.isEnabled()) {
+            LOG.info("Discovery service is disabled.");
+        }
+        else {
+            if (pollThread == null) {
+                pollThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        poll();
+                    }
+                });
+                pollThread.setName("service-discovery-http-thread");
+                pollThread.setDaemon(true);
+                pollThread.start();
+
+                LOG.info("Started Discovery client, polling %s", servers);
+            }
+            else {
+                LOG.warn("Double start attempted!");
+            }
+
+            LOG.debug("Waiting for the world to change!");
+            try {
+                if (waitForWorldChange(discoveryConfig.getWorldChangeTimeout().getMillis(), TimeUnit.MILLISECONDS)) {
+                    LOG.debug("World just changed!");
+                }
+                else {
+                    LOG.info("Did not receive a world changing event before timeout, just continuing on...");
+                }
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public synchronized void stop()
+    {
+        if (discoveryConfig.isEnabled()) {
+            if (pollThread == null) {
+                LOG.warn("Client was never started!");
+            }
+            else {
+                pollThread.interrupt();
+                try {
+                    pollThread.join(discoveryConfig.getHttpConnectTimeout().getMillis());
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                pollThread = null;
+                LOG.info("Stopped Discovery client");
+            }
+        }
+    }
+
+    private void poll()
+    {
+        String since = FULL_STATE;
+        int server = 0;
+        int failures = 0;
+        long retryInterval = discoveryConfig.getTickInterval().getMillis();
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final String uri = servers.get(server);
+                try {
+                    final StateOfTheWorldDelta delta = fetch(uri, since);
+                    if (delta != null) {
+                        applyDelta(delta);
+                        since = delta.getVersion();
+                    }
+                    failures = 0;
+                    retryInterval = discoveryConfig.getTickInterval().getMillis();
+                }
+                catch (IOException ioe) {
+                    LOG.warn("Could not poll %s: %s", uri, ioe.getMessage());
+                    server = (server + 1) % servers.size();
+                    // Another server (or a restarted one) knows nothing about our generation.
+                    since = FULL_STATE;
+                    if (++failures >= servers.size()) {
+                        // Every server failed, back off before the next round.
+                        Thread.sleep(retryInterval);
+                        retryInterval = Math.min(retryInterval * 2, MAX_RETRY_INTERVAL);
+                        failures = 0;
+                    }
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.debug("Interrupted, exiting...");
+    }
+
+    /**
+     * Polls a server for changes.
+     *
+     * @return The changes or null if nothing changed.
+     */
+    private StateOfTheWorldDelta fetch(final String server, final String since) throws IOException
+    {
+        final long wait = discoveryConfig.getHttpWait().getMillis();
+        final int connectTimeout = (int) discoveryConfig.getHttpConnectTimeout().getMillis();
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(server + "/state?since=" + since + "&wait=" + wait + "ms").openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout((int) wait + connectTimeout);
+        connection.setRequestProperty("Accept", "application/json");
+
+        final int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return null;
+        }
+
+        final InputStream in = (status == HttpURLConnection.HTTP_OK) ? connection.getInputStream() : connection.getErrorStream();
+        try {
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Server returned " + status);
+            }
+            return objectMapper.readValue(in, StateOfTheWorldDelta.class);
+        }
+        finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Applies a delta to the state of the world. Groups of services that did not change are kept as they are.
+     */
+    private void applyDelta(final StateOfTheWorldDelta delta)
+    {
+        final Map<String, ConsistentRingGroup> currentState = getStateOfTheWorldHolder().getState();
+
+        final Collection<ServiceInformation> added;
+        final Collection<ServiceInformation> removed;
+        if (delta.isFull()) {
+            final Set<ServiceInformation> current = new HashSet<ServiceInformation>();
+            for (final ConsistentRingGroup group : currentState.values()) {
+                current.addAll(group.getAll());
+            }
+            final Set<ServiceInformation> full = new HashSet<ServiceInformation>(delta.getAdded());
+            added = Sets.difference(full, current);
+            removed = Sets.difference(current, full);
+        }
+        else {
+            added = delta.getAdded();
+            removed = delta.getRemoved();
+        }
+
+        final Map<String, List<ServiceInformation>> addedByService = groupByService(added);
+        final Map<String, List<ServiceInformation>> removedByService = groupByService(removed);
+
+        final Map<String, ConsistentRingGroup> serviceGroups = new HashMap<String, ConsistentRingGroup>(currentState);
+        for (final String serviceName : Sets.union(addedByService.keySet(), removedByService.keySet())) {
+            final List<ServiceInformation> addedServices = getOrEmpty(addedByService, serviceName);
+            final List<ServiceInformation> removedServices = getOrEmpty(removedByService, serviceName);
+
+            final ConsistentRingGroup currentGroup = currentState.get(serviceName);
+            final ConsistentRingGroup newGroup = (currentGroup == null)
+                ? new ConsistentRingGroup(addedServices, getRingStrategy(serviceName))
+                : currentGroup.withChanges(addedServices, removedServices);
+
+            if (newGroup.isEmpty()) {
+                serviceGroups.remove(serviceName);
+            }
+            else {
+                serviceGroups.put(serviceName, newGroup);
+            }
+        }
+
+        LOG.debug("Generation %d: %d added, %d removed", delta.getGeneration(), added.size(), removed.size());
+        getStateOfTheWorldHolder().setState(serviceGroups);
+    }
+
+    private static Map<String, List<ServiceInformation>> groupByService(final Collection<ServiceInformation> services)
+    {
+        final Map<String, List<ServiceInformation>> result = new HashMap<String, List<ServiceInformation>>();
+        for (final ServiceInformation si : services) {
+            List<ServiceInformation> list = result.get(si.getServiceName());
+            if (list == null) {
+                list = new ArrayList<ServiceInformation>();
+                result.put(si.getServiceName(), list);
+            }
+            list.add(si);
+        }
+        return result;
+    }
+
+    private static List<ServiceInformation> getOrEmpty(final Map<String, List<ServiceInformation>> map, final String key)
+    {
+        final List<ServiceInformation> list = map.get(key);
+        return list == null ? Collections.<ServiceInformation>emptyList() : list;
+    }
+
+    private RingStrategy getRingStrategy(final String serviceName)
+    {
+        RingStrategy ringStrategy = ringStrategies.get(serviceName);
+        if (ringStrategy == null) {
+            try {
+                ringStrategy = RingStrategies.forService(discoveryConfig, serviceName);
+            }
+            catch (IllegalArgumentException iae) {
+                LOG.error(iae, "Bad ring configuration for %s, using default ring!", serviceName);
+                ringStrategy = RingStrategies.COMPATIBLE;
+            }
+            LOG.debug("Using %s ring for %s", ringStrategy, serviceName);
+            ringStrategies.put(serviceName, ringStrategy);
+        }
+        return ringStrategy;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Preconditions;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Jump consistent hashing (Lamping and Veach, 2014). Needs no memory beyond the server list and spreads
+ * keys perfectly evenly, but only keeps keys in place when servers are added or removed at the end of the
+ * (service id ordered) server list. Servers going away in the middle move many keys, so this fits
+ * services with stable membership, e.g. fixed shards with static announcements.
+ *
+ * Lookup is O(log N) in the number of servers.
+ */
+@Immutable
+public class JumpRingStrategy implements RingStrategy
+{
+    private final HashAlgorithm algorithm;
+
+    public JumpRingStrategy(final HashAlgorithm algorithm)
+    {
+        Preconditions.checkArgument(algorithm != null, "hash algorithm can not be null!");
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public RingLayout build(final List<ServiceInformation> servers)
+    {
+        return new Layout(algorithm, servers.size());
+    }
+
+    @Override
+    public RingLayout update(final RingLayout previous, final List<ServiceInformation> servers, final int[] remap, final int[] added)
+    {
+        return build(servers);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("jump(%s)", algorithm);
+    }
+
+    private static final class Layout implements RingLayout
+    {
+        private final HashAlgorithm algorithm;
+        private final int buckets;
+
+        private Layout(final HashAlgorithm algorithm, final int buckets)
+        {
+            this.algorithm = algorithm;
+            this.buckets = buckets;
+        }
+
+        @Override
+        public int locate(final String key)
+        {
+            long hash = RingStrategies.mix(algorithm.hash(key));
+            long bucket = -1;
+            long next = 0;
+            while (next < buckets) {
+                bucket = next;
+                hash = hash * 2862933555777941757L + 1;
+                next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((hash >>> 33) + 1)));
+            }
+            return (int) bucket;
+        }
+    }
+}
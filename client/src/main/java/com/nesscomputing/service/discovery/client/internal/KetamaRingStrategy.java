@@ -0,0 +1,392 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Classic hash ring: every server is placed at a number of pseudo-random points on a 32 bit circle
+ * and a key belongs to the first point at or after its own hash.
+ *
+ * For some background, see: <http://www.last.fm/user/RJ/journal/2007/04/10/rz_libketama_-_a_consistent_hashing_algo_for_memcache_clients>
+ *
+ * With FNV1_32_HASH and 100 virtual nodes, this is the ring that service discovery always used, and routes
+ * every key exactly like it.
+ *
+ * The points of a server only depend on its service id, so they are computed once and kept in a
+ * process wide cache. Building a ring merges the sorted points of its servers; large rings are merged on a
+ * fork/join pool. Lookup is O(log N) in the number of virtual nodes. Updates only merge the virtual nodes
+ * of added servers.
+ */
+@Immutable
+public class KetamaRingStrategy implements RingStrategy
+{
+    /** Number of virtual nodes (across all servers and strategies) that are kept in the point cache. */
+    private static final long MAX_CACHED_POINTS = 1L << 20;
+
+    /** Rings with fewer virtual nodes than this are merged on the calling thread. */
+    static final int PARALLEL_THRESHOLD = 1 << 15;
+
+    private static final LoadingCache<PointsKey, long[]> POINTS = CacheBuilder.newBuilder()
+        .maximumWeight(MAX_CACHED_POINTS)
+        .weigher(new Weigher<PointsKey, long[]>() {
+            @Override
+            public int weigh(final PointsKey key, final long[] points)
+            {
+                return points.length;
+            }
+        })
+        .build(new CacheLoader<PointsKey, long[]>() {
+            @Override
+            public long[] load(final PointsKey key)
+            {
+                return key.computePoints();
+            }
+        });
+
+    private final HashAlgorithm algorithm;
+    private final int virtualNodes;
+    private final int parallelThreshold;
+
+    public KetamaRingStrategy(final HashAlgorithm algorithm, final int virtualNodes)
+    {
+        this(algorithm, virtualNodes, PARALLEL_THRESHOLD);
+    }
+
+    @VisibleForTesting
+    KetamaRingStrategy(final HashAlgorithm algorithm, final int virtualNodes, final int parallelThreshold)
+    {
+        Preconditions.checkArgument(algorithm != null, "hash algorithm can not be null!");
+        Preconditions.checkArgument(virtualNodes > 0, "at least one virtual node is needed!");
+        Preconditions.checkArgument(parallelThreshold > 0, "parallel threshold must be positive!");
+
+        this.algorithm = algorithm;
+        this.virtualNodes = virtualNodes;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    @Override
+    public RingLayout build(final List<ServiceInformation> servers)
+    {
+        final int size = checkSize(servers.size());
+
+        final int[] owners = new int[servers.size()];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = i;
+        }
+        final long[] nodes = mergeNodes(servers, owners);
+
+        final long[] points = new long[size];
+        final int[] nodeOwners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = nodes[i] >>> 31;
+            nodeOwners[i] = (int) (nodes[i] & Integer.MAX_VALUE);
+        }
+        return new Layout(algorithm, points, nodeOwners);
+    }
+
+    @Override
+    public RingLayout update(final RingLayout previous, final List<ServiceInformation> servers, final int[] remap, final int[] added)
+    {
+        final int size = checkSize(servers.size());
+        final Layout layout = (Layout) previous;
+        final long[] points = layout.points;
+        final int[] owners = layout.owners;
+
+        //Nodes of the added servers, tagged with their owner in the new ring.
+        final long[] addedNodes = mergeNodes(servers, added);
+
+        //Merge the kept nodes with the added ones, ordered by position and then by owner, which is the
+        //order in which a new ring would have inserted them. As servers are sorted the same way in the
+        //old and the new ring, remapping does not change the order of the kept nodes.
+        final long[] newPoints = new long[size];
+        final int[] newOwners = new int[size];
+        int k = 0;
+        int a = 0;
+        for (int i = 0; i < points.length; i++) {
+            final int owner = remap[owners[i]];
+            if (owner < 0) {
+                continue;
+            }
+            while (a < addedNodes.length) {
+                final long addedPoint = addedNodes[a] >>> 31;
+                final int addedOwner = (int) (addedNodes[a] & Integer.MAX_VALUE);
+                if (addedPoint > points[i] || (addedPoint == points[i] && addedOwner > owner)) {
+                    break;
+                }
+                newPoints[k] = addedPoint;
+                newOwners[k++] = addedOwner;
+                a++;
+            }
+            newPoints[k] = points[i];
+            newOwners[k++] = owner;
+        }
+        for (; a < addedNodes.length; a++) {
+            newPoints[k] = addedNodes[a] >>> 31;
+            newOwners[k++] = (int) (addedNodes[a] & Integer.MAX_VALUE);
+        }
+        Preconditions.checkState(k == size, "Ring size mismatch, expected %s, got %s", size, k);
+
+        return new Layout(algorithm, newPoints, newOwners);
+    }
+
+    private int checkSize(final int servers)
+    {
+        final long size = (long) servers * virtualNodes;
+        Preconditions.checkArgument(size <= Integer.MAX_VALUE, "Too many servers for a single ring: %s", servers);
+        return (int) size;
+    }
+
+    /**
+     * Returns the sorted virtual nodes of the given servers. Every virtual node is packed into a long: the
+     * (32 bit) hash goes into the upper bits, the owner into the lower 31 bits. Sorting those orders the ring
+     * by hash first and virtual nodes that share a hash by owner, which is the order in which the ring always
+     * inserted them.
+     *
+     * @param owners indexes into servers, in ascending order. Each is used as the owner of its server's nodes.
+     */
+    private long[] mergeNodes(final List<ServiceInformation> servers, final int[] owners)
+    {
+        final long[] nodes = new long[owners.length * virtualNodes];
+        final long[] scratch = new long[nodes.length];
+        if (nodes.length >= parallelThreshold && owners.length > 1) {
+            ForkJoinHolder.POOL.invoke(new MergeTask(servers, owners, scratch, nodes, 0, owners.length));
+        }
+        else {
+            fillNodes(servers, owners, nodes, 0, owners.length);
+            System.arraycopy(nodes, 0, scratch, 0, nodes.length);
+            mergeRuns(scratch, nodes, 0, owners.length);
+        }
+        return nodes;
+    }
+
+    /**
+     * Copies the cached points of the servers from (inclusive) to to (exclusive) into nodes, tagged with
+     * their owners. Each server fills a sorted run of virtualNodes entries.
+     */
+    private void fillNodes(final List<ServiceInformation> servers, final int[] owners, final long[] nodes, final int from, final int to)
+    {
+        for (int i = from; i < to; i++) {
+            final long[] points = POINTS.getUnchecked(new PointsKey(algorithm, virtualNodes, servers.get(owners[i]).getServiceId()));
+            final int offset = i * virtualNodes;
+            for (int j = 0; j < virtualNodes; j++) {
+                nodes[offset + j] = (points[j] << 31) | owners[i];
+            }
+        }
+    }
+
+    /**
+     * Merges the sorted runs of the servers from (inclusive) to to (exclusive) into dst. On entry, src and dst
+     * must contain the same runs in that range; src is used as scratch space.
+     */
+    private void mergeRuns(final long[] src, final long[] dst, final int from, final int to)
+    {
+        if (to - from < 2) {
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        mergeRuns(dst, src, from, mid);
+        mergeRuns(dst, src, mid, to);
+        mergeHalves(src, dst, from * virtualNodes, mid * virtualNodes, to * virtualNodes);
+    }
+
+    private static void mergeHalves(final long[] src, final long[] dst, final int low, final int mid, final int high)
+    {
+        int l = low;
+        int h = mid;
+        for (int i = low; i < high; i++) {
+            if (h >= high || (l < mid && src[l] <= src[h])) {
+                dst[i] = src[l++];
+            }
+            else {
+                dst[i] = src[h++];
+            }
+        }
+    }
+
+    /**
+     * Fills and merges the runs of a range of servers on the fork/join pool. Same contract as
+     * {@link KetamaRingStrategy#mergeRuns(long[], long[], int, int)}, except that the runs are filled by the
+     * task itself.
+     */
+    private final class MergeTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<ServiceInformation> servers;
+        private final int[] owners;
+        private final long[] src;
+        private final long[] dst;
+        private final int from;
+        private final int to;
+
+        private MergeTask(final List<ServiceInformation> servers, final int[] owners, final long[] src, final long[] dst, final int from, final int to)
+        {
+            this.servers = servers;
+            this.owners = owners;
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from < 2 || (long) (to - from) * virtualNodes < parallelThreshold) {
+                final int low = from * virtualNodes;
+                fillNodes(servers, owners, dst, from, to);
+                System.arraycopy(dst, low, src, low, to * virtualNodes - low);
+                mergeRuns(src, dst, from, to);
+            }
+            else {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new MergeTask(servers, owners, dst, src, from, mid), new MergeTask(servers, owners, dst, src, mid, to));
+                mergeHalves(src, dst, from * virtualNodes, mid * virtualNodes, to * virtualNodes);
+            }
+        }
+    }
+
+    private static final class ForkJoinHolder
+    {
+        private static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    /** Identifies the virtual node points of a server for an algorithm and a number of virtual nodes. */
+    private static final class PointsKey
+    {
+        private final HashAlgorithm algorithm;
+        private final int virtualNodes;
+        private final UUID serviceId;
+
+        private PointsKey(final HashAlgorithm algorithm, final int virtualNodes, final UUID serviceId)
+        {
+            this.algorithm = algorithm;
+            this.virtualNodes = virtualNodes;
+            this.serviceId = serviceId;
+        }
+
+        /** Returns the hashes of the virtual nodes of the server, in ascending order. */
+        private long[] computePoints()
+        {
+            //Insert each server at multiple points in the ring, so that load is
+            //(more) evenly redistributed if it dies, and a new ring is built from the remaining servers.
+            final Random rand = new Random(0);
+            final StringBuilder sb = new StringBuilder(serviceId.toString());
+            final int length = sb.length();
+            final long[] points = new long[virtualNodes];
+            for (int i = 0; i < virtualNodes; i++) {
+                //Append a deterministic random sequence
+                sb.setLength(length);
+                sb.append(rand.nextInt());
+                points[i] = algorithm.hash(sb);
+            }
+            Arrays.sort(points);
+            return points;
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (!(other instanceof PointsKey)) {
+                return false;
+            }
+            final PointsKey castOther = (PointsKey) other;
+            return algorithm == castOther.algorithm && virtualNodes == castOther.virtualNodes && serviceId.equals(castOther.serviceId);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(algorithm, virtualNodes, serviceId);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("ketama(%s, %d)", algorithm, virtualNodes);
+    }
+
+    private static final class Layout implements RingLayout
+    {
+        private final HashAlgorithm algorithm;
+
+        /** Positions of all virtual nodes on the ring, in ascending order. */
+        private final long[] points;
+        /** For every entry in points, the index of the owning server. */
+        private final int[] owners;
+
+        private Layout(final HashAlgorithm algorithm, final long[] points, final int[] owners)
+        {
+            this.algorithm = algorithm;
+            this.points = points;
+            this.owners = owners;
+        }
+
+        @Override
+        public int locate(final String key)
+        {
+            final long hash = algorithm.hash(key);
+            //Find the first server with a hash key after this one
+            int index = Arrays.binarySearch(points, hash);
+            if (index < 0) {
+                index = -index - 1;
+                //Wrap around to the beginning of the ring, if we went past the last one
+                if (index == points.length) {
+                    index = 0;
+                }
+            }
+            //If multiple virtual nodes share a position, the one inserted last owns it
+            while (index + 1 < points.length && points[index + 1] == points[index]) {
+                index++;
+            }
+            return owners[index];
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (!(other instanceof Layout)) {
+                return false;
+            }
+            final Layout castOther = (Layout) other;
+            return algorithm == castOther.algorithm && Arrays.equals(points, castOther.points) && Arrays.equals(owners, castOther.owners);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Arrays.hashCode(points);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import javax.annotation.Nonnull;
+
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * A load balancing strategy that is told about the requests sent to the servers it selected. The discovery client
+ * passes on what is reported through {@link com.nesscomputing.service.discovery.client.ReadOnlyDiscoveryClient#reportRequest(ServiceInformation)}
+ * and the matching success, failure or abandoned report. The end of a request may never be reported, so requests
+ * must not be counted as outstanding forever.
+ *
+ * The reports are made on the request threads, so implementations must be as cheap and lock free as
+ * {@link #select(ConsistentHashRing)}. Reports for servers the strategy does not know (any more) must be ignored.
+ */
+public interface LatencyAwareLoadBalancingStrategy extends LoadBalancingStrategy
+{
+    /**
+     * A request to the server was sent.
+     */
+    void requestStarted(@Nonnull ServiceInformation serviceInformation);
+
+    /**
+     * A request to the server finished.
+     *
+     * @param latency Time from sending the request to its outcome in nanoseconds.
+     * @param success False if the request failed.
+     */
+    void requestFinished(@Nonnull ServiceInformation serviceInformation, long latency, boolean success);
+
+    /**
+     * A request to the server ended without a known outcome and latency.
+     */
+    void requestAbandoned(@Nonnull ServiceInformation serviceInformation);
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Creates load balancing strategies from their configured names.
+ */
+public final class LoadBalancingStrategies
+{
+    /** Uniformly random selection. This is the default. */
+    public static final String RANDOM = "random";
+
+    /** Servers in turn, using striped counters. */
+    public static final String ROUND_ROBIN = "round-robin";
+
+    /** The one of two random servers with fewer outstanding requests, needs request reports. */
+    public static final String POWER_OF_TWO_CHOICES = "power-of-two-choices";
+
+    /** The faster and less loaded of two random servers, needs request reports. */
+    public static final String PEAK_EWMA = "peak-ewma";
+
+    private LoadBalancingStrategies()
+    {
+    }
+
+    /**
+     * Returns a new strategy instance.
+     *
+     * @param name One of the well known names or the class name of a {@link LoadBalancingStrategy} implementation.
+     * @throws IllegalArgumentException If the name is neither a known strategy nor a usable class.
+     */
+    @Nonnull
+    public static LoadBalancingStrategy forName(@Nonnull final String name)
+    {
+        Preconditions.checkArgument(name != null, "strategy name can not be null!");
+
+        final String trimmed = name.trim();
+        if (RANDOM.equals(trimmed)) {
+            return new RandomLoadBalancingStrategy();
+        }
+        else if (ROUND_ROBIN.equals(trimmed)) {
+            return new RoundRobinLoadBalancingStrategy();
+        }
+        else if (POWER_OF_TWO_CHOICES.equals(trimmed)) {
+            return new PowerOfTwoChoicesLoadBalancingStrategy();
+        }
+        else if (PEAK_EWMA.equals(trimmed)) {
+            return new PeakEwmaLoadBalancingStrategy();
+        }
+
+        try {
+            final Class<?> clazz = Class.forName(trimmed);
+            Preconditions.checkArgument(LoadBalancingStrategy.class.isAssignableFrom(clazz), "%s is not a load balancing strategy!", trimmed);
+            return LoadBalancingStrategy.class.cast(clazz.newInstance());
+        }
+        catch (ClassNotFoundException cnfe) {
+            throw new IllegalArgumentException(String.format("Unknown load balancing strategy '%s'!", trimmed), cnfe);
+        }
+        catch (InstantiationException ie) {
+            throw new IllegalArgumentException(String.format("Could not create load balancing strategy '%s'!", trimmed), ie);
+        }
+        catch (IllegalAccessException iae) {
+            throw new IllegalArgumentException(String.format("Could not create load balancing strategy '%s'!", trimmed), iae);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import javax.annotation.Nonnull;
+
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Picks a server for a lookup that does not carry a consistent hash hint. Lookups with a hint always
+ * use the consistent hash ring.
+ *
+ * One instance is created per service name and it is called concurrently from all threads that look up
+ * that service, so implementations must be thread safe and should not lock. Implementations that are
+ * named by class in the configuration must have a public no-argument constructor.
+ *
+ * @see com.nesscomputing.service.discovery.client.DiscoveryClientConfig#getLoadBalancing(String)
+ */
+public interface LoadBalancingStrategy
+{
+    /**
+     * Selects a server from the ring.
+     *
+     * @param ring A ring with at least one server. Unchanged rings are passed in as the same instance.
+     */
+    @Nonnull
+    ServiceInformation select(@Nonnull ConsistentHashRing ring);
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Preconditions;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Maglev hashing: a fixed size lookup table (the first prime after the power of two that fits virtual
+ * nodes times servers) is filled from a per server permutation of the slots. Every server owns almost exactly the
+ * same number of slots and a membership change moves few keys between surviving servers.
+ *
+ * Lookup is O(1): one hash and one array read. Every change rebuilds the table. Changes that move the
+ * table to a different size (crossing a power of two) remap most keys.
+ *
+ * See "Maglev: A Fast and Reliable Software Network Load Balancer" (NSDI 2016).
+ */
+@Immutable
+public class MaglevRingStrategy implements RingStrategy
+{
+    private static final long SKIP_SALT = 0x9e3779b97f4a7c15L;
+
+    private final HashAlgorithm algorithm;
+    private final int virtualNodes;
+
+    public MaglevRingStrategy(final HashAlgorithm algorithm, final int virtualNodes)
+    {
+        Preconditions.checkArgument(algorithm != null, "hash algorithm can not be null!");
+        Preconditions.checkArgument(virtualNodes > 0, "at least one virtual node is needed!");
+
+        this.algorithm = algorithm;
+        this.virtualNodes = virtualNodes;
+    }
+
+    @Override
+    public RingLayout build(final List<ServiceInformation> servers)
+    {
+        final int count = servers.size();
+        // Keys only stay in place if the table size does not change, so the size is rounded up to the
+        // next power of two (and then to the next prime) instead of following every membership change.
+        final long slots = Long.highestOneBit(Math.max((long) count * virtualNodes, 2L) - 1) << 1;
+        Preconditions.checkArgument(slots < (1L << 30), "Too many servers for a single ring: %s", count);
+        final int size = BigInteger.valueOf(slots).nextProbablePrime().intValue();
+
+        final int[] position = new int[count];
+        final int[] skip = new int[count];
+        for (int i = 0; i < count; i++) {
+            final long seed = RingStrategies.seed(servers.get(i));
+            position[i] = (int) ((RingStrategies.mix(seed) & Long.MAX_VALUE) % size);
+            skip[i] = (int) ((RingStrategies.mix(seed ^ SKIP_SALT) & Long.MAX_VALUE) % (size - 1)) + 1;
+        }
+
+        // Servers take turns claiming the next free slot of their permutation until the table is full.
+        final int[] table = new int[size];
+        Arrays.fill(table, -1);
+        int filled = 0;
+        while (true) {
+            for (int i = 0; i < count; i++) {
+                int slot = position[i];
+                while (table[slot] >= 0) {
+                    slot += skip[i];
+                    if (slot >= size) {
+                        slot -= size;
+                    }
+                }
+                table[slot] = i;
+                position[i] = slot;
+                if (++filled == size) {
+                    return new Layout(algorithm, table);
+                }
+            }
+        }
+    }
+
+    @Override
+    public RingLayout update(final RingLayout previous, final List<ServiceInformation> servers, final int[] remap, final int[] added)
+    {
+        return build(servers);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("maglev(%s, %d)", algorithm, virtualNodes);
+    }
+
+    private static final class Layout implements RingLayout
+    {
+        private final HashAlgorithm algorithm;
+        private final int[] table;
+
+        private Layout(final HashAlgorithm algorithm, final int[] table)
+        {
+            this.algorithm = algorithm;
+            this.table = table;
+        }
+
+        @Override
+        public int locate(final String key)
+        {
+            final long hash = RingStrategies.mix(algorithm.hash(key)) & Long.MAX_VALUE;
+            return table[(int) (hash % table.length)];
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            return other instanceof Layout && algorithm == ((Layout) other).algorithm && Arrays.equals(table, ((Layout) other).table);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Arrays.hashCode(table);
+        }
+    }
+}
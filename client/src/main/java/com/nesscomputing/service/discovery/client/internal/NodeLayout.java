@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.Locale;
+
+import com.nesscomputing.logging.Log;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Arrangement of the announcement nodes below the discovery root. Node names are relative to the root.
+ */
+public enum NodeLayout
+{
+    /** All announcements are direct children of the root. This is the default. */
+    FLAT {
+        @Override
+        String getNodeName(final ServiceInformation serviceInformation)
+        {
+            return serviceInformation.getAnnouncementName();
+        }
+    },
+
+    /**
+     * Announcements are grouped by service and service type: root/&lt;serviceName&gt;/&lt;serviceType&gt;/&lt;serviceId&gt;.
+     * Readers only watch the services that they are interested in.
+     */
+    HIERARCHICAL {
+        @Override
+        String getNodeName(final ServiceInformation serviceInformation)
+        {
+            return getTypeNodeName(serviceInformation) + "/" + serviceInformation.getServiceId();
+        }
+    };
+
+    private static final Log LOG = Log.findLog();
+
+    /** Node name for announcements without a service type. */
+    static final String UNTYPED_NODE = "_untyped";
+
+    /**
+     * Returns the node name of an announcement.
+     */
+    abstract String getNodeName(ServiceInformation serviceInformation);
+
+    /**
+     * Returns the name of the node that holds all announcements of the service type of an announcement
+     * in the hierarchical layout.
+     */
+    static String getTypeNodeName(final ServiceInformation serviceInformation)
+    {
+        final String serviceType = serviceInformation.getServiceType();
+        return serviceInformation.getServiceName() + "/" + (serviceType == null ? UNTYPED_NODE : serviceType);
+    }
+
+    /**
+     * Returns the layout for a configured name, e.g. "flat" or "hierarchical".
+     *
+     * @throws IllegalArgumentException If the name is unknown.
+     */
+    public static NodeLayout forName(final String name)
+    {
+        return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns the configured layout. Falls back to the flat layout if the configured name is unknown.
+     */
+    public static NodeLayout forConfig(final DiscoveryClientConfig config)
+    {
+        try {
+            return forName(config.getLayout());
+        }
+        catch (IllegalArgumentException iae) {
+            LOG.error(iae, "Bad node layout '%s', using flat layout!", config.getLayout());
+            return FLAT;
+        }
+    }
+}
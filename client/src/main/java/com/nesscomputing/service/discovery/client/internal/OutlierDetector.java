@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Ticker;
+import com.google.common.collect.MapMaker;
+import com.nesscomputing.logging.Log;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Ejects servers whose requests fail too often from load balanced lookups. The error rate of every server is
+ * measured over an interval; a server that reaches the error rate is ejected for the ejection time, which doubles
+ * every time it is ejected again. Only a limited share of the servers of a service type is ejected at the same time,
+ * so a service never runs out of servers because all of them fail.
+ */
+class OutlierDetector
+{
+    private static final Log LOG = Log.findLog();
+
+    private final boolean enabled;
+    private final double errorRate;
+    private final int minRequests;
+    private final long interval;
+    private final long ejectionTime;
+    private final long maxEjectionTime;
+    private final double maxEjectedShare;
+    private final Ticker ticker;
+
+    /** Statistics by server. Weak (identity) keys, so they go away with the announcements they belong to. */
+    private final ConcurrentMap<ServiceInformation, Endpoint> endpoints = new MapMaker().weakKeys().makeMap();
+
+    /** The latest end of any ejection. Lookups do not look at single servers after that. */
+    private volatile long ejectionsEnd;
+
+    OutlierDetector(final DiscoveryClientConfig config)
+    {
+        this(config, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    OutlierDetector(final DiscoveryClientConfig config, final Ticker ticker)
+    {
+        this.enabled = config.isOutlierEjectionEnabled();
+        this.errorRate = config.getOutlierErrorRate();
+        this.minRequests = Math.max(1, config.getOutlierMinRequests());
+        this.interval = TimeUnit.MILLISECONDS.toNanos(config.getOutlierInterval().getMillis());
+        this.ejectionTime = TimeUnit.MILLISECONDS.toNanos(config.getOutlierEjectionTime().getMillis());
+        this.maxEjectionTime = TimeUnit.MILLISECONDS.toNanos(config.getOutlierMaxEjectionTime().getMillis());
+        this.maxEjectedShare = config.getOutlierMaxEjectedShare();
+        this.ticker = ticker;
+        this.ejectionsEnd = ticker.read();
+    }
+
+    boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Returns true if the server is ejected.
+     */
+    boolean isEjected(final ServiceInformation serviceInformation)
+    {
+        final long now = ticker.read();
+        if (!enabled || now - ejectionsEnd >= 0) {
+            return false;
+        }
+        final Endpoint endpoint = endpoints.get(serviceInformation);
+        return endpoint != null && endpoint.isEjected(now);
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param ringSize Number of servers of the service type.
+     */
+    void report(final ServiceInformation serviceInformation, final boolean success, final int ringSize)
+    {
+        if (!enabled) {
+            return;
+        }
+
+        final long now = ticker.read();
+        final Endpoint endpoint = getEndpoint(serviceInformation, now);
+        if (endpoint.record(success, now)) {
+            eject(serviceInformation, endpoint, ringSize, now);
+        }
+    }
+
+    private synchronized void eject(final ServiceInformation serviceInformation, final Endpoint endpoint, final int ringSize, final long now)
+    {
+        if (endpoint.isEjected(now)) {
+            return;
+        }
+
+        final int maxEjected = Math.min((int) (ringSize * maxEjectedShare), ringSize - 1);
+        int ejected = 0;
+        for (final Map.Entry<ServiceInformation, Endpoint> entry : endpoints.entrySet()) {
+            final ServiceInformation other = entry.getKey();
+            if (entry.getValue().isEjected(now)
+                && Objects.equal(serviceInformation.getServiceName(), other.getServiceName())
+                && Objects.equal(serviceInformation.getServiceType(), other.getServiceType())) {
+                ejected++;
+            }
+        }
+
+        if (ejected >= maxEjected) {
+            LOG.debug("Not ejecting %s, %d of %d servers are already ejected", serviceInformation, ejected, ringSize);
+            return;
+        }
+
+        final long duration = endpoint.eject(now);
+        if (ejectionsEnd - (now + duration) < 0) {
+            ejectionsEnd = now + duration;
+        }
+        LOG.warn("Ejecting %s for %dms, too many requests failed", serviceInformation, TimeUnit.NANOSECONDS.toMillis(duration));
+    }
+
+    private Endpoint getEndpoint(final ServiceInformation serviceInformation, final long now)
+    {
+        final Endpoint endpoint = endpoints.get(serviceInformation);
+        if (endpoint != null) {
+            return endpoint;
+        }
+        final Endpoint newEndpoint = new Endpoint(now);
+        final Endpoint oldEndpoint = endpoints.putIfAbsent(serviceInformation, newEndpoint);
+        return oldEndpoint == null ? newEndpoint : oldEndpoint;
+    }
+
+    private final class Endpoint
+    {
+        private int requests = 0;
+        private int failures = 0;
+        private long intervalStart;
+        private int ejections = 0;
+        private volatile long ejectedUntil;
+
+        private Endpoint(final long now)
+        {
+            this.intervalStart = now;
+            this.ejectedUntil = now;
+        }
+
+        private boolean isEjected(final long now)
+        {
+            return now - ejectedUntil < 0;
+        }
+
+        /**
+         * @return True if the server should be ejected.
+         */
+        private synchronized boolean record(final boolean success, final long now)
+        {
+            if (now - intervalStart >= interval) {
+                requests = 0;
+                failures = 0;
+                intervalStart = now;
+            }
+
+            requests++;
+            if (!success) {
+                failures++;
+            }
+
+            if (requests < minRequests) {
+                return false;
+            }
+
+            final boolean failing = failures >= requests * errorRate;
+            if (!failing && ejections > 0 && !isEjected(now)) {
+                // A good interval after an ejection, back off the next ejection time.
+                ejections--;
+            }
+            requests = 0;
+            failures = 0;
+            intervalStart = now;
+            return failing;
+        }
+
+        private synchronized long eject(final long now)
+        {
+            long duration = ejectionTime;
+            for (int i = 0; i < ejections && duration < maxEjectionTime; i++) {
+                duration *= 2;
+            }
+            duration = Math.min(duration, maxEjectionTime);
+            ejections++;
+            ejectedUntil = now + duration;
+            return duration;
+        }
+    }
+}
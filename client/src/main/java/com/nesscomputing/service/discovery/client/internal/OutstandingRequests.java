@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts the requests to a server that were started and did not finish yet.
+ *
+ * A request whose end is never reported would keep the server looking busy forever. So requests are counted in
+ * time windows and only the current and the previous window count. A request is counted for at least one window
+ * and at most two. Finishing a request releases it from the window it was started in, or else the oldest counted
+ * request. A request that finishes after its window expired is stale and is not released.
+ */
+final class OutstandingRequests
+{
+    /** Length of a counting window. */
+    static final long WINDOW = TimeUnit.SECONDS.toNanos(30);
+
+    /** The current and the previous window, by window number modulo 2. */
+    private final AtomicReferenceArray<Window> windows = new AtomicReferenceArray<Window>(2);
+
+    void start(final long now)
+    {
+        getWindow(number(now), true).count.incrementAndGet();
+    }
+
+    /**
+     * Releases a request.
+     *
+     * @return False if the request is stale.
+     */
+    boolean finish(final long startTime, final long now)
+    {
+        final long number = number(startTime);
+        if (number < number(now) - 1) {
+            return false;
+        }
+        final Window window = getWindow(number, false);
+        if (window == null || !window.release()) {
+            // The time was taken on another clock or the request started right at the end of a window.
+            abandon(now);
+        }
+        return true;
+    }
+
+    /**
+     * Releases a request whose start time is not known. The oldest counted request is released.
+     */
+    void abandon(final long now)
+    {
+        final long number = number(now);
+        final Window previous = getWindow(number - 1, false);
+        if (previous == null || !previous.release()) {
+            final Window current = getWindow(number, false);
+            if (current != null) {
+                current.release();
+            }
+        }
+    }
+
+    int get(final long now)
+    {
+        final long number = number(now);
+        int count = 0;
+        for (int i = 0; i < windows.length(); i++) {
+            final Window window = windows.get(i);
+            if (window != null && window.number >= number - 1) {
+                count += window.count.get();
+            }
+        }
+        return count;
+    }
+
+    private Window getWindow(final long number, final boolean create)
+    {
+        final int slot = (int) (number & 1);
+        while (true) {
+            final Window window = windows.get(slot);
+            // A newer window means the clocks of two threads were apart, count in the newer one.
+            if (window != null && (window.number == number || (create && window.number > number))) {
+                return window;
+            }
+            if (!create) {
+                return null;
+            }
+            final Window newWindow = new Window(number);
+            if (windows.compareAndSet(slot, window, newWindow)) {
+                return newWindow;
+            }
+        }
+    }
+
+    /**
+     * Window number of a ticker time. Ticker times can be negative, so this rounds down.
+     */
+    private static long number(final long time)
+    {
+        final long number = time / WINDOW;
+        return time < 0 && number * WINDOW != time ? number - 1 : number;
+    }
+
+    private static final class Window
+    {
+        private final long number;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private Window(final long number)
+        {
+            this.number = number;
+        }
+
+        /**
+         * Counts down, but not below zero. Requests can be reported as finished without being reported as started.
+         *
+         * @return False if there was no request to release.
+         */
+        private boolean release()
+        {
+            while (true) {
+                final int current = count.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (count.compareAndSet(current, current - 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
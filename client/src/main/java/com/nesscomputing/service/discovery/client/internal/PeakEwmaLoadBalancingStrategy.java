@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Picks two random servers and uses the one with the lower cost. The cost of a server is the moving average of its
+ * response times multiplied by the number of requests that are still outstanding, so slow and overloaded servers
+ * get less traffic.
+ *
+ * The average jumps up to a slower response right away and decays to faster ones over the decay time (peak
+ * EWMA). A failed request counts as at least {@link #FAILURE_LATENCY}. A server without any response time yet
+ * costs nothing, unless it has outstanding requests.
+ *
+ * Outstanding requests whose end is never reported expire, see {@link OutstandingRequests}. A report that
+ * arrives after that is stale and does not change the average either.
+ *
+ * Statistics are kept per service type and carried over to a new ring for all servers that are still part of it.
+ */
+class PeakEwmaLoadBalancingStrategy implements LatencyAwareLoadBalancingStrategy
+{
+    /** Time for the average to move most of the way to a new, lower response time. */
+    static final long DECAY_TIME = TimeUnit.SECONDS.toNanos(10);
+
+    /** The response time a failed request counts as at least. */
+    static final long FAILURE_LATENCY = TimeUnit.SECONDS.toNanos(1);
+
+    /** Cost of a server with outstanding requests but no response time yet. */
+    private static final double PENALTY = Long.MAX_VALUE >> 16;
+
+    private final Ticker ticker;
+
+    private final ServerStates<Endpoint> endpoints = new ServerStates<Endpoint>(new Supplier<Endpoint>() {
+        @Override
+        public Endpoint get()
+        {
+            return new Endpoint();
+        }
+    });
+
+    PeakEwmaLoadBalancingStrategy()
+    {
+        this(Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    PeakEwmaLoadBalancingStrategy(final Ticker ticker)
+    {
+        this.ticker = ticker;
+    }
+
+    @Override
+    public ServiceInformation select(final ConsistentHashRing ring)
+    {
+        final int size = ring.size();
+        if (size == 1) {
+            return ring.getServer(0);
+        }
+
+        final ServerStates.RingStates<Endpoint> ringEndpoints = endpoints.get(ring);
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(size);
+        // Pick a different second server by skipping over the first one.
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        final long now = ticker.read();
+        final int choice = ringEndpoints.get(first).getCost(now) <= ringEndpoints.get(second).getCost(now) ? first : second;
+        return ring.getServer(choice);
+    }
+
+    @Override
+    public void requestStarted(final ServiceInformation serviceInformation)
+    {
+        final Endpoint endpoint = endpoints.find(serviceInformation);
+        if (endpoint != null) {
+            endpoint.start(ticker.read());
+        }
+    }
+
+    @Override
+    public void requestFinished(final ServiceInformation serviceInformation, final long latency, final boolean success)
+    {
+        final Endpoint endpoint = endpoints.find(serviceInformation);
+        if (endpoint != null) {
+            endpoint.finish(latency, success, ticker.read());
+        }
+    }
+
+    @Override
+    public void requestAbandoned(final ServiceInformation serviceInformation)
+    {
+        final Endpoint endpoint = endpoints.find(serviceInformation);
+        if (endpoint != null) {
+            endpoint.abandon(ticker.read());
+        }
+    }
+
+    @VisibleForTesting
+    double getCost(final ServiceInformation serviceInformation)
+    {
+        final Endpoint endpoint = endpoints.find(serviceInformation);
+        return endpoint == null ? 0.0 : endpoint.getCost(ticker.read());
+    }
+
+    private static final class Endpoint
+    {
+        private final OutstandingRequests outstanding = new OutstandingRequests();
+
+        /** Moving average of the response time in nanoseconds. */
+        private final AtomicLong latency = new AtomicLong();
+
+        /** Time of the last update of the average. */
+        private volatile long stamp;
+
+        private void start(final long now)
+        {
+            outstanding.start(now);
+        }
+
+        private void abandon(final long now)
+        {
+            outstanding.abandon(now);
+        }
+
+        private void finish(final long elapsed, final boolean success, final long now)
+        {
+            if (!outstanding.finish(now - elapsed, now)) {
+                return;
+            }
+
+            final long observed = success ? elapsed : Math.max(elapsed, FAILURE_LATENCY);
+
+            while (true) {
+                final long average = latency.get();
+                final long next;
+                if (observed >= average) {
+                    next = observed;
+                }
+                else {
+                    final double weight = decay(now);
+                    next = (long) (average * weight + observed * (1.0 - weight));
+                }
+                if (latency.compareAndSet(average, next)) {
+                    stamp = now;
+                    return;
+                }
+            }
+        }
+
+        private double getCost(final long now)
+        {
+            final int count = outstanding.get(now);
+            final long average = latency.get();
+            if (average == 0) {
+                return count == 0 ? 0.0 : PENALTY + count;
+            }
+            // Idle servers drift back towards zero, so they get probed again.
+            return average * decay(now) * (count + 1);
+        }
+
+        private double decay(final long now)
+        {
+            return Math.exp(-Math.max(now - stamp, 0) / (double) DECAY_TIME);
+        }
+    }
+}
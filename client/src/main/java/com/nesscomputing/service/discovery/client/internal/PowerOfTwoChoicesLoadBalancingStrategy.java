@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Picks two random servers and uses the one with fewer outstanding requests. This keeps the load close to even
+ * without the lockstep of round robin and with much lower variance than random, and servers that answer slowly
+ * get less traffic.
+ *
+ * Requests are counted from the request reports, see {@link LatencyAwareLoadBalancingStrategy}. Without reports all
+ * servers look idle and this is the same as random. Outstanding requests whose end is never reported expire, see
+ * {@link OutstandingRequests}.
+ *
+ * Counts are kept per service type and carried over to a new ring for all servers that are still part of it.
+ */
+class PowerOfTwoChoicesLoadBalancingStrategy implements LatencyAwareLoadBalancingStrategy
+{
+    private final Ticker ticker;
+
+    private final ServerStates<OutstandingRequests> outstanding = new ServerStates<OutstandingRequests>(new Supplier<OutstandingRequests>() {
+        @Override
+        public OutstandingRequests get()
+        {
+            return new OutstandingRequests();
+        }
+    });
+
+    PowerOfTwoChoicesLoadBalancingStrategy()
+    {
+        this(Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    PowerOfTwoChoicesLoadBalancingStrategy(final Ticker ticker)
+    {
+        this.ticker = ticker;
+    }
+
+    @Override
+    public ServiceInformation select(final ConsistentHashRing ring)
+    {
+        final int size = ring.size();
+        if (size == 1) {
+            return ring.getServer(0);
+        }
+
+        final ServerStates.RingStates<OutstandingRequests> ringOutstanding = outstanding.get(ring);
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(size);
+        // Pick a different second server by skipping over the first one.
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        final long now = ticker.read();
+        final int choice = ringOutstanding.get(first).get(now) <= ringOutstanding.get(second).get(now) ? first : second;
+        return ring.getServer(choice);
+    }
+
+    @Override
+    public void requestStarted(final ServiceInformation serviceInformation)
+    {
+        final OutstandingRequests requests = outstanding.find(serviceInformation);
+        if (requests != null) {
+            requests.start(ticker.read());
+        }
+    }
+
+    @Override
+    public void requestFinished(final ServiceInformation serviceInformation, final long latency, final boolean success)
+    {
+        final OutstandingRequests requests = outstanding.find(serviceInformation);
+        if (requests != null) {
+            final long now = ticker.read();
+            requests.finish(now - latency, now);
+        }
+    }
+
+    @Override
+    public void requestAbandoned(final ServiceInformation serviceInformation)
+    {
+        final OutstandingRequests requests = outstanding.find(serviceInformation);
+        if (requests != null) {
+            requests.abandon(ticker.read());
+        }
+    }
+
+    @VisibleForTesting
+    int getOutstanding(final ServiceInformation serviceInformation)
+    {
+        final OutstandingRequests requests = outstanding.find(serviceInformation);
+        return requests == null ? 0 : requests.get(ticker.read());
+    }
+}
@@ -47,6 +47,8 @@ public class ReadOnlyDiscoveryClientImpl extends AbstractDiscoveryClient impleme
 
     protected final Set<ServiceDiscoveryTask> serviceDiscoveryVisitors = Sets.newHashSet();
 
+    private final ServiceDiscoveryReader reader;
+
     private volatile Thread discoveryThread = null;
 
     @Inject
@@ -54,7 +56,7 @@ public class ReadOnlyDiscoveryClientImpl extends AbstractDiscoveryClient impleme
                                        final DiscoveryClientConfig discoveryConfig,
                                        final ObjectMapper objectMapper)
     {
-        super(discoveryConfig.isEnabled());
+        super(discoveryConfig.isEnabled(), discoveryConfig);
 
         if (discoveryConfig.isEnabled()) {
             Preconditions.checkState(!StringUtils.isBlank(connectString), "no zookeeper server configured!");
@@ -63,7 +65,21 @@ public class ReadOnlyDiscoveryClientImpl extends AbstractDiscoveryClient impleme
         this.connectString = connectString;
         this.discoveryConfig = discoveryConfig;
 
-        serviceDiscoveryVisitors.add(new ServiceDiscoveryReader(discoveryConfig, objectMapper, getStateOfTheWorldHolder()));
+        this.reader = new ServiceDiscoveryReader(discoveryConfig, objectMapper, getStateOfTheWorldHolder());
+        serviceDiscoveryVisitors.add(reader);
+    }
+
+    @Override
+    protected void registerInterest(final String serviceName)
+    {
+        if (discoveryConfig.isEnabled()) {
+            try {
+                reader.registerInterest(serviceName, discoveryConfig.getZookeeperTimeout().getMillis(), TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     @Inject(optional=true)
@@ -90,7 +106,10 @@ public class ReadOnlyDiscoveryClientImpl extends AbstractDiscoveryClient impleme
             LOG.info("Discovery service is disabled.");
         }
         else {
+            boolean snapshotLoaded = false;
             if (discoveryThread == null) {
+                snapshotLoaded = reader.loadSnapshot();
+
                 discoveryThread = new Thread(new ServiceDiscoveryRunnable(connectString, discoveryConfig, serviceDiscoveryVisitors));
                 discoveryThread.setName("service-discovery-thread");
                 discoveryThread.setDaemon(true);
@@ -102,6 +121,11 @@ public class ReadOnlyDiscoveryClientImpl extends AbstractDiscoveryClient impleme
                 LOG.warn("Double start attempted!");
             }
 
+            if (snapshotLoaded) {
+                LOG.info("Using discovery snapshot until the first zookeeper scan completes.");
+                return;
+            }
+
             LOG.debug("Waiting for the world to change!");
             try {
                 // The magic one second wait for service discovery to catch up.
@@ -118,6 +142,14 @@ public class ReadOnlyDiscoveryClientImpl extends AbstractDiscoveryClient impleme
         }
     }
 
+    /**
+     * Returns true while the known services come from a local snapshot and were not yet confirmed by zookeeper.
+     */
+    public boolean isStale()
+    {
+        return getStateOfTheWorldHolder().isStale();
+    }
+
     public synchronized void stop()
     {
         if (discoveryConfig.isEnabled()) {
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Preconditions;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Rendezvous (highest random weight) hashing: every server scores every key and the highest score wins.
+ * A membership change only moves the keys of the servers that went away or the keys won by new servers,
+ * with perfectly even distribution and no virtual nodes.
+ *
+ * Lookup is O(N) in the number of servers, so this suits small rings.
+ */
+@Immutable
+public class RendezvousRingStrategy implements RingStrategy
+{
+    private final HashAlgorithm algorithm;
+
+    public RendezvousRingStrategy(final HashAlgorithm algorithm)
+    {
+        Preconditions.checkArgument(algorithm != null, "hash algorithm can not be null!");
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public RingLayout build(final List<ServiceInformation> servers)
+    {
+        final long[] seeds = new long[servers.size()];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = RingStrategies.seed(servers.get(i));
+        }
+        return new Layout(algorithm, seeds);
+    }
+
+    @Override
+    public RingLayout update(final RingLayout previous, final List<ServiceInformation> servers, final int[] remap, final int[] added)
+    {
+        return build(servers);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("rendezvous(%s)", algorithm);
+    }
+
+    private static final class Layout implements RingLayout
+    {
+        private final HashAlgorithm algorithm;
+        private final long[] seeds;
+
+        private Layout(final HashAlgorithm algorithm, final long[] seeds)
+        {
+            this.algorithm = algorithm;
+            this.seeds = seeds;
+        }
+
+        @Override
+        public int locate(final String key)
+        {
+            final long hash = RingStrategies.mix(algorithm.hash(key));
+            int owner = 0;
+            long best = Long.MIN_VALUE;
+            for (int i = 0; i < seeds.length; i++) {
+                final long score = RingStrategies.mix(hash ^ seeds[i]);
+                if (score > best) {
+                    best = score;
+                    owner = i;
+                }
+            }
+            return owner;
+        }
+    }
+}
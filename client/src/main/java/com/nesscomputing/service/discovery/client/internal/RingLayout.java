@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Immutable lookup structure built by a {@link RingStrategy}. Maps keys to the index of the owning
+ * server in the (service id ordered) server list of a ring.
+ */
+public interface RingLayout
+{
+    /**
+     * Returns the index of the server that owns the key. Should not allocate, lookups are on the request path.
+     */
+    int locate(@Nonnull String key);
+}
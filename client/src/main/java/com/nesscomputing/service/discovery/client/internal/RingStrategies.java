@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.Locale;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Creates ring strategies from their configured names.
+ */
+public final class RingStrategies
+{
+    /** Hash ring with virtual nodes. This is the default. */
+    public static final String KETAMA = "ketama";
+
+    /** Highest random weight hashing. */
+    public static final String RENDEZVOUS = "rendezvous";
+
+    /** Maglev lookup table. */
+    public static final String MAGLEV = "maglev";
+
+    /** Jump consistent hashing. */
+    public static final String JUMP = "jump";
+
+    public static final HashAlgorithm DEFAULT_HASH = HashAlgorithm.FNV1_32_HASH;
+
+    public static final int DEFAULT_VIRTUAL_NODES = 100;
+
+    /**
+     * The ring that service discovery has always used. Routes every key exactly like older clients.
+     */
+    public static final RingStrategy COMPATIBLE = new KetamaRingStrategy(DEFAULT_HASH, DEFAULT_VIRTUAL_NODES);
+
+    private RingStrategies()
+    {
+    }
+
+    /**
+     * Returns the ring strategy configured for a service.
+     */
+    @Nonnull
+    public static RingStrategy forService(@Nonnull final DiscoveryClientConfig config, @Nonnull final String serviceName)
+    {
+        return forName(config.getRingStrategy(serviceName), config.getRingHash(serviceName), config.getRingVirtualNodes(serviceName));
+    }
+
+    /**
+     * Returns a ring strategy.
+     *
+     * @param name One of the well known strategy names.
+     * @param hash Name of a {@link HashAlgorithm}. The "_HASH" suffix can be omitted.
+     * @param virtualNodes Virtual nodes (or table slots) per server. Ignored by strategies that do not use them.
+     * @throws IllegalArgumentException If the name or the hash are unknown.
+     */
+    @Nonnull
+    public static RingStrategy forName(@Nonnull final String name, @Nonnull final String hash, final int virtualNodes)
+    {
+        Preconditions.checkArgument(name != null, "strategy name can not be null!");
+        Preconditions.checkArgument(hash != null, "hash name can not be null!");
+
+        final HashAlgorithm algorithm = findAlgorithm(hash);
+        final String trimmed = name.trim();
+
+        if (KETAMA.equals(trimmed)) {
+            if (algorithm == DEFAULT_HASH && virtualNodes == DEFAULT_VIRTUAL_NODES) {
+                return COMPATIBLE;
+            }
+            return new KetamaRingStrategy(algorithm, virtualNodes);
+        }
+        else if (RENDEZVOUS.equals(trimmed)) {
+            return new RendezvousRingStrategy(algorithm);
+        }
+        else if (MAGLEV.equals(trimmed)) {
+            return new MaglevRingStrategy(algorithm, virtualNodes);
+        }
+        else if (JUMP.equals(trimmed)) {
+            return new JumpRingStrategy(algorithm);
+        }
+        throw new IllegalArgumentException(String.format("Unknown ring strategy '%s'!", trimmed));
+    }
+
+    private static HashAlgorithm findAlgorithm(final String hash)
+    {
+        String hashName = hash.trim().toUpperCase(Locale.ENGLISH);
+        if (!hashName.endsWith("_HASH")) {
+            hashName = hashName + "_HASH";
+        }
+        try {
+            return HashAlgorithm.valueOf(hashName);
+        }
+        catch (IllegalArgumentException iae) {
+            throw new IllegalArgumentException(String.format("Unknown hash algorithm '%s'!", hash), iae);
+        }
+    }
+
+    /**
+     * 64 bit finalizer from MurmurHash3. Spreads the (often only 32 significant) bits of a hash over all 64 bits.
+     */
+    static long mix(long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Stable 64 bit identity of a server, derived from its service id.
+     */
+    static long seed(final ServiceInformation serviceInformation)
+    {
+        final UUID serviceId = serviceInformation.getServiceId();
+        return mix(serviceId.getMostSignificantBits() ^ mix(serviceId.getLeastSignificantBits()));
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Decides how keys are distributed over the servers of a {@link ConsistentHashRing}. A strategy builds an
+ * immutable {@link RingLayout} for a list of servers; the ring then asks the layout which server owns a key.
+ *
+ * Strategies are shared between threads and rings and must be immutable.
+ */
+public interface RingStrategy
+{
+    /**
+     * Builds the layout for a ring.
+     *
+     * @param servers Servers of the ring, sorted by service id. Never empty.
+     */
+    @Nonnull
+    RingLayout build(@Nonnull List<ServiceInformation> servers);
+
+    /**
+     * Builds the layout for a ring after a membership change. Strategies that can reuse parts of the
+     * previous layout do so, all others build a new one. The result must be the same as calling
+     * {@link #build(List)} with the new servers.
+     *
+     * @param previous Layout of the previous ring, built by this strategy.
+     * @param servers Servers of the new ring, sorted by service id. Never empty.
+     * @param remap For every server of the previous ring, its index in servers or -1 if it was removed.
+     * @param added Indexes in servers of the servers that were added, in ascending order.
+     */
+    @Nonnull
+    RingLayout update(@Nonnull RingLayout previous, @Nonnull List<ServiceInformation> servers, @Nonnull int[] remap, @Nonnull int[] added);
+}
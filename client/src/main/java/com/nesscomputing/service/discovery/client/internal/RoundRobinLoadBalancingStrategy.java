@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Hands out the servers of a ring in turn.
+ *
+ * A single shared counter would be contended by every thread, so the counter is striped: threads are
+ * spread over a number of counters by thread id, every counter walks the ring on its own and the stripes
+ * start at different offsets. Every stripe sits on its own cache line.
+ */
+class RoundRobinLoadBalancingStrategy implements LoadBalancingStrategy
+{
+    /** Number of longs between two stripes, to keep each stripe on a separate cache line. */
+    private static final int PADDING = 16;
+
+    private static final int MAX_STRIPES = 64;
+
+    private final int stripeMask;
+    private final AtomicLongArray counters;
+
+    RoundRobinLoadBalancingStrategy()
+    {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    RoundRobinLoadBalancingStrategy(final int concurrency)
+    {
+        int stripes = 1;
+        while (stripes < concurrency && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        this.stripeMask = stripes - 1;
+        this.counters = new AtomicLongArray(stripes * PADDING);
+        for (int i = 0; i < stripes; i++) {
+            counters.set(i * PADDING, i);
+        }
+    }
+
+    @Override
+    public ServiceInformation select(final ConsistentHashRing ring)
+    {
+        final int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        final long next = counters.getAndIncrement(stripe * PADDING);
+        return ring.getServer((int) ((next & Long.MAX_VALUE) % ring.size()));
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Maps;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Keeps a state object for every server of the rings a load balancing strategy selects from, e.g. request
+ * statistics. States are kept per service type. A new ring takes over the states of all servers that are still part
+ * of it, the states of servers that left are dropped with the old ring.
+ */
+final class ServerStates<T>
+{
+    private final Supplier<? extends T> factory;
+
+    /** States by service type. */
+    private final ConcurrentMap<String, RingStates<T>> ringStates = new ConcurrentHashMap<String, RingStates<T>>();
+
+    ServerStates(final Supplier<? extends T> factory)
+    {
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the states of the servers of a ring, a new ring replaces the previous one of its service type.
+     */
+    RingStates<T> get(final ConsistentHashRing ring)
+    {
+        final String serviceType = Strings.nullToEmpty(ring.getServer(0).getServiceType());
+        while (true) {
+            final RingStates<T> current = ringStates.get(serviceType);
+            if (current != null && current.ring == ring) {
+                return current;
+            }
+
+            final RingStates<T> states = new RingStates<T>(ring, current, factory);
+            if (current == null ? ringStates.putIfAbsent(serviceType, states) == null : ringStates.replace(serviceType, current, states)) {
+                return states;
+            }
+        }
+    }
+
+    /**
+     * Returns the state of a server, or null if the server is not part of the current ring of its service type.
+     */
+    T find(final ServiceInformation serviceInformation)
+    {
+        final RingStates<T> states = ringStates.get(Strings.nullToEmpty(serviceInformation.getServiceType()));
+        return states == null ? null : states.get(serviceInformation);
+    }
+
+    static final class RingStates<T>
+    {
+        private final ConsistentHashRing ring;
+        private final Object [] byIndex;
+        private final Map<ServiceInformation, T> byServer;
+
+        private RingStates(final ConsistentHashRing ring, final RingStates<T> previous, final Supplier<? extends T> factory)
+        {
+            this.ring = ring;
+            this.byIndex = new Object [ring.size()];
+            this.byServer = Maps.newHashMapWithExpectedSize(ring.size());
+
+            for (int i = 0; i < byIndex.length; i++) {
+                final ServiceInformation serviceInformation = ring.getServer(i);
+                T state = byServer.get(serviceInformation);
+                if (state == null && previous != null) {
+                    state = previous.get(serviceInformation);
+                }
+                if (state == null) {
+                    state = factory.get();
+                }
+                byIndex[i] = state;
+                byServer.put(serviceInformation, state);
+            }
+        }
+
+        /**
+         * Returns the state of the server at an index of the ring.
+         */
+        @SuppressWarnings("unchecked")
+        T get(final int index)
+        {
+            return (T) byIndex[index];
+        }
+
+        private T get(final ServiceInformation serviceInformation)
+        {
+            return byServer.get(serviceInformation);
+        }
+    }
+}
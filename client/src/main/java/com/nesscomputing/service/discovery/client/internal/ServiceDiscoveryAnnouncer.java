@@ -16,16 +16,21 @@
 package com.nesscomputing.service.discovery.client.internal;
 
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
@@ -33,6 +38,7 @@ import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.ZooKeeper;
 
 import com.nesscomputing.logging.Log;
+import com.nesscomputing.service.discovery.client.AnnouncementFormat;
 import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
 import com.nesscomputing.service.discovery.client.ServiceInformation;
 
@@ -57,31 +63,47 @@ class ServiceDiscoveryAnnouncer extends ServiceDiscoveryTask
     private volatile long lastAnnouncementGeneration = 0L;
     private final AtomicLong announcementGeneration = new AtomicLong(1L);
 
+    private final AnnouncementFormat announcementFormat;
+
     ServiceDiscoveryAnnouncer(final DiscoveryClientConfig discoveryConfig, final ObjectMapper objectMapper)
     {
         super(discoveryConfig, objectMapper);
+
+        AnnouncementFormat format;
+        try {
+            format = AnnouncementFormat.forName(discoveryConfig.getAnnouncementFormat());
+        }
+        catch (IllegalArgumentException iae) {
+            LOG.error(iae, "Bad announcement format '%s', using JSON!", discoveryConfig.getAnnouncementFormat());
+            format = AnnouncementFormat.JSON;
+        }
+        this.announcementFormat = format;
     }
 
     void unannounceAll()
     {
         localAnnouncements.clear();
         announcementGeneration.incrementAndGet();
+        wakeup();
     }
 
     void announce(final ServiceInformation serviceInformation)
     {
         localAnnouncements.add(serviceInformation);
         announcementGeneration.incrementAndGet();
+        wakeup();
     }
 
     void unannounce(final ServiceInformation serviceInformation)
     {
         localAnnouncements.remove(serviceInformation);
-        announcementGeneration.incrementAndGet();
 
         if (serviceInformation.isStaticAnnouncement()) {
             staticAnnouncementsToRemove.add(serviceInformation);
         }
+
+        announcementGeneration.incrementAndGet();
+        wakeup();
     }
 
     @Override
@@ -100,21 +122,47 @@ class ServiceDiscoveryAnnouncer extends ServiceDiscoveryTask
     @Override
     void visit(final List<String> childNodes, final ZooKeeper zookeeper, final long currentGeneration) throws InterruptedException, KeeperException
     {
+        final Set<String> presentNodes = Sets.newHashSet();
+        final Set<String> missingParents = Sets.newHashSet();
+        if (nodeLayout == NodeLayout.FLAT) {
+            presentNodes.addAll(childNodes);
+        }
+        else {
+            // Only look at the directories that hold our own announcements.
+            final Set<String> typeNodes = Sets.newHashSet();
+            for (final ServiceInformation si : localAnnouncements) {
+                typeNodes.add(NodeLayout.getTypeNodeName(si));
+            }
+            final Map<String, List<String>> children = listChildren(zookeeper, typeNodes, null);
+            for (final String typeNode : typeNodes) {
+                final List<String> typeChildren = children.get(typeNode);
+                if (typeChildren == null) {
+                    missingParents.add(typeNode);
+                    continue;
+                }
+                for (final String child : typeChildren) {
+                    presentNodes.add(typeNode + "/" + child);
+                }
+            }
+        }
+
+        final Map<String, byte []> nodesToCreate = Maps.newHashMap();
+        final Map<String, CreateMode> createModes = Maps.newHashMap();
+
         // Loop through everything that we *should* announce, add them with the current generation to the
         // generation map.
         for (final ServiceInformation si : localAnnouncements) {
+            final String nodeName = nodeLayout.getNodeName(si);
+
             // This announcement is safe, so increment its generation.
-            localAnnouncementGenerations.put(si.getAnnouncementName(), currentGeneration);
+            localAnnouncementGenerations.put(nodeName, currentGeneration);
 
             // If announcement is not present, announce it.
-            if (!childNodes.contains(si.getAnnouncementName())) {
-                LOG.debug("Need to announce %s", si.getAnnouncementName());
-                final String childPath = getNodePath(si.getAnnouncementName());
-
+            if (!presentNodes.contains(nodeName)) {
+                LOG.debug("Need to announce %s", nodeName);
                 try {
-                    final byte [] serialized = objectMapper.writeValueAsBytes(si);
-                    zookeeper.create(childPath, serialized, Ids.OPEN_ACL_UNSAFE, si.isStaticAnnouncement() ? CreateMode.PERSISTENT : CreateMode.EPHEMERAL);
-                    LOG.debug("Created %sannouncement for %s", si.isStaticAnnouncement() ? "static " : "", si.getAnnouncementName());
+                    nodesToCreate.put(nodeName, announcementFormat.encode(objectMapper, si));
+                    createModes.put(nodeName, si.isStaticAnnouncement() ? CreateMode.PERSISTENT : CreateMode.EPHEMERAL);
                 }
                 catch (final IOException ioe) {
                     LOG.warn(ioe, "While generating announcement:");
@@ -124,60 +172,132 @@ class ServiceDiscoveryAnnouncer extends ServiceDiscoveryTask
 
         // Now loop through everything that is currently present in the generation map. Remove everything that
         // is not marked with the current generation.
-        for (final Iterator<Map.Entry<String, Long>> it = localAnnouncementGenerations.entrySet().iterator(); it.hasNext(); ) {
-            final Map.Entry<String, Long> entry = it.next();
-
+        final Set<String> nodesToDelete = Sets.newHashSet();
+        for (final Map.Entry<String, Long> entry : localAnnouncementGenerations.entrySet()) {
             if (entry.getValue() == currentGeneration) {
                 LOG.trace("Announcement %s survives in generation %d", entry.getKey(), entry.getValue());
-                continue;
             }
             else {
                 LOG.trace("Announcement %s no longer present in generation %d", entry.getKey(), entry.getValue());
-                final String childPath = getNodePath(entry.getKey());
+                nodesToDelete.add(entry.getKey());
+            }
+        }
 
-                try {
-                    zookeeper.delete(childPath, -1);
-                    LOG.debug("Removed announcement for %s", entry.getKey());
-                    it.remove();
+        // Static announcements which have been unannounced
+        for (final ServiceInformation si : staticAnnouncementsToRemove) {
+            if (localAnnouncements.contains(si)) {
+                // Announced again after it was removed.
+                staticAnnouncementsToRemove.remove(si);
+                continue;
+            }
+            LOG.info("Removing static announcement %s", si.getAnnouncementName());
+            nodesToDelete.add(nodeLayout.getNodeName(si));
+        }
+
+        if (nodesToCreate.isEmpty() && nodesToDelete.isEmpty()) {
+            return;
+        }
+
+        // Zookeeper executes the operations of a session in order, so the parent directories are in place
+        // before the announcements are created. Parents are never removed, existing ones are fine.
+        for (final String typeNode : missingParents) {
+            final String serviceNode = typeNode.substring(0, typeNode.indexOf('/'));
+            zookeeper.create(getNodePath(serviceNode), new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT, IGNORE_RESULT, null);
+            zookeeper.create(getNodePath(typeNode), new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT, IGNORE_RESULT, null);
+        }
+
+        // Fire all changes at once and wait for all of them, so that the announcer converges in a single round trip.
+        final ResultCallback callback = new ResultCallback(nodesToCreate.size() + nodesToDelete.size());
+        for (final Map.Entry<String, byte []> entry : nodesToCreate.entrySet()) {
+            zookeeper.create(getNodePath(entry.getKey()), entry.getValue(), Ids.OPEN_ACL_UNSAFE, createModes.get(entry.getKey()), callback, entry.getKey());
+        }
+        for (final String nodeName : nodesToDelete) {
+            zookeeper.delete(getNodePath(nodeName), -1, callback, nodeName);
+        }
+
+        final boolean complete = callback.await(discoveryConfig.getZookeeperTimeout().getMillis(), TimeUnit.MILLISECONDS);
+
+        KeeperException failure = null;
+        for (final Map.Entry<String, Code> result : callback.getResults().entrySet()) {
+            final String nodeName = result.getKey();
+            final Code code = result.getValue();
+
+            if (nodesToCreate.containsKey(nodeName)) {
+                if (code == Code.OK || code == Code.NODEEXISTS) {
+                    LOG.debug("Created announcement for %s (%s)", nodeName, code);
+                    continue;
                 }
-                catch (final KeeperException ke) {
-                    // The node disappeared under us. That should not happen, but
-                    // test for it anyway.
-                    if (ke.code() == Code.NONODE) {
-                        LOG.trace("Node was already removed, ignoring");
-                        it.remove();
-                    }
-                    else {
-                        throw ke;
+            }
+            // The node may have disappeared under us. That should not happen, but
+            // test for it anyway.
+            else if (code == Code.OK || code == Code.NONODE) {
+                LOG.debug("Removed announcement for %s (%s)", nodeName, code);
+                localAnnouncementGenerations.remove(nodeName);
+                for (final ServiceInformation si : staticAnnouncementsToRemove) {
+                    if (nodeName.equals(nodeLayout.getNodeName(si))) {
+                        staticAnnouncementsToRemove.remove(si);
                     }
                 }
+                continue;
+            }
+
+            LOG.warn("Could not update announcement for %s: %s", nodeName, code);
+            if (failure == null) {
+                failure = KeeperException.create(code, getNodePath(nodeName));
             }
         }
 
-        // Now remove static announcements which have been unannounced
-        for (final ServiceInformation si : staticAnnouncementsToRemove)
+        // Anything that failed or did not finish is retried in the next run.
+        if (failure != null) {
+            throw failure;
+        }
+        if (!complete) {
+            LOG.warn("Timeout waiting for callbacks, some announcements were not updated.");
+            throw KeeperException.create(Code.OPERATIONTIMEOUT);
+        }
+    }
+
+    private static final StringCallback IGNORE_RESULT = new StringCallback() {
+        @Override
+        public void processResult(final int rc, final String path, final Object ctx, final String name) {
+            LOG.trace("Created %s: %s", path, Code.get(rc));
+        }
+    };
+
+    /**
+     * Collects the result code of asynchronous creates and deletes, keyed by the node name passed as context.
+     */
+    private static final class ResultCallback implements StringCallback, VoidCallback
+    {
+        private final Map<String, Code> results = new ConcurrentHashMap<String, Code>();
+        private final CountDownLatch latch;
+
+        ResultCallback(final int count)
+        {
+            this.latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void processResult(final int rc, final String path, final Object ctx)
         {
-            final String announcementName = si.getAnnouncementName();
+            results.put((String) ctx, Code.get(rc));
+            latch.countDown();
+        }
 
-            LOG.info("Removing static announcement %s", announcementName);
-            final String childPath = getNodePath(announcementName);
+        @Override
+        public void processResult(final int rc, final String path, final Object ctx, final String name)
+        {
+            processResult(rc, path, ctx);
+        }
 
-            try {
-                zookeeper.delete(childPath, -1);
-                LOG.debug("Removed announcement for %s", announcementName);
-                staticAnnouncementsToRemove.remove(si);
-            }
-            catch (final KeeperException ke) {
-                // The node disappeared under us. That should not happen, but
-                // test for it anyway.
-                if (ke.code() == Code.NONODE) {
-                    LOG.trace("Node was already removed, ignoring");
-                    staticAnnouncementsToRemove.remove(si);
-                }
-                else {
-                    throw ke;
-                }
-            }
+        boolean await(final long timeout, final TimeUnit unit) throws InterruptedException
+        {
+            return latch.await(timeout, unit);
+        }
+
+        Map<String, Code> getResults()
+        {
+            return results;
         }
     }
 }
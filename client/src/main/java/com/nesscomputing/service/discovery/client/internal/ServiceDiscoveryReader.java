@@ -15,25 +15,43 @@
  */
 package com.nesscomputing.service.discovery.client.internal;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.Stat;
 
 import com.nesscomputing.logging.Log;
+import com.nesscomputing.service.discovery.client.AnnouncementFormat;
 import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
 import com.nesscomputing.service.discovery.client.ServiceInformation;
 
@@ -45,13 +63,64 @@ public class ServiceDiscoveryReader extends ServiceDiscoveryTask
 {
     private static final Log LOG = Log.findLog();
 
+    /** Minimum number of nodes to read before the compacted state is used instead of reading every node. */
+    private static final int COMPACTED_STATE_THRESHOLD = 10;
+
     /** Internal list of bad announcement nodes that could not be read for whatever reason. */
     private final Map<String, Long> badNodes = new ConcurrentHashMap<String, Long>();
 
+    /**
+     * Parsed announcements by child node name. Announcement nodes are not modified once created, so
+     * a node is only read when it first shows up. Entries are revalidated against the node stat
+     * once per scan interval to catch nodes that were replaced under the same name.
+     */
+    private final Map<String, CachedAnnouncement> announcements = new ConcurrentHashMap<String, CachedAnnouncement>();
+
+    /** Ring strategy by service name. */
+    private final Map<String, RingStrategy> ringStrategies = new HashMap<String, RingStrategy>();
+
     private final StateOfTheWorldHolder stateHolder;
 
     private final long penaltyTime;
 
+    private final long revalidationTime;
+
+    private long lastRevalidation;
+
+    /** True if only the services that were looked up are read. */
+    private final boolean readOnDemand;
+
+    /** Time after which a service that was not looked up is dropped again, 0 keeps all services. */
+    private final long idleTime;
+
+    /** Services that were looked up, if services are read on demand. */
+    private final ConcurrentMap<String, Interest> interests = new ConcurrentHashMap<String, Interest>();
+
+    /** Set once all services were asked for. */
+    private volatile boolean allServices = false;
+    private final CountDownLatch allServicesLatch = new CountDownLatch(1);
+
+    private final AtomicBoolean interestsChanged = new AtomicBoolean(false);
+
+    /** Path of the compacted state published by the discovery server, null if it is not used. */
+    private final String compactedStatePath;
+
+    /** Snapshot of the world state, null if no snapshot is kept. */
+    private final File snapshotFile;
+
+    private final long snapshotInterval;
+
+    private long lastSnapshot;
+
+    /** True if the state changed since the last snapshot was written. */
+    private volatile boolean snapshotDirty = true;
+
+    /** Writes the snapshots, so the discovery thread does not wait for the disk. Null if no snapshot is kept. */
+    private final ThreadPoolExecutor snapshotWriter;
+
+    /** The latest snapshot that was not written yet. */
+    private final AtomicReference<List<ServiceInformation>> pendingSnapshot = new AtomicReference<List<ServiceInformation>>();
+
     ServiceDiscoveryReader(final DiscoveryClientConfig discoveryConfig,
                            final ObjectMapper objectMapper,
                            final StateOfTheWorldHolder stateHolder)
@@ -61,19 +130,112 @@ public class ServiceDiscoveryReader extends ServiceDiscoveryTask
         this.stateHolder = stateHolder;
 
         this.penaltyTime = discoveryConfig.getPenaltyTime().getMillis() * 1000000L;
+        this.revalidationTime = discoveryConfig.getScanInterval().getMillis() * 1000000L;
+        this.lastRevalidation = System.nanoTime();
+
+        this.readOnDemand = nodeLayout == NodeLayout.HIERARCHICAL || discoveryConfig.isLazy();
+        this.idleTime = discoveryConfig.getLazyIdleTime().getMillis() * 1000000L;
+
+        if (discoveryConfig.isCompactedState() && nodeLayout != NodeLayout.FLAT) {
+            LOG.warn("The compacted state can only be used with the flat layout, ignoring it!");
+        }
+        this.compactedStatePath = (discoveryConfig.isCompactedState() && nodeLayout == NodeLayout.FLAT) ? CompactedState.getStatePath(discoveryConfig.getRoot()) : null;
+
+        final String snapshotFileName = discoveryConfig.getSnapshotFile();
+        this.snapshotFile = Strings.isNullOrEmpty(snapshotFileName) ? null : new File(snapshotFileName);
+        this.snapshotInterval = discoveryConfig.getSnapshotInterval().getMillis() * 1000000L;
+        this.lastSnapshot = System.nanoTime() - snapshotInterval;
+        if (snapshotFile == null) {
+            this.snapshotWriter = null;
+        }
+        else {
+            // The thread only lives while there is something to write.
+            this.snapshotWriter = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("service-discovery-snapshot-%d").setDaemon(true).build());
+            this.snapshotWriter.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Loads the world state snapshot, if there is one, as a provisional state. Must be called before the
+     * discovery thread is started. If services are read on demand, the services of the snapshot are read
+     * right away and lookups of these services do not wait for zookeeper while the state is provisional.
+     *
+     * @return True if a snapshot was loaded.
+     */
+    boolean loadSnapshot()
+    {
+        if (snapshotFile == null || !snapshotFile.exists()) {
+            return false;
+        }
+
+        final List<ServiceInformation> snapshot;
+        try {
+            snapshot = WorldStateSnapshot.read(snapshotFile, objectMapper);
+        }
+        catch (IOException ioe) {
+            LOG.warn(ioe, "Could not read discovery snapshot %s, ignoring it!", snapshotFile);
+            return false;
+        }
+
+        final Map<String, List<ServiceInformation>> serviceMap = new HashMap<String, List<ServiceInformation>>();
+        for (final ServiceInformation si : snapshot) {
+            if (readOnDemand && !interests.containsKey(si.getServiceName())) {
+                interests.put(si.getServiceName(), new Interest());
+                interestsChanged.set(true);
+            }
+            List<ServiceInformation> services = serviceMap.get(si.getServiceName());
+            if (services == null) {
+                services = new ArrayList<ServiceInformation>();
+                serviceMap.put(si.getServiceName(), services);
+            }
+            services.add(si);
+        }
+
+        final Map<String, ConsistentRingGroup> serviceGroups = Maps.newHashMap();
+        for (Map.Entry<String, List<ServiceInformation>> entry: serviceMap.entrySet()) {
+            serviceGroups.put(entry.getKey(), new ConsistentRingGroup(entry.getValue(), getRingStrategy(entry.getKey())));
+        }
+        return stateHolder.setProvisionalState(serviceGroups);
     }
 
     @Override
-    void visit(final List<String> childNodes, final ZooKeeper zookeeper, final long tick) throws InterruptedException
+    void visit(final List<String> rootNodes, final ZooKeeper zookeeper, final long tick) throws KeeperException, InterruptedException
     {
+        // Services that are added while this runs are read in the next run.
+        final boolean readAll = allServices || !readOnDemand;
+        if (!readAll && idleTime > 0) {
+            evictIdleInterests();
+        }
+        final Collection<String> interestingServices = readAll ? rootNodes : new ArrayList<String>(interests.keySet());
+
+        final List<String> childNodes;
+        if (nodeLayout != NodeLayout.FLAT) {
+            childNodes = listAnnouncements(zookeeper, interestingServices);
+        }
+        else if (readAll) {
+            childNodes = rootNodes;
+        }
+        else {
+            childNodes = filterAnnouncements(rootNodes, interestingServices);
+        }
+
         final Map<String, List<ServiceInformation>> serviceMap = new HashMap<String, List<ServiceInformation>>();
 
-        if (!childNodes.isEmpty()) {
-            final List<ServiceInformation> rawServices = new ArrayList<ServiceInformation>(childNodes.size());
-            final CountDownLatch latch = new CountDownLatch(childNodes.size());
+        // Forget about all nodes that went away.
+        announcements.keySet().retainAll(Sets.newHashSet(childNodes));
 
+        if (!childNodes.isEmpty()) {
             final long now = System.nanoTime();
 
+            final boolean revalidate = now - lastRevalidation >= revalidationTime;
+            if (revalidate) {
+                lastRevalidation = now;
+            }
+
+            final List<String> nodesToRead = new ArrayList<String>();
+            final List<String> nodesToCheck = new ArrayList<String>();
+
             for (final String child : childNodes) {
 
                 final String childPath = getNodePath(child);
@@ -81,9 +243,6 @@ public class ServiceDiscoveryReader extends ServiceDiscoveryTask
                 if (badNodes.containsKey(childPath)) {
                     final Long penaltyEndsTime = badNodes.get(childPath);
                     if (penaltyEndsTime != null && penaltyEndsTime > now) {
-                        // Decrement the countdown latch, because there will be no callback for this
-                        // node.
-                        latch.countDown();
                         // Ignore a bad node for a while.
                         continue;
                     }
@@ -91,37 +250,40 @@ public class ServiceDiscoveryReader extends ServiceDiscoveryTask
                     badNodes.remove(childPath);
                 }
 
-                zookeeper.getData(childPath, false, new DataCallback() {
-                    @Override
-                    public void processResult(final int rc, final String path, final Object ctx, final byte[] data, final Stat stat) {
-
-                        ServiceInformation si = null;
-                        try {
-                            if (data != null && data.length > 0) {
-                                si = objectMapper.readValue(data, ServiceInformation.class);
-                                LOG.trace("%s contains %s", path, si);
-                            }
-                            else {
-                                // This can sometimes happen if a node that we want to inspect
-                                // disappears between callback post and callback processing.
-                                LOG.trace("Got callback but no data!");
-                            }
+                if (!announcements.containsKey(child)) {
+                    nodesToRead.add(child);
+                }
+                else if (revalidate) {
+                    nodesToCheck.add(child);
+                }
+            }
 
-                        }
-                        catch (IOException ioe) {
-                            LOG.debug(ioe, "While deserializing %s", new String(data, Charsets.UTF_8));
-                            LOG.info("Marking %s as a bad node!", path);
-                            // Put a bad node into the penalty box.
-                            badNodes.put(path, now + penaltyTime);
-                        }
-                        finally {
-                            synchronized (rawServices) {
-                                if (si != null) {
-                                    rawServices.add(si);
-                                }
-                            }
+            if (compactedStatePath != null && nodesToRead.size() >= COMPACTED_STATE_THRESHOLD) {
+                readCompactedState(zookeeper, nodesToRead);
+            }
+
+            LOG.debug("%d announcements, reading %d, revalidating %d", childNodes.size(), nodesToRead.size(), nodesToCheck.size());
+
+            final CountDownLatch latch = new CountDownLatch(nodesToRead.size() + nodesToCheck.size());
+
+            for (final String child : nodesToRead) {
+                readNode(zookeeper, child, now, latch);
+            }
+
+            for (final String child : nodesToCheck) {
+                zookeeper.exists(getNodePath(child), false, new StatCallback() {
+                    @Override
+                    public void processResult(final int rc, final String path, final Object ctx, final Stat stat) {
+                        final CachedAnnouncement cached = announcements.get(child);
+                        if (stat != null && cached != null && cached.isCurrent(stat)) {
                             latch.countDown();
                         }
+                        else {
+                            // Node was replaced (or is gone), read it again. The read callback counts down the latch.
+                            LOG.debug("%s changed, reloading", path);
+                            announcements.remove(child);
+                            readNode(zookeeper, child, now, latch);
+                        }
                     }
                 }, null);
             }
@@ -130,29 +292,381 @@ public class ServiceDiscoveryReader extends ServiceDiscoveryTask
                 LOG.warn("Timeout waiting for callbacks, some nodes were not parsed.");
             }
 
-            // Make sure that even with late callbacks, this will not throw spurious ConcurrentModificationExceptions
-            synchronized (rawServices) {
-                for (final ServiceInformation si : rawServices) {
-                    List<ServiceInformation> services = serviceMap.get(si.getServiceName());
-                    if (services == null) {
-                        services = new ArrayList<ServiceInformation>();
-                        serviceMap.put(si.getServiceName(), services);
-                    }
-                    services.add(si);
+            for (final String child : childNodes) {
+                final CachedAnnouncement cached = announcements.get(child);
+                if (cached == null) {
+                    continue;
+                }
+                final ServiceInformation si = cached.getServiceInformation();
+                if (!readAll && !interests.containsKey(si.getServiceName())) {
+                    // Flat node names are only a hint, the announcement is authoritative.
+                    continue;
                 }
+                List<ServiceInformation> services = serviceMap.get(si.getServiceName());
+                if (services == null) {
+                    services = new ArrayList<ServiceInformation>();
+                    serviceMap.put(si.getServiceName(), services);
+                }
+                services.add(si);
             }
         }
 
-        Map<String, ConsistentRingGroup> serviceGroups = Maps.newHashMap();
+        final Map<String, ConsistentRingGroup> currentState = stateHolder.getState();
+        final Map<String, ConsistentRingGroup> serviceGroups = Maps.newHashMap();
+        boolean changed = serviceMap.size() != currentState.size();
         for (Map.Entry<String, List<ServiceInformation>> entry: serviceMap.entrySet()) {
-        	ConsistentRingGroup currentGroup = stateHolder.getState().get(entry.getKey());
-        	//Rebuilding a group is kind of expensive, so reuse the old group if it hasn't changed
-			if (currentGroup != null && Sets.newHashSet(entry.getValue()).equals(Sets.newHashSet(currentGroup.getAll()))) {
-        		serviceGroups.put(entry.getKey(), currentGroup);
-        	} else {
-        		serviceGroups.put(entry.getKey(), new ConsistentRingGroup(entry.getValue()));
-        	}
+            final ConsistentRingGroup currentGroup = currentState.get(entry.getKey());
+            if (currentGroup == null) {
+                serviceGroups.put(entry.getKey(), new ConsistentRingGroup(entry.getValue(), getRingStrategy(entry.getKey())));
+                changed = true;
+                continue;
+            }
+
+            // Rebuilding a group is kind of expensive, so only apply the difference to the current group.
+            // Unchanged groups and rings are reused as-is.
+            final Set<ServiceInformation> added = Sets.newHashSet(entry.getValue());
+            final List<ServiceInformation> removed = new ArrayList<ServiceInformation>();
+            for (final ConsistentHashRing ring : currentGroup) {
+                for (final ServiceInformation si : ring) {
+                    if (!added.remove(si)) {
+                        removed.add(si);
+                    }
+                }
+            }
+            final ConsistentRingGroup newGroup = currentGroup.withChanges(added, removed);
+            changed |= newGroup != currentGroup;
+            serviceGroups.put(entry.getKey(), newGroup);
         }
         stateHolder.setState(serviceGroups);
+
+        snapshotDirty |= changed;
+        if (snapshotFile != null && snapshotDirty) {
+            writeSnapshot(serviceGroups);
+        }
+
+        if (readOnDemand) {
+            for (final String service : interestingServices) {
+                final Interest interest = interests.get(service);
+                if (interest != null) {
+                    interest.loaded.countDown();
+                }
+            }
+            if (readAll) {
+                allServicesLatch.countDown();
+            }
+        }
+    }
+
+    private void writeSnapshot(final Map<String, ConsistentRingGroup> serviceGroups)
+    {
+        final long now = System.nanoTime();
+        if (now - lastSnapshot < snapshotInterval) {
+            return;
+        }
+        lastSnapshot = now;
+
+        final List<ServiceInformation> snapshot = new ArrayList<ServiceInformation>();
+        for (final ConsistentRingGroup group : serviceGroups.values()) {
+            snapshot.addAll(group.getAll());
+        }
+        snapshotDirty = false;
+
+        // A snapshot that is still waiting is replaced, only the latest state gets written.
+        if (pendingSnapshot.getAndSet(snapshot) == null) {
+            snapshotWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final List<ServiceInformation> pending = pendingSnapshot.getAndSet(null);
+                    if (pending == null) {
+                        return;
+                    }
+                    try {
+                        WorldStateSnapshot.write(snapshotFile, objectMapper, pending);
+                        LOG.debug("Wrote %d announcements to %s", pending.size(), snapshotFile);
+                    }
+                    catch (IOException ioe) {
+                        LOG.warn(ioe, "Could not write discovery snapshot %s", snapshotFile);
+                        snapshotDirty = true;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops all services that were not looked up for the idle time and have no listener. Runs on the discovery thread.
+     */
+    private void evictIdleInterests()
+    {
+        final long now = System.nanoTime();
+        for (final Map.Entry<String, Interest> entry : interests.entrySet()) {
+            final Interest interest = entry.getValue();
+            if (interest.accessed) {
+                interest.accessed = false;
+                interest.lastAccess = now;
+            }
+            else if (now - interest.lastAccess >= idleTime && !stateHolder.getDispatcher().isListenedTo(entry.getKey()) && interests.remove(entry.getKey(), interest)) {
+                if (interest.accessed) {
+                    // Looked up while being removed, keep it.
+                    interests.putIfAbsent(entry.getKey(), interest);
+                }
+                else {
+                    LOG.debug("Service %s was not used for %dms, no longer reading it", entry.getKey(), TimeUnit.NANOSECONDS.toMillis(now - interest.lastAccess));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the flat announcement nodes that may belong to one of the given services. Announcement names start
+     * with the service name, so this may return nodes of other services whose name has the same prefix.
+     */
+    static List<String> filterAnnouncements(final List<String> rootNodes, final Collection<String> services)
+    {
+        final List<String> nodes = new ArrayList<String>();
+        if (services.isEmpty()) {
+            return nodes;
+        }
+        for (final String child : rootNodes) {
+            for (final String service : services) {
+                if (child.length() > service.length() && child.startsWith(service) && child.charAt(service.length()) == '-') {
+                    nodes.add(child);
+                    break;
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns the announcements of the given services in the hierarchical layout, and watches the service and
+     * type nodes for changes.
+     */
+    private List<String> listAnnouncements(final ZooKeeper zookeeper, final Collection<String> services) throws KeeperException, InterruptedException
+    {
+        final List<String> typeNodes = new ArrayList<String>();
+        for (final Map.Entry<String, List<String>> entry : listChildren(zookeeper, services, getWatcher()).entrySet()) {
+            for (final String type : entry.getValue()) {
+                typeNodes.add(entry.getKey() + "/" + type);
+            }
+        }
+
+        final List<String> nodes = new ArrayList<String>();
+        for (final Map.Entry<String, List<String>> entry : listChildren(zookeeper, typeNodes, getWatcher()).entrySet()) {
+            for (final String child : entry.getValue()) {
+                nodes.add(entry.getKey() + "/" + child);
+            }
+        }
+        return nodes;
+    }
+
+    @Override
+    void determineGeneration(final AtomicLong generation, final long tick)
+    {
+        if (interestsChanged.getAndSet(false)) {
+            generation.incrementAndGet();
+        }
+    }
+
+    /**
+     * Makes sure that a service is read and watched if services are read on demand. The first call for a service
+     * waits until the service was read or the timeout expired. Does nothing if all services are read.
+     *
+     * @param serviceName The service name or null for all services.
+     */
+    void registerInterest(@Nullable final String serviceName, final long timeout, final TimeUnit unit) throws InterruptedException
+    {
+        if (!readOnDemand) {
+            return;
+        }
+
+        CountDownLatch latch;
+        if (serviceName == null) {
+            if (!allServices) {
+                LOG.debug("Reading all services");
+                allServices = true;
+                interestsChanged.set(true);
+                wakeup();
+            }
+            latch = allServicesLatch;
+        }
+        else {
+            Interest interest = interests.get(serviceName);
+            if (interest == null) {
+                final Interest newInterest = new Interest();
+                interest = interests.putIfAbsent(serviceName, newInterest);
+                if (interest == null) {
+                    LOG.debug("Reading service %s", serviceName);
+                    interest = newInterest;
+                    interestsChanged.set(true);
+                    wakeup();
+                }
+            }
+            if (!interest.accessed) {
+                interest.accessed = true;
+            }
+            latch = interest.loaded;
+        }
+
+        // A service from the snapshot can be used until zookeeper confirms it.
+        if (latch.getCount() > 0 && !(stateHolder.isStale() && (serviceName == null || stateHolder.getState().containsKey(serviceName)))) {
+            latch.await(timeout, unit);
+        }
+    }
+
+    private RingStrategy getRingStrategy(final String serviceName)
+    {
+        RingStrategy ringStrategy = ringStrategies.get(serviceName);
+        if (ringStrategy == null) {
+            try {
+                ringStrategy = RingStrategies.forService(discoveryConfig, serviceName);
+            }
+            catch (IllegalArgumentException iae) {
+                LOG.error(iae, "Bad ring configuration for %s, using default ring!", serviceName);
+                ringStrategy = RingStrategies.COMPATIBLE;
+            }
+            LOG.debug("Using %s ring for %s", ringStrategy, serviceName);
+            ringStrategies.put(serviceName, ringStrategy);
+        }
+        return ringStrategy;
+    }
+
+    /**
+     * Takes announcements from the compacted state that the discovery server publishes, if that state is not older
+     * than the root. All nodes that were found are removed from the list of nodes to read.
+     */
+    private void readCompactedState(final ZooKeeper zookeeper, final List<String> nodesToRead) throws KeeperException, InterruptedException
+    {
+        // Stat the root after it was listed, so the compacted state is at least as new as the child list if it is
+        // at least as new as this.
+        final Stat rootStat = zookeeper.exists(discoveryConfig.getRoot(), false);
+
+        final CompactedState state;
+        try {
+            state = CompactedState.read(zookeeper, compactedStatePath, discoveryConfig.getZookeeperTimeout().getMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (IOException ioe) {
+            LOG.warn(ioe, "Could not read compacted state from %s", compactedStatePath);
+            return;
+        }
+
+        if (state == null || rootStat == null) {
+            return;
+        }
+        if (state.getRootCversion() < rootStat.getCversion()) {
+            LOG.debug("Compacted state %d lags behind the root (%d < %d)", state.getGeneration(), state.getRootCversion(), rootStat.getCversion());
+            return;
+        }
+
+        final Map<String, CompactedState.Node> nodes = Maps.newHashMapWithExpectedSize(state.getNodes().size());
+        for (final CompactedState.Node node : state.getNodes()) {
+            nodes.put(node.getName(), node);
+        }
+
+        final int count = nodesToRead.size();
+        for (final Iterator<String> it = nodesToRead.iterator(); it.hasNext(); ) {
+            final String child = it.next();
+            final CompactedState.Node node = nodes.get(child);
+            if (node == null) {
+                continue;
+            }
+            try {
+                final ServiceInformation si = AnnouncementFormat.decode(objectMapper, node.getData());
+                si.getEndpoint();
+                announcements.put(child, new CachedAnnouncement(si, node.getCzxid(), node.getVersion()));
+                it.remove();
+            }
+            catch (IOException ioe) {
+                // Read the node, which puts it into the penalty box if it is really bad.
+                LOG.trace(ioe, "While deserializing %s from the compacted state", child);
+            }
+            catch (IllegalArgumentException iae) {
+                LOG.trace(iae, "While resolving endpoint for %s from the compacted state", child);
+            }
+        }
+        LOG.debug("Took %d of %d announcements from compacted state %d", count - nodesToRead.size(), count, state.getGeneration());
+    }
+
+    private void readNode(final ZooKeeper zookeeper, final String child, final long now, final CountDownLatch latch)
+    {
+        zookeeper.getData(getNodePath(child), false, new DataCallback() {
+            @Override
+            public void processResult(final int rc, final String path, final Object ctx, final byte[] data, final Stat stat) {
+
+                try {
+                    if (data != null && data.length > 0 && stat != null) {
+                        final ServiceInformation si = AnnouncementFormat.decode(objectMapper, data);
+                        LOG.trace("%s contains %s", path, si);
+                        // Resolve the endpoint once, so that lookups do not need to parse the address information.
+                        si.getEndpoint();
+                        announcements.put(child, new CachedAnnouncement(si, stat));
+                    }
+                    else {
+                        // This can sometimes happen if a node that we want to inspect
+                        // disappears between callback post and callback processing.
+                        LOG.trace("Got callback but no data!");
+                    }
+                }
+                catch (IOException ioe) {
+                    LOG.debug(ioe, "While deserializing %s", new String(data, Charsets.UTF_8));
+                    LOG.info("Marking %s as a bad node!", path);
+                    // Put a bad node into the penalty box.
+                    badNodes.put(path, now + penaltyTime);
+                }
+                catch (IllegalArgumentException iae) {
+                    LOG.debug(iae, "While resolving endpoint for %s", new String(data, Charsets.UTF_8));
+                    LOG.info("Marking %s as a bad node!", path);
+                    badNodes.put(path, now + penaltyTime);
+                }
+                finally {
+                    latch.countDown();
+                }
+            }
+        }, null);
+    }
+
+    /**
+     * A parsed announcement and the identity of the node version it was read from.
+     */
+    @VisibleForTesting
+    static final class CachedAnnouncement
+    {
+        private final ServiceInformation serviceInformation;
+        private final long czxid;
+        private final int version;
+
+        CachedAnnouncement(final ServiceInformation serviceInformation, final Stat stat)
+        {
+            this(serviceInformation, stat.getCzxid(), stat.getVersion());
+        }
+
+        CachedAnnouncement(final ServiceInformation serviceInformation, final long czxid, final int version)
+        {
+            this.serviceInformation = serviceInformation;
+            this.czxid = czxid;
+            this.version = version;
+        }
+
+        ServiceInformation getServiceInformation()
+        {
+            return serviceInformation;
+        }
+
+        boolean isCurrent(final Stat stat)
+        {
+            return czxid == stat.getCzxid() && version == stat.getVersion();
+        }
+    }
+
+    private static class Interest
+    {
+        /** Opens once the service was read for the first time. */
+        private final CountDownLatch loaded = new CountDownLatch(1);
+
+        /** Set on every lookup, cleared by the discovery thread. */
+        private volatile boolean accessed = true;
+
+        /** Last time the discovery thread saw an access. Only used by the discovery thread. */
+        private long lastAccess = System.nanoTime();
     }
 }
@@ -22,6 +22,7 @@ import com.nesscomputing.service.discovery.job.ZookeeperProcessingTask;
 import java.io.IOException;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
@@ -42,9 +43,9 @@ class ServiceDiscoveryRunnable extends ZookeeperProcessingTask
     private static final Log LOG = Log.findLog();
 
     private final String discoveryRoot;
-    private final long scanTicks;
+    private final long scanInterval;
 
-    private volatile long lastScan = 0;
+    private volatile long lastScan = System.nanoTime();
 
     private final Set<ServiceDiscoveryTask> visitors;
 
@@ -55,14 +56,17 @@ class ServiceDiscoveryRunnable extends ZookeeperProcessingTask
         super(connectString, discoveryConfig.getTickInterval().getMillis());
 
         this.visitors = visitors;
+        for (ServiceDiscoveryTask visitor : visitors) {
+            visitor.setProcessingTask(this);
+        }
 
-        this.scanTicks = discoveryConfig.getScanInterval().getMillis() / discoveryConfig.getTickInterval().getMillis();
+        this.scanInterval = TimeUnit.MILLISECONDS.toNanos(discoveryConfig.getScanInterval().getMillis());
         this.discoveryRoot = discoveryConfig.getRoot();
-        LOG.info("Scan Ticks is %d (Tick interval is %dms)", scanTicks, discoveryConfig.getTickInterval().getMillis());
+        LOG.info("Scan interval is %dms", discoveryConfig.getScanInterval().getMillis());
     }
 
     /**
-     * Trigger the loop every time enough ticks have been accumulated, or whenever any of the
+     * Trigger the loop every time the scan interval has passed, or whenever any of the
      * visitors requests it.
      */
     @Override
@@ -70,8 +74,9 @@ class ServiceDiscoveryRunnable extends ZookeeperProcessingTask
     {
         // If the scan interval was reached, trigger the
         // run.
-        if (tick - lastScan >= scanTicks) {
-            lastScan = tick;
+        final long now = System.nanoTime();
+        if (now - lastScan >= scanInterval) {
+            lastScan = now;
             return generation.incrementAndGet();
         }
 
@@ -84,6 +89,16 @@ class ServiceDiscoveryRunnable extends ZookeeperProcessingTask
         return generation.get();
     }
 
+    /**
+     * Park until the next scan is due, unless a watch or a visitor wakes up the loop earlier.
+     */
+    @Override
+    protected long determineWaitTime()
+    {
+        final long remaining = lastScan + scanInterval - System.nanoTime();
+        return remaining > 0 ? TimeUnit.NANOSECONDS.toMillis(remaining) + 1 : 0;
+    }
+
     @Override
     protected boolean doWork(final ZooKeeper zookeeper, final long tick) throws KeeperException, IOException, InterruptedException
     {
@@ -15,15 +15,24 @@
  */
 package com.nesscomputing.service.discovery.client.internal;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 
 import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.job.ZookeeperProcessingTask;
 
 /**
  * Base class for a task run by the main service discovery thread.
@@ -32,12 +41,17 @@ abstract class ServiceDiscoveryTask
 {
     protected final DiscoveryClientConfig discoveryConfig;
     protected final ObjectMapper objectMapper;
+    protected final NodeLayout nodeLayout;
+
+    private volatile ZookeeperProcessingTask processingTask = null;
 
     protected ServiceDiscoveryTask (final DiscoveryClientConfig discoveryConfig,
                                     final ObjectMapper objectMapper)
     {
         this.discoveryConfig = discoveryConfig;
         this.objectMapper = objectMapper;
+
+        this.nodeLayout = NodeLayout.forConfig(discoveryConfig);
     }
 
     protected final String getNodePath(final String nodeName)
@@ -45,6 +59,71 @@ abstract class ServiceDiscoveryTask
         return discoveryConfig.getRoot() + "/" + nodeName;
     }
 
+    void setProcessingTask(final ZookeeperProcessingTask processingTask)
+    {
+        this.processingTask = processingTask;
+    }
+
+    /**
+     * Wake up the service discovery thread, so that it calls {@link #determineGeneration(AtomicLong, long)} right away.
+     */
+    protected final void wakeup()
+    {
+        final ZookeeperProcessingTask processingTask = this.processingTask;
+        if (processingTask != null) {
+            processingTask.wakeup();
+        }
+    }
+
+    /**
+     * Returns the watcher that triggers a new run of the service discovery thread, or null if the task is not
+     * attached to a thread.
+     */
+    protected final Watcher getWatcher()
+    {
+        return processingTask;
+    }
+
+    /**
+     * Lists the children of a number of nodes at once.
+     *
+     * @param nodeNames Node names, relative to the discovery root.
+     * @param watcher Watcher to set on every node, or null.
+     * @return The children by node name. Nodes that do not exist are missing from the result.
+     * @throws KeeperException If any of the nodes could not be listed in time.
+     */
+    protected final Map<String, List<String>> listChildren(final ZooKeeper zookeeper, final Collection<String> nodeNames, final Watcher watcher)
+        throws KeeperException, InterruptedException
+    {
+        final Map<String, List<String>> children = new ConcurrentHashMap<String, List<String>>();
+        final Map<String, Code> failures = new ConcurrentHashMap<String, Code>();
+        final CountDownLatch latch = new CountDownLatch(nodeNames.size());
+
+        for (final String nodeName : nodeNames) {
+            zookeeper.getChildren(getNodePath(nodeName), watcher, new ChildrenCallback() {
+                @Override
+                public void processResult(final int rc, final String path, final Object ctx, final List<String> nodeChildren) {
+                    final Code code = Code.get(rc);
+                    if (code == Code.OK) {
+                        children.put(nodeName, nodeChildren);
+                    }
+                    else if (code != Code.NONODE) {
+                        failures.put(path, code);
+                    }
+                    latch.countDown();
+                }
+            }, null);
+        }
+
+        if (!latch.await(discoveryConfig.getZookeeperTimeout().getMillis(), TimeUnit.MILLISECONDS)) {
+            throw KeeperException.create(Code.OPERATIONTIMEOUT);
+        }
+        for (final Map.Entry<String, Code> failure : failures.entrySet()) {
+            throw KeeperException.create(failure.getValue(), failure.getKey());
+        }
+        return children;
+    }
+
     /**
      * Visit a list of nodes.
      */
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Secondary indexes over a state of the world. An index is built once for a state and never changes, all lists
+ * handed out are immutable and shared.
+ */
+final class ServiceIndex
+{
+    static final ServiceIndex EMPTY = new ServiceIndex(Collections.<String, ConsistentRingGroup>emptyMap());
+
+    /** The state this index was built from. */
+    private final Map<String, ConsistentRingGroup> state;
+
+    private final Map<UUID, ServiceInformation> byServiceId;
+    private final ImmutableListMultimap<String, ServiceInformation> byAddress;
+    private final ImmutableList<ServiceInformation> staticAnnouncements;
+    private final ImmutableListMultimap<String, ServiceInformation> staticAnnouncementsByName;
+
+    ServiceIndex(final Map<String, ConsistentRingGroup> state)
+    {
+        final Map<UUID, ServiceInformation> byServiceId = new HashMap<UUID, ServiceInformation>();
+        final ImmutableListMultimap.Builder<String, ServiceInformation> byAddress = ImmutableListMultimap.builder();
+        final ImmutableList.Builder<ServiceInformation> staticAnnouncements = ImmutableList.builder();
+        final ImmutableListMultimap.Builder<String, ServiceInformation> staticAnnouncementsByName = ImmutableListMultimap.builder();
+
+        for (final ConsistentRingGroup group : state.values()) {
+            for (final ServiceInformation si : group.getAll()) {
+                byServiceId.put(si.getServiceId(), si);
+
+                final String address = si.getProperty(ServiceInformation.PROP_SERVICE_ADDRESS);
+                if (address != null) {
+                    byAddress.put(address, si);
+                }
+
+                if (si.isStaticAnnouncement()) {
+                    staticAnnouncements.add(si);
+                    staticAnnouncementsByName.put(si.getServiceName(), si);
+                }
+            }
+        }
+
+        this.state = state;
+        this.byServiceId = byServiceId;
+        this.byAddress = byAddress.build();
+        this.staticAnnouncements = staticAnnouncements.build();
+        this.staticAnnouncementsByName = staticAnnouncementsByName.build();
+    }
+
+    boolean isIndexOf(final Map<String, ConsistentRingGroup> state)
+    {
+        return this.state == state;
+    }
+
+    ServiceInformation getByServiceId(final UUID serviceId)
+    {
+        return byServiceId.get(serviceId);
+    }
+
+    List<ServiceInformation> getByAddress(final String address)
+    {
+        return byAddress.get(address);
+    }
+
+    List<ServiceInformation> getStaticAnnouncements()
+    {
+        return staticAnnouncements;
+    }
+
+    List<ServiceInformation> getStaticAnnouncements(final String serviceName)
+    {
+        return staticAnnouncementsByName.get(serviceName);
+    }
+}
@@ -26,13 +26,29 @@ import com.google.common.annotations.VisibleForTesting;
 /**
  * Maintains the state of the world (i.e. the service discovery map). The map can only be changed atomically, also it is possible to wait on the
  * first state change to occur.
+ *
+ * Every change of the map increments the generation. Generations start at the creation time in milliseconds, so they keep increasing
+ * across restarts as long as there are less than a thousand changes per second on average.
+ *
+ * The secondary indexes of a state are built on the first lookup after the state changed. Listeners are told about
+ * every change in the order of the generations.
  */
 public class StateOfTheWorldHolder
 {
     private final AtomicReference<Map<String, ConsistentRingGroup>> stateOfTheWorldHolder = new AtomicReference<Map<String, ConsistentRingGroup>>(Collections.<String, ConsistentRingGroup>emptyMap());
 
+    private final AtomicReference<ServiceIndex> serviceIndex = new AtomicReference<ServiceIndex>(ServiceIndex.EMPTY);
+
+    private final WorldChangeDispatcher dispatcher = new WorldChangeDispatcher();
+
     private final CountDownLatch worldChangeWaitingLock;
 
+    /** True while the state was loaded from a snapshot and not yet confirmed by zookeeper. */
+    private volatile boolean stale = false;
+
+    /** Only changed while holding the lock. */
+    private volatile long generation = System.currentTimeMillis();
+
     StateOfTheWorldHolder(final boolean blocking)
     {
         // Only wait for the first service update to happen if service discovery is actually enabled.
@@ -40,17 +56,114 @@ public class StateOfTheWorldHolder
     }
 
     @VisibleForTesting
-    public void setState(final Map<String, ConsistentRingGroup> newWorldOrder)
+    public synchronized void setState(final Map<String, ConsistentRingGroup> newWorldOrder)
     {
-        stateOfTheWorldHolder.set(newWorldOrder);
+        final Map<String, ConsistentRingGroup> oldWorldOrder = stateOfTheWorldHolder.getAndSet(newWorldOrder);
+        if (stale || !isSameState(oldWorldOrder, newWorldOrder)) {
+            generation++;
+            notifyAll();
+            dispatcher.dispatch(generation, oldWorldOrder, newWorldOrder);
+        }
+        stale = false;
         worldChangeWaitingLock.countDown();
     }
 
+    /**
+     * Sets a provisional state, e.g. from a snapshot. The state is flagged as stale until the first real state
+     * is set. Does nothing if a real state was already set.
+     */
+    synchronized boolean setProvisionalState(final Map<String, ConsistentRingGroup> provisionalWorldOrder)
+    {
+        if (worldChangeWaitingLock.getCount() == 0) {
+            return false;
+        }
+        final Map<String, ConsistentRingGroup> oldWorldOrder = stateOfTheWorldHolder.getAndSet(provisionalWorldOrder);
+        stale = true;
+        generation++;
+        notifyAll();
+        dispatcher.dispatch(generation, oldWorldOrder, provisionalWorldOrder);
+        return true;
+    }
+
+    /**
+     * The discovery reader reuses the ring groups of services that did not change, so comparing the groups by
+     * identity is enough.
+     */
+    private static boolean isSameState(final Map<String, ConsistentRingGroup> oldWorldOrder, final Map<String, ConsistentRingGroup> newWorldOrder)
+    {
+        if (oldWorldOrder == newWorldOrder) {
+            return true;
+        }
+        if (oldWorldOrder.size() != newWorldOrder.size()) {
+            return false;
+        }
+        for (final Map.Entry<String, ConsistentRingGroup> entry : newWorldOrder.entrySet()) {
+            if (oldWorldOrder.get(entry.getKey()) != entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the generation of the current state.
+     */
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Waits until the generation is different from the given one or the timeout expired.
+     *
+     * @return The current generation.
+     */
+    public synchronized long waitForChange(final long lastGeneration, final long timeout, final TimeUnit timeUnit) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        long remaining = timeUnit.toNanos(timeout);
+        while (generation == lastGeneration && remaining > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return generation;
+    }
+
+    /**
+     * Returns true if the current state was not read from zookeeper but from a snapshot.
+     */
+    public boolean isStale()
+    {
+        return stale;
+    }
+
     public Map<String, ConsistentRingGroup> getState()
     {
         return stateOfTheWorldHolder.get();
     }
 
+    WorldChangeDispatcher getDispatcher()
+    {
+        return dispatcher;
+    }
+
+    /**
+     * Returns the indexes of the current state.
+     */
+    ServiceIndex getIndex()
+    {
+        final Map<String, ConsistentRingGroup> state = stateOfTheWorldHolder.get();
+        final ServiceIndex index = serviceIndex.get();
+        if (index.isIndexOf(state)) {
+            return index;
+        }
+
+        // Concurrent lookups may build the same index twice, which is cheaper than making them wait.
+        final ServiceIndex newIndex = new ServiceIndex(state);
+        serviceIndex.compareAndSet(index, newIndex);
+        return newIndex;
+    }
+
     void waitForWorldChange() throws InterruptedException
     {
         worldChangeWaitingLock.await();
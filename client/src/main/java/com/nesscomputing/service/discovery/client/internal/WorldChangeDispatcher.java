@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nesscomputing.logging.Log;
+import com.nesscomputing.service.discovery.client.ServiceDiscoveryEvent;
+import com.nesscomputing.service.discovery.client.ServiceDiscoveryListener;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Computes the changes between two states of the world and hands them to the registered listeners. Every listener
+ * gets its events in order, one at a time, even if the executor runs tasks concurrently.
+ */
+final class WorldChangeDispatcher
+{
+    private static final Log LOG = Log.findLog();
+
+    private final List<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+
+    private volatile Executor executor = null;
+
+    /**
+     * Sets the executor that runs the listeners. Without one, a single daemon thread is started on first use.
+     */
+    synchronized void setExecutor(final Executor executor)
+    {
+        this.executor = Preconditions.checkNotNull(executor, "executor must not be null");
+    }
+
+    private Executor getExecutor()
+    {
+        Executor result = executor;
+        if (result == null) {
+            synchronized (this) {
+                result = executor;
+                if (result == null) {
+                    result = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("service-discovery-listener-%d").build());
+                    executor = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    void addListener(final ServiceDiscoveryListener listener, @Nullable final String serviceName, @Nullable final String serviceType)
+    {
+        Preconditions.checkNotNull(listener, "listener must not be null");
+        registrations.add(new Registration(listener, serviceName, serviceType));
+    }
+
+    void removeListener(final ServiceDiscoveryListener listener)
+    {
+        for (final Registration registration : registrations) {
+            if (registration.listener == listener) {
+                registration.active = false;
+                registrations.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * Returns true if a listener is registered for the given service, either by name or for all services.
+     */
+    boolean isListenedTo(final String serviceName)
+    {
+        for (final Registration registration : registrations) {
+            if (registration.serviceName == null || registration.serviceName.equals(serviceName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Dispatches the changes between two states. Must be called in the order of the generations.
+     */
+    void dispatch(final long generation, final Map<String, ConsistentRingGroup> oldWorldOrder, final Map<String, ConsistentRingGroup> newWorldOrder)
+    {
+        if (registrations.isEmpty()) {
+            return;
+        }
+
+        final List<ServiceInformation> added = new ArrayList<ServiceInformation>();
+        final List<ServiceInformation> removed = new ArrayList<ServiceInformation>();
+        final List<ServiceInformation> changed = new ArrayList<ServiceInformation>();
+
+        for (final String serviceName : Sets.union(oldWorldOrder.keySet(), newWorldOrder.keySet())) {
+            final ConsistentRingGroup oldGroup = oldWorldOrder.get(serviceName);
+            final ConsistentRingGroup newGroup = newWorldOrder.get(serviceName);
+            // Groups of services that did not change are reused.
+            if (oldGroup != newGroup) {
+                diff(getAll(oldGroup), getAll(newGroup), added, removed, changed);
+            }
+        }
+
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty()) {
+            return;
+        }
+
+        for (final Registration registration : registrations) {
+            final ServiceDiscoveryEvent event = new ServiceDiscoveryEvent(generation,
+                                                                          registration.filter(added),
+                                                                          registration.filter(removed),
+                                                                          registration.filter(changed));
+            if (!event.isEmpty()) {
+                registration.enqueue(event);
+            }
+        }
+    }
+
+    private static List<ServiceInformation> getAll(final ConsistentRingGroup group)
+    {
+        return group == null ? Collections.<ServiceInformation>emptyList() : group.getAll();
+    }
+
+    static void diff(final List<ServiceInformation> oldServices,
+                     final List<ServiceInformation> newServices,
+                     final List<ServiceInformation> added,
+                     final List<ServiceInformation> removed,
+                     final List<ServiceInformation> changed)
+    {
+        final Map<UUID, ServiceInformation> oldById = new HashMap<UUID, ServiceInformation>();
+        for (final ServiceInformation si : oldServices) {
+            oldById.put(si.getServiceId(), si);
+        }
+
+        for (final ServiceInformation si : newServices) {
+            final ServiceInformation old = oldById.remove(si.getServiceId());
+            if (old == null) {
+                added.add(si);
+            }
+            else if (!old.equals(si)) {
+                changed.add(si);
+            }
+        }
+        removed.addAll(oldById.values());
+    }
+
+    private final class Registration implements Runnable
+    {
+        private final ServiceDiscoveryListener listener;
+        private final String serviceName;
+        private final String serviceType;
+
+        private final Queue<ServiceDiscoveryEvent> events = new ConcurrentLinkedQueue<ServiceDiscoveryEvent>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private volatile boolean active = true;
+
+        private Registration(final ServiceDiscoveryListener listener, final String serviceName, final String serviceType)
+        {
+            this.listener = listener;
+            this.serviceName = serviceName;
+            this.serviceType = serviceType;
+        }
+
+        private List<ServiceInformation> filter(final List<ServiceInformation> services)
+        {
+            if (serviceName == null) {
+                return services;
+            }
+
+            final List<ServiceInformation> result = new ArrayList<ServiceInformation>();
+            for (final ServiceInformation si : services) {
+                if (serviceName.equals(si.getServiceName()) && (serviceType == null || serviceType.equals(si.getServiceType()))) {
+                    result.add(si);
+                }
+            }
+            return result;
+        }
+
+        private void enqueue(final ServiceDiscoveryEvent event)
+        {
+            events.add(event);
+            schedule();
+        }
+
+        private void schedule()
+        {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    getExecutor().execute(this);
+                }
+                catch (RejectedExecutionException ree) {
+                    LOG.warn(ree, "Could not deliver discovery events to %s", listener);
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            ServiceDiscoveryEvent event;
+            while ((event = events.poll()) != null) {
+                if (!active) {
+                    events.clear();
+                    break;
+                }
+                try {
+                    listener.onWorldChange(event);
+                }
+                catch (RuntimeException re) {
+                    LOG.warn(re, "Listener %s failed", listener);
+                }
+            }
+            scheduled.set(false);
+
+            // An event may have been queued after the queue was found empty.
+            if (!events.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.nesscomputing.logging.Log;
+import com.nesscomputing.service.discovery.client.AnnouncementFormat;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+/**
+ * Reads and writes snapshots of the discovery world state. A snapshot is a header followed by all announcements
+ * in the binary announcement format, each prefixed with its length. Snapshots are written to a temporary file
+ * which is then renamed, so a reader never sees a partial snapshot.
+ */
+final class WorldStateSnapshot
+{
+    private static final Log LOG = Log.findLog();
+
+    static final int MAGIC = 0x4e445353;
+    static final int VERSION = 1;
+
+    private WorldStateSnapshot()
+    {
+    }
+
+    static void write(final File file, final ObjectMapper objectMapper, final Collection<ServiceInformation> announcements) throws IOException
+    {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        final FileOutputStream fos = new FileOutputStream(tempFile);
+        boolean written = false;
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(announcements.size());
+            for (final ServiceInformation si : announcements) {
+                final byte [] data = AnnouncementFormat.BINARY.encode(objectMapper, si);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            out.flush();
+            fos.getFD().sync();
+            written = true;
+        }
+        finally {
+            fos.close();
+            if (!written && !tempFile.delete()) {
+                LOG.warn("Could not remove %s", tempFile);
+            }
+        }
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads all announcements from a snapshot. Announcements that can not be used for lookups, e.g. because
+     * they miss address information, are left out.
+     *
+     * @throws IOException If the snapshot can not be read or is malformed.
+     */
+    static List<ServiceInformation> read(final File file, final ObjectMapper objectMapper) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a discovery snapshot");
+            }
+            final int version = buffer.get() & 0xff;
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            final long timestamp = buffer.getLong();
+            final int count = buffer.getInt();
+            if (count < 0) {
+                throw new IOException("Malformed snapshot " + file);
+            }
+
+            final List<ServiceInformation> announcements = new ArrayList<ServiceInformation>(Math.min(count, buffer.remaining() / 4));
+            for (int i = 0; i < count; i++) {
+                final int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Malformed snapshot " + file);
+                }
+                final byte [] data = new byte [length];
+                buffer.get(data);
+                final ServiceInformation si = AnnouncementFormat.decode(objectMapper, data);
+                if (isUsable(si)) {
+                    announcements.add(si);
+                }
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Trailing bytes in snapshot " + file);
+            }
+
+            if (announcements.size() < count) {
+                LOG.warn("Skipped %d unusable announcements in %s", count - announcements.size(), file);
+            }
+            LOG.info("Read %d announcements from %s, written %ds ago", announcements.size(), file, (System.currentTimeMillis() - timestamp) / 1000L);
+            return announcements;
+        }
+        catch (BufferUnderflowException bue) {
+            throw new IOException("Truncated snapshot " + file, bue);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private static boolean isUsable(final ServiceInformation si)
+    {
+        if (si.getServiceName() == null || si.getServiceId() == null) {
+            return false;
+        }
+        try {
+            // Resolves the endpoint once, like the reader does for announcements from zookeeper.
+            return si.getEndpoint() != null;
+        }
+        catch (IllegalArgumentException iae) {
+            LOG.debug(iae, "While resolving endpoint for %s", si);
+            return false;
+        }
+    }
+}
@@ -47,13 +47,15 @@ public class ZookeeperJobProcessor
 {
     private final BlockingQueue<JobWrapper> jobQueue = new ArrayBlockingQueue<JobWrapper>(20);
 
+    private final JobProcessingRunnable processingRunnable;
     private final Thread processingThread;
 
     @Inject
     public ZookeeperJobProcessor(@Named(DiscoveryClientModule.ZOOKEEPER_CONNECT_NAME) final String connectString,
                                  final DiscoveryClientConfig discoveryClientConfig)
     {
-        this.processingThread = new Thread(new JobProcessingRunnable(connectString, discoveryClientConfig.getTickInterval().getMillis()));
+        this.processingRunnable = new JobProcessingRunnable(connectString, discoveryClientConfig.getTickInterval().getMillis());
+        this.processingThread = new Thread(processingRunnable);
         this.processingThread.setName("zookeeper-job-processor");
         this.processingThread.setDaemon(true);
     }
@@ -96,6 +98,7 @@ public class ZookeeperJobProcessor
     {
         final JobWrapper jobWrapper = new JobWrapper(job, retries);
         if (jobQueue.offer(jobWrapper, timeout, timeoutUnit)) {
+            processingRunnable.wakeup();
             return jobWrapper;
         }
         else {
@@ -108,6 +111,7 @@ public class ZookeeperJobProcessor
     {
         final JobWrapper jobWrapper = new JobWrapper(job, retries);
         if (jobQueue.offer(jobWrapper)) {
+            processingRunnable.wakeup();
             return jobWrapper;
         }
         else {
@@ -138,6 +142,13 @@ public class ZookeeperJobProcessor
             }
         }
 
+        @Override
+        protected long determineWaitTime()
+        {
+            // Keep going while jobs are queued.
+            return jobQueue.isEmpty() ? Long.MAX_VALUE : 0L;
+        }
+
         @Override
         protected boolean doWork(final ZooKeeper zookeeper, final long tick) throws KeeperException, IOException
         {
@@ -145,7 +156,9 @@ public class ZookeeperJobProcessor
 
             if (currentJob == null) {
                 currentJob = jobQueue.poll();
-                retries = currentJob.getRetries();
+                if (currentJob != null) {
+                    retries = currentJob.getRetries();
+                }
             }
             if (currentJob != null) {
                 if (currentJob.isCancelRequested()) {
@@ -16,9 +16,10 @@
 package com.nesscomputing.service.discovery.job;
 
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.zookeeper.KeeperException;
@@ -30,18 +31,19 @@ import com.google.common.base.Preconditions;
 import com.nesscomputing.logging.Log;
 
 /**
- * Driver task to maintain a zookeeper connection and execute work on it. Handles connection
- * loss and reconnection of the client.
+ * Driver task to execute work on a zookeeper connection. The connection is a {@link ZookeeperSession}
+ * that is shared with all other tasks using the same connect string; it is acquired when the task
+ * starts running and released when it stops.
+ *
+ * The work loop parks until it is woken up by a zookeeper event, a call to {@link #wakeup()} or
+ * the deadline returned by {@link #determineWaitTime()}. While disconnected or after failed work,
+ * it retries every tick interval.
  */
-@edu.umd.cs.findbugs.annotations.SuppressWarnings("SF_SWITCH_NO_DEFAULT")
 public abstract class ZookeeperProcessingTask implements Watcher, Runnable
 {
     private static final Log LOG = Log.findLog();
 
-    private final Lock zookeeperLock = new ReentrantLock();
-
-    private volatile boolean connected = false;
-    private volatile ZooKeeper zookeeper = null;
+    private static final Object SIGNAL = new Object();
 
     // Current generation. Processing only happens if the generation
     // changes (which implies a local state change). Start with 1 so that a
@@ -49,6 +51,10 @@ public abstract class ZookeeperProcessingTask implements Watcher, Runnable
     private final AtomicLong generation = new AtomicLong(1L);
     private final AtomicLong ticker = new AtomicLong(0L);
 
+    // Wakes up the work loop. Holds at most one signal, so a burst of events results
+    // in a single run.
+    private final BlockingQueue<Object> signals = new ArrayBlockingQueue<Object>(1);
+
     private final String connectString;
     private final long tickInterval;
 
@@ -65,23 +71,27 @@ public abstract class ZookeeperProcessingTask implements Watcher, Runnable
     {
         long lastGeneration = 0L;
 
+        final ZookeeperSession session = ZookeeperSession.acquire(connectString);
+        session.addWatcher(this);
         try {
             while(true) {
+                long waitTime = tickInterval;
+                ZooKeeper zookeeper = null;
                 try {
                     final long tick = ticker.getAndIncrement();
-                    if (!connected) {
-                        openZookeeper();
+                    if (!session.isConnected()) {
+                        session.open();
                     }
-                    if (connected) {
+                    if (session.isConnected()) {
                         final long currentGeneration = determineCurrentGeneration(generation, tick);
                         if (lastGeneration < currentGeneration) {
                             LOG.debug("Processing...");
 
                             try {
-                                zookeeperLock.lock();
-                                // This can happen if the zookeeper object gets
-                                // removed by closeZookeeper after the connection check
-                                // and before the lock protects it for doWork.
+                                zookeeper = session.lockZookeeper();
+                                // This can happen if the session got closed
+                                // after the connection check and before the lock
+                                // protects it for doWork.
                                 if (zookeeper != null && doWork(zookeeper, tick)) {
                                     // Record this as the last successful run state.
                                     // If doWork threw a KeeperException, it will
@@ -90,19 +100,25 @@ public abstract class ZookeeperProcessingTask implements Watcher, Runnable
                                 }
                             }
                             finally {
-                                zookeeperLock.unlock();
+                                session.unlockZookeeper();
                             }
                         }
+                        if (lastGeneration >= currentGeneration) {
+                            // Everything is done, park until something happens.
+                            waitTime = determineWaitTime();
+                        }
                     }
                 }
                 catch (IOException ioe) {
                     LOG.warn(ioe, "While processing work: ");
                 }
                 catch (KeeperException ke) {
-                    processKeeperException(ke);
+                    processKeeperException(session, zookeeper, ke);
                 }
 
-                Thread.sleep(tickInterval);
+                if (waitTime > 0) {
+                    signals.poll(waitTime, TimeUnit.MILLISECONDS);
+                }
                 LOG.trace("Tick...");
             }
         }
@@ -111,7 +127,8 @@ public abstract class ZookeeperProcessingTask implements Watcher, Runnable
             LOG.debug("Interrupted, exiting...");
         }
         finally {
-            closeZookeeper();
+            session.removeWatcher(this);
+            session.release();
         }
     }
 
@@ -120,59 +137,50 @@ public abstract class ZookeeperProcessingTask implements Watcher, Runnable
         return generation.get();
     }
 
+    /**
+     * Returns how long (in milliseconds) the work loop may park before it must run again, if no event
+     * wakes it up earlier. The default waits for events only.
+     */
+    protected long determineWaitTime()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Wakes up the work loop, so that it determines the current generation right away.
+     */
+    public void wakeup()
+    {
+        signals.offer(SIGNAL);
+    }
+
     protected abstract boolean doWork(final ZooKeeper zookeeper, final long tick) throws IOException, KeeperException, InterruptedException;
 
+    /**
+     * Receives watch events for nodes and connection state events from the session. Every change
+     * on zookeeper forces a run of the work loop, connection state events only wake it up.
+     */
     @Override
     public void process(WatchedEvent event)
     {
-        LOG.debug("Received '%s' event", event.getState());
-        switch(event.getState()) {
-        case AuthFailed:
-            LOG.warn("Got an auth request from zookeeper. Server config is not compatible to this client!");
-            break;
-        case SyncConnected:
-            LOG.trace("Session connected");
-            connected = true;
-
-            switch(event.getType()) {
-            case None:
-                break;
-            default:
-                LOG.trace("Zookeeper state changed: %s", event.getType());
-                // Forces running of the work loop.
-                generation.incrementAndGet();
-                break;
-            }
-
-            break;
-        case Disconnected:
-            LOG.trace("Session disconnected, waiting for reconnect");
-            connected = false;
-            break;
-        case Expired:
-            LOG.trace("Session expired, closing zookeeper.");
-            connected = false;
-            closeZookeeper();
-        default:
-            // Huh?
-            LOG.debug("Failed to process unknown state %s", event.getState());
-            break;
+        if (event.getState() == Event.KeeperState.SyncConnected && event.getType() != Event.EventType.None) {
+            LOG.trace("Zookeeper state changed: %s", event.getType());
+            // Forces running of the work loop.
+            generation.incrementAndGet();
         }
+
+        wakeup();
     }
 
-    private void processKeeperException(final KeeperException ke)
-        throws InterruptedException
+    private void processKeeperException(final ZookeeperSession session, final ZooKeeper zookeeper, final KeeperException ke)
     {
         switch(ke.code()) {
         case CONNECTIONLOSS:
-            LOG.trace("Connection lost, waiting for reconnect");
-            connected = false;
+            session.connectionLost(zookeeper);
             break;
 
         case SESSIONEXPIRED:
-            LOG.trace("Session expired, closing zookeeper.");
-            connected = false;
-            closeZookeeper();
+            session.sessionExpired(zookeeper);
             break;
 
         default:
@@ -180,37 +188,4 @@ public abstract class ZookeeperProcessingTask implements Watcher, Runnable
             break;
         }
     }
-
-    private void openZookeeper()
-    {
-        try {
-            zookeeperLock.lock();
-            if (this.zookeeper == null) {
-                this.zookeeper = new ZooKeeper(connectString, 3000, this);
-            }
-        } catch (IOException ioe) {
-            LOG.warn(ioe, "Could not connect to zookeeper, retrying...");
-        }
-        finally {
-            zookeeperLock.unlock();
-        }
-    }
-
-    private void closeZookeeper()
-    {
-        try {
-            zookeeperLock.lock();
-            if (this.zookeeper != null) {
-                this.zookeeper.close();
-                this.zookeeper = null;
-                this.connected = false;
-            }
-        }
-        catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-        }
-        finally {
-            zookeeperLock.unlock();
-        }
-    }
 }
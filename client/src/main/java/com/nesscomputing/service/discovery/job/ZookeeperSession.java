@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.job;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.nesscomputing.logging.Log;
+
+/**
+ * A zookeeper session that is shared by all work loops in a process that use the same connect string.
+ * Sessions are reference counted: {@link #acquire(String)} returns the session for a connect string, and the
+ * connection is closed when the last user calls {@link #release()}.
+ *
+ * The session owns the connection and handles disconnects and expiry. Connection state events are passed on to
+ * all registered watchers.
+ */
+public final class ZookeeperSession implements Watcher
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final int SESSION_TIMEOUT = 3000;
+
+    @GuardedBy("SESSIONS")
+    private static final Map<String, ZookeeperSession> SESSIONS = Maps.newHashMap();
+
+    private final String connectString;
+    private final Set<Watcher> watchers = new CopyOnWriteArraySet<Watcher>();
+
+    // Work happens under the read lock, opening and closing the connection under the write lock.
+    private final ReadWriteLock zookeeperLock = new ReentrantReadWriteLock();
+
+    @GuardedBy("SESSIONS")
+    private int references = 0;
+
+    private volatile boolean connected = false;
+    private volatile ZooKeeper zookeeper = null;
+
+    /**
+     * Returns the session for a connect string. Every call must be matched by a call to {@link #release()}.
+     */
+    public static ZookeeperSession acquire(final String connectString)
+    {
+        Preconditions.checkArgument(!StringUtils.isBlank(connectString), "empty connect string");
+
+        synchronized (SESSIONS) {
+            ZookeeperSession session = SESSIONS.get(connectString);
+            if (session == null) {
+                session = new ZookeeperSession(connectString);
+                SESSIONS.put(connectString, session);
+            }
+            session.references++;
+            return session;
+        }
+    }
+
+    private ZookeeperSession(final String connectString)
+    {
+        this.connectString = connectString;
+    }
+
+    /**
+     * Drops a reference to the session. The last reference closes the connection.
+     */
+    public void release()
+    {
+        synchronized (SESSIONS) {
+            Preconditions.checkState(references > 0, "Session for %s was released too often!", connectString);
+            if (--references > 0) {
+                return;
+            }
+            SESSIONS.remove(connectString);
+        }
+        close(null);
+    }
+
+    public String getConnectString()
+    {
+        return connectString;
+    }
+
+    public boolean isConnected()
+    {
+        return connected;
+    }
+
+    /**
+     * Registers a watcher for connection state events.
+     */
+    public void addWatcher(final Watcher watcher)
+    {
+        watchers.add(watcher);
+    }
+
+    public void removeWatcher(final Watcher watcher)
+    {
+        watchers.remove(watcher);
+    }
+
+    /**
+     * Opens the connection if there is none. The session is connected once zookeeper
+     * reports it, which is passed on to the watchers.
+     */
+    public void open()
+    {
+        try {
+            zookeeperLock.writeLock().lock();
+            if (this.zookeeper == null) {
+                this.zookeeper = new ZooKeeper(connectString, SESSION_TIMEOUT, this);
+            }
+        }
+        catch (IOException ioe) {
+            LOG.warn(ioe, "Could not connect to zookeeper, retrying...");
+        }
+        finally {
+            zookeeperLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the current zookeeper and keeps it from being closed or replaced until
+     * {@link #unlockZookeeper()} is called. Returns null if there is no open connection.
+     */
+    @CheckForNull
+    public ZooKeeper lockZookeeper()
+    {
+        zookeeperLock.readLock().lock();
+        return zookeeper;
+    }
+
+    public void unlockZookeeper()
+    {
+        zookeeperLock.readLock().unlock();
+    }
+
+    /**
+     * Reports that an operation on the given zookeeper lost its connection. The client reconnects by itself.
+     */
+    public void connectionLost(final ZooKeeper lostZookeeper)
+    {
+        if (lostZookeeper == zookeeper) {
+            LOG.trace("Connection lost, waiting for reconnect");
+            connected = false;
+        }
+    }
+
+    /**
+     * Reports that the session of the given zookeeper expired. It is closed, the next call to {@link #open()}
+     * starts a new session.
+     */
+    public void sessionExpired(final ZooKeeper expiredZookeeper)
+    {
+        LOG.trace("Session expired, closing zookeeper.");
+        close(expiredZookeeper);
+    }
+
+    @Override
+    public void process(final WatchedEvent event)
+    {
+        LOG.debug("Received '%s' event", event.getState());
+        switch(event.getState()) {
+        case AuthFailed:
+            LOG.warn("Got an auth request from zookeeper. Server config is not compatible to this client!");
+            break;
+        case SyncConnected:
+            LOG.trace("Session connected");
+            connected = true;
+            break;
+        case Disconnected:
+            LOG.trace("Session disconnected, waiting for reconnect");
+            connected = false;
+            break;
+        case Expired:
+            sessionExpired(zookeeper);
+            break;
+        default:
+            // Huh?
+            LOG.debug("Failed to process unknown state %s", event.getState());
+            break;
+        }
+
+        for (Watcher watcher : watchers) {
+            watcher.process(event);
+        }
+    }
+
+    /**
+     * Closes the connection, if it is still the given one. Closes any connection if expectedZookeeper is null.
+     */
+    private void close(@CheckForNull final ZooKeeper expectedZookeeper)
+    {
+        try {
+            zookeeperLock.writeLock().lock();
+            if (this.zookeeper != null && (expectedZookeeper == null || expectedZookeeper == this.zookeeper)) {
+                this.zookeeper.close();
+                this.zookeeper = null;
+                this.connected = false;
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            zookeeperLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
+
+public class TestAnnouncementFormat
+{
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private static ServiceInformation [] createAnnouncements()
+    {
+        final Map<String, String> properties = Maps.newHashMap();
+        properties.put("héllo", "wörld 日本");
+        properties.put("empty", "");
+        properties.put("nothing", null);
+
+        return new ServiceInformation [] {
+            ServiceInformation.forService("user-service", "http", "http", "10.1.2.3", 8080),
+            ServiceInformation.staticAnnouncement("user-service", null, "https", "10.1.2.3", 8443),
+            new ServiceInformation("some-service", null, UUID.randomUUID(), null),
+            new ServiceInformation("some-service", "", new UUID(-1L, Long.MIN_VALUE), properties)
+        };
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        for (AnnouncementFormat format : AnnouncementFormat.values()) {
+            for (ServiceInformation si : createAnnouncements()) {
+                final ServiceInformation decoded = AnnouncementFormat.decode(mapper, format.encode(mapper, si));
+                Assert.assertEquals(format.toString(), si, decoded);
+                Assert.assertEquals(si.isStaticAnnouncement(), decoded.isStaticAnnouncement());
+                Assert.assertEquals(si.getAnnouncementName(), decoded.getAnnouncementName());
+            }
+        }
+    }
+
+    @Test
+    public void testCompact() throws IOException
+    {
+        final ServiceInformation si = ServiceInformation.forService("user-service", "http", "http", "10.1.2.3", 8080);
+        final byte [] json = AnnouncementFormat.JSON.encode(mapper, si);
+        final byte [] binary = AnnouncementFormat.BINARY.encode(mapper, si);
+        Assert.assertTrue(json.length + " vs. " + binary.length, binary.length * 2 < json.length);
+        Assert.assertEquals(AnnouncementFormat.MAGIC, binary[0] & 0xff);
+    }
+
+    @Test
+    public void testTruncated() throws IOException
+    {
+        final byte [] binary = AnnouncementFormat.BINARY.encode(mapper, ServiceInformation.forService("user-service", "http", "http", "10.1.2.3", 8080));
+        for (int length = 1; length < binary.length; length++) {
+            try {
+                AnnouncementFormat.decode(mapper, Arrays.copyOf(binary, length));
+                Assert.fail("Decoded truncated announcement of length " + length);
+            }
+            catch (IOException ioe) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected=IOException.class)
+    public void testUnknownVersion() throws IOException
+    {
+        final byte [] binary = AnnouncementFormat.BINARY.encode(mapper, ServiceInformation.forService("user-service", "http", "http", "10.1.2.3", 8080));
+        binary[1] = (byte) (AnnouncementFormat.VERSION + 1);
+        AnnouncementFormat.decode(mapper, binary);
+    }
+
+    @Test
+    public void testForName()
+    {
+        Assert.assertSame(AnnouncementFormat.JSON, AnnouncementFormat.forName("json"));
+        Assert.assertSame(AnnouncementFormat.BINARY, AnnouncementFormat.forName(" Binary "));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnknownFormat()
+    {
+        AnnouncementFormat.forName("xml");
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client;
+
+import java.net.URI;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TestServiceEndpoint
+{
+    @Test
+    public void testResolve() throws Exception
+    {
+        final ServiceInformation si = ServiceInformation.forService("user", null, "http", "10.0.0.1", 8080);
+        final ServiceEndpoint endpoint = si.getEndpoint();
+        Assert.assertNotNull(endpoint);
+        Assert.assertSame(endpoint, si.getEndpoint());
+
+        Assert.assertEquals("http", endpoint.getScheme());
+        Assert.assertEquals("10.0.0.1", endpoint.getHost());
+        Assert.assertEquals(8080, endpoint.getPort());
+        Assert.assertEquals(new URI("http", null, "10.0.0.1", 8080, "", null, null), endpoint.getBaseUri());
+        Assert.assertEquals("http://10.0.0.1:8080", endpoint.getPrefix());
+    }
+
+    @Test
+    public void testDefaultPorts() throws Exception
+    {
+        final ServiceEndpoint http = ServiceInformation.forService("user", null, "http", "10.0.0.1", 80).getEndpoint();
+        Assert.assertEquals("http://10.0.0.1", http.getPrefix());
+        Assert.assertEquals(URI.create("http://10.0.0.1:80"), http.getBaseUri());
+
+        final ServiceEndpoint https = ServiceInformation.forService("user", null, "https", "10.0.0.1", 443).getEndpoint();
+        Assert.assertEquals("https://10.0.0.1", https.getPrefix());
+
+        final ServiceEndpoint mixed = ServiceInformation.forService("user", null, "https", "10.0.0.1", 80).getEndpoint();
+        Assert.assertEquals("https://10.0.0.1:80", mixed.getPrefix());
+    }
+
+    @Test
+    public void testToUri() throws Exception
+    {
+        final ServiceEndpoint endpoint = ServiceInformation.forService("user", null, "http", "10.0.0.1", 8080).getEndpoint();
+
+        Assert.assertEquals(URI.create("http://10.0.0.1:8080"), endpoint.toUri(null, null, null));
+        Assert.assertSame(endpoint.toUri(null, null, null), endpoint.toUri("", " ", null));
+        Assert.assertEquals(URI.create("http://10.0.0.1:8080/v1/user"), endpoint.toUri("/v1/user", null, null));
+        Assert.assertEquals(URI.create("http://10.0.0.1:8080/v1/user?q=a%20b#top"), endpoint.toUri("/v1/user", "q=a%20b", "top"));
+        Assert.assertEquals(URI.create("http://10.0.0.1:8080?q=1"), endpoint.toUri(null, "q=1", null));
+    }
+
+    @Test
+    public void testIncomplete()
+    {
+        final ServiceInformation si = new ServiceInformation("user", null, null, ImmutableMap.of(ServiceInformation.PROP_SERVICE_SCHEME, "http",
+                                                                                                 ServiceInformation.PROP_SERVICE_ADDRESS, "10.0.0.1"));
+        Assert.assertNull(si.getEndpoint());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadPort()
+    {
+        final ServiceInformation si = new ServiceInformation("user", null, null, ImmutableMap.of(ServiceInformation.PROP_SERVICE_SCHEME, "http",
+                                                                                                 ServiceInformation.PROP_SERVICE_ADDRESS, "10.0.0.1",
+                                                                                                 ServiceInformation.PROP_SERVICE_PORT, "eighty"));
+        si.getEndpoint();
+    }
+}
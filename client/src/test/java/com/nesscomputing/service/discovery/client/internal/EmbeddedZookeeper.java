@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.server.NIOServerCnxn;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.rules.ExternalResource;
+
+/**
+ * Runs a zookeeper server on a random local port for the duration of a test.
+ */
+class EmbeddedZookeeper extends ExternalResource
+{
+    private File dataDir;
+    private NIOServerCnxn.Factory factory;
+
+    @Override
+    protected void before() throws Throwable
+    {
+        dataDir = Files.createTempDir();
+        factory = new NIOServerCnxn.Factory(new InetSocketAddress("127.0.0.1", 0));
+        factory.startup(new ZooKeeperServer(dataDir, dataDir, 2000));
+    }
+
+    @Override
+    protected void after()
+    {
+        factory.shutdown();
+        delete(dataDir);
+    }
+
+    String getConnectString()
+    {
+        return "127.0.0.1:" + factory.getLocalPort();
+    }
+
+    /**
+     * Returns a new session that is connected to the server.
+     */
+    ZooKeeper connect() throws IOException, InterruptedException
+    {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final ZooKeeper zookeeper = new ZooKeeper(getConnectString(), 5000, new Watcher() {
+            @Override
+            public void process(final WatchedEvent event) {
+                if (event.getState() == KeeperState.SyncConnected) {
+                    connected.countDown();
+                }
+            }
+        });
+        Preconditions.checkState(connected.await(5, TimeUnit.SECONDS), "Could not connect to %s", getConnectString());
+        return zookeeper;
+    }
+
+    private static void delete(final File file)
+    {
+        final File [] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
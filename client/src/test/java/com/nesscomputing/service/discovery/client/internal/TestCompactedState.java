@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCompactedState
+{
+    private static List<CompactedState.Node> createNodes(final int count, final int size)
+    {
+        final Random random = new Random(count);
+        final List<CompactedState.Node> nodes = new ArrayList<CompactedState.Node>();
+        for (int i = 0; i < count; i++) {
+            final byte [] data = new byte [size];
+            random.nextBytes(data);
+            nodes.add(new CompactedState.Node("node-" + i, 1000L + i, i % 3, data));
+        }
+        return nodes;
+    }
+
+    private static void assertNodesEqual(final List<CompactedState.Node> expected, final List<CompactedState.Node> actual)
+    {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getName(), actual.get(i).getName());
+            Assert.assertEquals(expected.get(i).getCzxid(), actual.get(i).getCzxid());
+            Assert.assertEquals(expected.get(i).getVersion(), actual.get(i).getVersion());
+            Assert.assertArrayEquals(expected.get(i).getData(), actual.get(i).getData());
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        final CompactedState state = new CompactedState(7L, 42, createNodes(10, 100));
+        final List<byte []> chunks = state.encodeChunks();
+        Assert.assertEquals(1, chunks.size());
+
+        final CompactedState decoded = CompactedState.decode(state.encodeHeader(chunks), chunks);
+        Assert.assertEquals(7L, decoded.getGeneration());
+        Assert.assertEquals(42, decoded.getRootCversion());
+        assertNodesEqual(state.getNodes(), decoded.getNodes());
+    }
+
+    @Test
+    public void testEmpty() throws IOException
+    {
+        final CompactedState state = new CompactedState(1L, 0, new ArrayList<CompactedState.Node>());
+        final List<byte []> chunks = state.encodeChunks();
+        Assert.assertTrue(CompactedState.decode(state.encodeHeader(chunks), chunks).getNodes().isEmpty());
+    }
+
+    @Test
+    public void testChunks() throws IOException
+    {
+        // Random data does not compress, so this needs several chunks.
+        final CompactedState state = new CompactedState(3L, 1, createNodes(300, 5000));
+        final List<byte []> chunks = state.encodeChunks();
+        Assert.assertTrue(chunks.size() > 1);
+        for (final byte [] chunk : chunks) {
+            Assert.assertTrue(chunk.length <= CompactedState.CHUNK_SIZE);
+        }
+        assertNodesEqual(state.getNodes(), CompactedState.decode(state.encodeHeader(chunks), chunks).getNodes());
+    }
+
+    @Test(expected=IOException.class)
+    public void testChunkMismatch() throws IOException
+    {
+        final CompactedState state = new CompactedState(3L, 1, createNodes(300, 5000));
+        final List<byte []> chunks = state.encodeChunks();
+        final byte [] header = state.encodeHeader(chunks);
+        CompactedState.decode(header, chunks.subList(0, chunks.size() - 1));
+    }
+
+    @Test(expected=IOException.class)
+    public void testBadHeader() throws IOException
+    {
+        CompactedState.decode(new byte [] { 1, 2, 3 }, ImmutableList.<byte []>of());
+    }
+
+    @Test
+    public void testChunkNames()
+    {
+        Assert.assertEquals("12-3", CompactedState.getChunkName(12L, 3));
+        Assert.assertEquals(12L, CompactedState.getChunkGeneration("12-3"));
+        Assert.assertEquals(-1L, CompactedState.getChunkGeneration("garbage"));
+        Assert.assertEquals(-1L, CompactedState.getChunkGeneration("-3"));
+        Assert.assertEquals("/ness/srvc-compacted", CompactedState.getStatePath("/ness/srvc"));
+    }
+}
@@ -20,6 +20,9 @@ package com.nesscomputing.service.discovery.client.internal;
 
 
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.SortedMap;
 import java.util.UUID;
 
 
@@ -61,4 +64,98 @@ public class TestConsistentHashRing {
 	
 		Assert.assertTrue(differences < 150);
 	}
+
+	//The ring used to be a TreeMap of virtual node hashes. Make sure that keys still map
+	//to exactly the same servers, so that existing consistent hashing users are not reshuffled.
+	@Test
+	public void testSameRoutingAsTreeMapRing() {
+		Random random = new Random(1234L);
+		for (int serverCount = 1; serverCount <= 50; serverCount += 7) {
+			List<ServiceInformation> servers = Lists.newArrayList();
+			for (int i = 0; i < serverCount; i++) {
+				servers.add(new ServiceInformation("blah", "fake", new UUID(random.nextLong(), random.nextLong()),
+						Maps.<String, String>newHashMap()));
+			}
+
+			ConsistentHashRing ring = new ConsistentHashRing(servers);
+			SortedMap<Long, ServiceInformation> treeRing = buildTreeMapRing(servers);
+			for (int i = 0; i < 1000; i++) {
+				String key = String.valueOf(random.nextInt());
+				long hash = HashAlgorithm.FNV1_32_HASH.hash(key);
+				SortedMap<Long, ServiceInformation> tailMap = treeRing.tailMap(hash);
+				Assert.assertEquals(treeRing.get(tailMap.isEmpty() ? treeRing.firstKey() : tailMap.firstKey()), ring.get(key));
+			}
+		}
+	}
+
+	@Test(expected=NoSuchElementException.class)
+	public void testEmptyRing() {
+		new ConsistentHashRing(Lists.<ServiceInformation>newArrayList()).get("foo");
+	}
+
+	@Test
+	public void testWithChangesMatchesRebuild() {
+		Random rand = new Random(1234);
+		List<ServiceInformation> servers = Lists.newArrayList();
+		for (int i = 0; i < 1000; i++) {
+			servers.add(new ServiceInformation("blah", "fake", new UUID(rand.nextLong(), rand.nextLong()),
+					Maps.<String, String>newHashMap()));
+		}
+
+		ConsistentHashRing ring = new ConsistentHashRing(servers);
+		for (int round = 0; round < 20; round++) {
+			List<ServiceInformation> removed = Lists.newArrayList();
+			for (int i = 0; i < 10 && !servers.isEmpty(); i++) {
+				removed.add(servers.remove(rand.nextInt(servers.size())));
+			}
+			List<ServiceInformation> added = Lists.newArrayList();
+			for (int i = 0; i < 10; i++) {
+				added.add(new ServiceInformation("blah", "fake", new UUID(rand.nextLong(), rand.nextLong()),
+						Maps.<String, String>newHashMap()));
+			}
+			servers.addAll(added);
+
+			ring = ring.withChanges(added, removed);
+			ConsistentHashRing rebuilt = new ConsistentHashRing(servers);
+			Assert.assertTrue("Round " + round, ring.hasSameLayout(rebuilt));
+			for (int i = 0; i < 1000; i++) {
+				String key = String.valueOf(rand.nextInt());
+				Assert.assertEquals(rebuilt.get(key), ring.get(key));
+			}
+		}
+	}
+
+	@Test
+	public void testWithChangesEdgeCases() {
+		ServiceInformation a = new ServiceInformation("blah", "fake", new UUID(0L, 1L), Maps.<String, String>newHashMap());
+		ServiceInformation b = new ServiceInformation("blah", "fake", new UUID(0L, 2L), Maps.<String, String>newHashMap());
+		List<ServiceInformation> none = Lists.newArrayList();
+
+		ConsistentHashRing ring = new ConsistentHashRing(Lists.newArrayList(a));
+		Assert.assertSame(ring, ring.withChanges(none, none));
+
+		//Removing unknown servers is a no-op
+		Assert.assertTrue(ring.withChanges(none, Lists.newArrayList(b)).hasSameLayout(ring));
+
+		//Growing from and shrinking to an empty ring
+		ConsistentHashRing empty = ring.withChanges(none, Lists.newArrayList(a));
+		Assert.assertTrue(empty.isEmpty());
+		Assert.assertTrue(empty.withChanges(Lists.newArrayList(a, b), none).hasSameLayout(new ConsistentHashRing(Lists.newArrayList(b, a))));
+
+		//Servers with duplicate ids fall back to a full rebuild
+		ServiceInformation a2 = new ServiceInformation("blah", "fake", new UUID(0L, 1L), Maps.<String, String>newHashMap());
+		Assert.assertEquals(2, ring.withChanges(Lists.newArrayList(a2), none).size());
+	}
+
+	private static SortedMap<Long, ServiceInformation> buildTreeMapRing(List<ServiceInformation> servers) {
+		List<ServiceInformation> sorted = Lists.newArrayList(new ConsistentHashRing(servers));
+		SortedMap<Long, ServiceInformation> ring = Maps.newTreeMap();
+		for (ServiceInformation info: sorted) {
+			Random rand = new Random(0);
+			for (int i = 0; i < 100; i++) {
+				ring.put(HashAlgorithm.FNV1_32_HASH.hash(info.getServiceId().toString() + rand.nextInt()), info);
+			}
+		}
+		return ring;
+	}
 }
@@ -65,4 +65,43 @@ public class TestConsistentRingGroup {
 		ServiceInformation service = (ServiceInformation) CollectionUtils.get(ring, 0);
 		Assert.assertEquals(null, service.getServiceType());
 	}
+
+	@Test
+	public void testAnyTypeWithoutUntypedRing() {
+		List<ServiceInformation> services = Lists.newArrayList();
+		for (int i = 0; i < 10; i++) {
+			services.add(new ServiceInformation("fake", "type1", UUID.randomUUID(), Maps.<String, String>newHashMap()));
+			services.add(new ServiceInformation("fake", "type2", UUID.randomUUID(), Maps.<String, String>newHashMap()));
+		}
+		ConsistentRingGroup typedGroup = new ConsistentRingGroup(services);
+
+		for (int i = 0; i < 1000; i++) {
+			ConsistentHashRing ring = typedGroup.getRing(null);
+			Assert.assertNotNull(ring);
+			Assert.assertEquals(10, ring.size());
+		}
+	}
+
+	@Test
+	public void testWithChanges() {
+		List<ServiceInformation> services = Lists.newArrayList(group.getAll());
+		ServiceInformation added = new ServiceInformation("fake", "type1", UUID.randomUUID(), Maps.<String, String>newHashMap());
+		ServiceInformation removed = group.getRing("type2").iterator().next();
+		services.add(added);
+		services.remove(removed);
+
+		List<ServiceInformation> addedList = Lists.newArrayList(added);
+		List<ServiceInformation> removedList = Lists.newArrayList(removed);
+		ConsistentRingGroup newGroup = group.withChanges(addedList, removedList);
+
+		//The untouched ring is shared, the changed ones are updated, empty rings go away
+		Assert.assertSame(group.getRing(null), newGroup.getRing(null));
+		Assert.assertEquals(2, newGroup.getRing("type1").size());
+		Assert.assertSame(newGroup.getRing(null), newGroup.getRing("type2"));
+		Assert.assertEquals(2, newGroup.size());
+		Assert.assertTrue(newGroup.getRing("type1").hasSameLayout(new ConsistentRingGroup(services).getRing("type1")));
+		Assert.assertTrue(CollectionUtils.isEqualCollection(services, newGroup.getAll()));
+
+		Assert.assertSame(group, group.withChanges(Lists.<ServiceInformation>newArrayList(), Lists.<ServiceInformation>newArrayList()));
+	}
 }
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.hash.Hashing;
+
+public class TestHashAlgorithm
+{
+    private static final String [] KEYS = {
+        "", "a", "foo", "hello world", "key-12345", "3f2a6c1e-8d4b-4c2a-9b1e-2f6d7c8a9b0c-1155099827",
+        "ünïcödé", "日本語", "😀 smile",
+        "The quick brown fox jumps over the lazy dog, and then some more text to pass 64 bytes."
+    };
+
+    /**
+     * Hashes of KEYS, in the order of HashAlgorithm.values(). The first seven rows were produced by the
+     * implementation that was copied from spymemcached and must never change, rings depend on them.
+     */
+    private static final long [][] GOLDEN = {
+        // NATIVE_HASH
+        { 0L, 97L, 101574L, 1794106052L, 1154953029L, 3878672605L, 3685745397L, 25921943L, 2735275531L, 329568122L },
+        // CRC32_HASH
+        { 0L, 26807L, 3187L, 3402L, 28449L, 27879L, 3746L, 10251L, 20893L, 11115L },
+        // FNV1_64_HASH
+        { 2216829733L, 2248259518L, 1805727027L, 2979073647L, 145728228L, 4279115976L, 2046225596L, 3093957336L, 3643158614L, 711870979L },
+        // FNV1A_64_HASH
+        { 2216829733L, 2248273036L, 4275688823L, 37540583L, 311742490L, 3390570058L, 2749941334L, 2388383278L, 3843591020L, 3872534943L },
+        // FNV1_32_HASH
+        { 2166136261L, 84696446L, 1083137555L, 1418570095L, 1561646884L, 3152613800L, 405870492L, 2270718872L, 2147880246L, 1219431939L },
+        // FNV1A_32_HASH
+        { 2166136261L, 3826002220L, 2851307223L, 3582672807L, 744121466L, 525838986L, 2632344214L, 1409693518L, 3004496364L, 523655775L },
+        // KETAMA_HASH
+        { 3649838548L, 3111502092L, 3675831724L, 3141252702L, 2878596292L, 4119526106L, 1675436737L, 4161409280L, 3067721880L, 1763457521L },
+        // MURMUR3_32_HASH
+        { 0L, 1009084850L, 4138058784L, 1586663183L, 939117788L, 2495069205L, 2069557956L, 2779017879L, 3428722043L, 4108922519L },
+        // XXHASH_64_HASH
+        { 1373170073L, 2844552795L, 1506064959L, 2988337512L, 3311955833L, 2149392630L, 3882077676L, 924448225L, 3053117043L, 3001168887L }
+    };
+
+    @Test
+    public void testGoldenValues()
+    {
+        final HashAlgorithm [] algorithms = HashAlgorithm.values();
+        Assert.assertEquals(GOLDEN.length, algorithms.length);
+        for (int a = 0; a < algorithms.length; a++) {
+            for (int k = 0; k < KEYS.length; k++) {
+                Assert.assertEquals(algorithms[a] + " / " + KEYS[k], GOLDEN[a][k], algorithms[a].hash(KEYS[k]));
+            }
+        }
+    }
+
+    @Test
+    public void testOverloads()
+    {
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            for (String key : KEYS) {
+                final long hash = algorithm.hash(key);
+                Assert.assertEquals(algorithm + " / " + key, hash, algorithm.hash(new StringBuilder(key)));
+                Assert.assertEquals(algorithm + " / " + key, hash, algorithm.hash(key.getBytes(StandardCharsets.UTF_8)));
+
+                // A slice in the middle of a larger array
+                final byte [] bytes = ("xx" + key + "yyy").getBytes(StandardCharsets.UTF_8);
+                Assert.assertEquals(algorithm + " / " + key, hash, algorithm.hash(bytes, 2, bytes.length - 5));
+            }
+        }
+    }
+
+    @Test
+    public void testUnpairedSurrogates()
+    {
+        // String#getBytes turns unpaired surrogates into '?', the char sequence path must do the same.
+        final String key = "a\ud83db\ude00";
+        for (HashAlgorithm algorithm : new HashAlgorithm [] { HashAlgorithm.CRC32_HASH, HashAlgorithm.KETAMA_HASH, HashAlgorithm.MURMUR3_32_HASH, HashAlgorithm.XXHASH_64_HASH }) {
+            Assert.assertEquals(algorithm.toString(), algorithm.hash(key.getBytes(StandardCharsets.UTF_8)), algorithm.hash(new StringBuilder(key)));
+        }
+    }
+
+    @Test
+    public void testMurmur3()
+    {
+        final Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            final byte [] data = new byte[random.nextInt(100)];
+            random.nextBytes(data);
+            Assert.assertEquals(Hashing.murmur3_32().hashBytes(data).asInt() & 0xffffffffL, HashAlgorithm.MURMUR3_32_HASH.hash(data));
+        }
+    }
+
+    @Test
+    public void testXxHash()
+    {
+        // Reference values from the xxHash test suite: XXH64 with seed 0.
+        Assert.assertEquals(0xEF46DB3751D8E999L & 0xffffffffL, HashAlgorithm.XXHASH_64_HASH.hash(""));
+        Assert.assertEquals(0x44BC2CF5AD770999L & 0xffffffffL, HashAlgorithm.XXHASH_64_HASH.hash("abc"));
+    }
+
+    @Test
+    public void testKetamaMd5()
+    {
+        // Interleaving computeMd5 with hashing must not disturb the per thread digest.
+        final byte [] md5 = HashAlgorithm.computeMd5("foo");
+        Assert.assertEquals(GOLDEN[6][2], HashAlgorithm.KETAMA_HASH.hash("foo"));
+        Assert.assertArrayEquals(md5, HashAlgorithm.computeMd5("foo"));
+        Assert.assertEquals(((md5[3] & 0xFFL) << 24) | ((md5[2] & 0xFFL) << 16) | ((md5[1] & 0xFFL) << 8) | (md5[0] & 0xFFL), GOLDEN[6][2]);
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.config.TimeSpan;
+
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.client.StateOfTheWorldDelta;
+
+public class TestHttpDiscoveryClientImpl
+{
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ServiceInformation a = ServiceInformation.staticAnnouncement(UUID.randomUUID(), "user", "http", "http", "10.0.0.1", 80);
+    private final ServiceInformation b = ServiceInformation.staticAnnouncement(UUID.randomUUID(), "user", "http", "http", "10.0.0.2", 80);
+    private final ServiceInformation c = ServiceInformation.staticAnnouncement(UUID.randomUUID(), "billing", "http", "http", "10.0.0.3", 80);
+
+    private final BlockingQueue<StateOfTheWorldDelta> responses = new LinkedBlockingQueue<StateOfTheWorldDelta>();
+    private final List<String> queries = new CopyOnWriteArrayList<String>();
+
+    private HttpServer server;
+    private HttpDiscoveryClientImpl client;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = startServer(responses, queries);
+
+        // The first server refuses connections, so the client has to fail over.
+        final ServerSocket closed = new ServerSocket(0);
+        final int closedPort = closed.getLocalPort();
+        closed.close();
+
+        client = createClient("http://127.0.0.1:" + closedPort + ", http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    private HttpServer startServer(final BlockingQueue<StateOfTheWorldDelta> responses, final List<String> queries) throws IOException
+    {
+        final HttpServer httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpServer.createContext("/state", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException
+            {
+                queries.add(exchange.getRequestURI().getQuery());
+                try {
+                    final StateOfTheWorldDelta delta = responses.poll(50, TimeUnit.MILLISECONDS);
+                    if (delta == null) {
+                        exchange.sendResponseHeaders(304, -1);
+                    }
+                    else {
+                        final byte [] body = objectMapper.writeValueAsBytes(delta);
+                        exchange.sendResponseHeaders(200, body.length);
+                        final OutputStream out = exchange.getResponseBody();
+                        out.write(body);
+                        out.close();
+                    }
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.close();
+            }
+        });
+        httpServer.start();
+        return httpServer;
+    }
+
+    private HttpDiscoveryClientImpl createClient(final String servers)
+    {
+        return new HttpDiscoveryClientImpl(new DiscoveryClientConfig() {
+            @Override
+            public boolean isEnabled()
+            {
+                return true;
+            }
+
+            @Override
+            public String getHttpServers()
+            {
+                return servers;
+            }
+
+            @Override
+            public TimeSpan getHttpWait()
+            {
+                return new TimeSpan("50ms");
+            }
+
+            @Override
+            public TimeSpan getWorldChangeTimeout()
+            {
+                return new TimeSpan("5s");
+            }
+        }, objectMapper);
+    }
+
+    @After
+    public void tearDown()
+    {
+        client.stop();
+        server.stop(0);
+    }
+
+    @Test
+    public void testFullAndDelta() throws Exception
+    {
+        responses.add(new StateOfTheWorldDelta(7, 10, true, ImmutableList.of(a, b), null));
+        client.start();
+
+        Assert.assertEquals(2, client.findAllServiceInformation("user").size());
+        Assert.assertTrue(client.findAllServiceInformation("billing").isEmpty());
+
+        final long generation = client.getStateGeneration();
+        responses.add(new StateOfTheWorldDelta(7, 11, false, ImmutableList.of(c), ImmutableList.of(a)));
+        client.waitForStateChange(generation, 5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(ImmutableList.of(b), client.findAllServiceInformation("user"));
+        Assert.assertEquals(ImmutableList.of(c), client.findAllServiceInformation("billing"));
+        Assert.assertEquals("since=-1&wait=50ms", queries.get(0));
+        Assert.assertTrue(queries.contains("since=7-10&wait=50ms"));
+    }
+
+    @Test
+    public void testFullStateReplaces() throws Exception
+    {
+        responses.add(new StateOfTheWorldDelta(7, 10, true, ImmutableList.of(a, b), null));
+        client.start();
+        Assert.assertEquals(2, client.findAllServiceInformation("user").size());
+
+        final long generation = client.getStateGeneration();
+        responses.add(new StateOfTheWorldDelta(7, 3, true, ImmutableList.of(c), null));
+        client.waitForStateChange(generation, 5, TimeUnit.SECONDS);
+
+        Assert.assertTrue(client.findAllServiceInformation("user").isEmpty());
+        Assert.assertEquals(ImmutableList.of(c), client.findAllServiceInformation("billing"));
+    }
+
+    @Test
+    public void testFailoverAsksForFullState() throws Exception
+    {
+        // The second server started at about the same time, so its generations overlap with the ones of the first.
+        final BlockingQueue<StateOfTheWorldDelta> otherResponses = new LinkedBlockingQueue<StateOfTheWorldDelta>();
+        final List<String> otherQueries = new CopyOnWriteArrayList<String>();
+        final HttpServer other = startServer(otherResponses, otherQueries);
+        final HttpDiscoveryClientImpl failoverClient = createClient("http://127.0.0.1:" + server.getAddress().getPort()
+            + ",http://127.0.0.1:" + other.getAddress().getPort());
+        try {
+            responses.add(new StateOfTheWorldDelta(7, 10, true, ImmutableList.of(a, b), null));
+            failoverClient.start();
+            Assert.assertEquals(2, failoverClient.findAllServiceInformation("user").size());
+
+            final long generation = failoverClient.getStateGeneration();
+            otherResponses.add(new StateOfTheWorldDelta(8, 10, true, ImmutableList.of(c), null));
+            server.stop(0);
+            failoverClient.waitForStateChange(generation, 5, TimeUnit.SECONDS);
+
+            Assert.assertTrue(failoverClient.findAllServiceInformation("user").isEmpty());
+            Assert.assertEquals(ImmutableList.of(c), failoverClient.findAllServiceInformation("billing"));
+            Assert.assertEquals("since=-1&wait=50ms", otherQueries.get(0));
+        }
+        finally {
+            failoverClient.stop();
+            other.stop(0);
+        }
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testNoServers()
+    {
+        new HttpDiscoveryClientImpl(new DiscoveryClientConfig() {
+            @Override
+            public boolean isEnabled()
+            {
+                return true;
+            }
+        }, objectMapper);
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.skife.config.ConfigurationObjectFactory;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+public class TestLoadBalancingStrategy
+{
+    private static ConsistentHashRing createRing(final int count)
+    {
+        final List<ServiceInformation> services = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            services.add(ServiceInformation.staticAnnouncement(UUID.randomUUID(), "fake", null, "http", "10.0.0." + i, 80));
+        }
+        return new ConsistentHashRing(services);
+    }
+
+    private static Map<ServiceInformation, Integer> select(final LoadBalancingStrategy strategy, final ConsistentHashRing ring, final int count)
+    {
+        final Map<ServiceInformation, Integer> hits = Maps.newHashMap();
+        for (ServiceInformation si : ring) {
+            hits.put(si, 0);
+        }
+        for (int i = 0; i < count; i++) {
+            final ServiceInformation si = strategy.select(ring);
+            Assert.assertTrue(hits.containsKey(si));
+            hits.put(si, hits.get(si) + 1);
+        }
+        return hits;
+    }
+
+    @Test
+    public void testRandom()
+    {
+        final ConsistentHashRing ring = createRing(10);
+        final Map<ServiceInformation, Integer> hits = select(LoadBalancingStrategies.forName("random"), ring, 10000);
+        for (Integer count : hits.values()) {
+            Assert.assertTrue(count > 0);
+        }
+    }
+
+    @Test
+    public void testRoundRobin()
+    {
+        final ConsistentHashRing ring = createRing(7);
+        final Map<ServiceInformation, Integer> hits = select(LoadBalancingStrategies.forName("round-robin"), ring, 700);
+        for (Integer count : hits.values()) {
+            Assert.assertEquals(100, count.intValue());
+        }
+    }
+
+    @Test
+    public void testPowerOfTwoChoices()
+    {
+        final ConsistentHashRing ring = createRing(10);
+        final PowerOfTwoChoicesLoadBalancingStrategy strategy = new PowerOfTwoChoicesLoadBalancingStrategy(new FakeTicker());
+
+        // Requests that take a while, up to 20 are outstanding at once.
+        final Queue<ServiceInformation> pending = Lists.newLinkedList();
+        final Map<ServiceInformation, Integer> hits = Maps.newHashMap();
+        for (ServiceInformation si : ring) {
+            hits.put(si, 0);
+        }
+        for (int i = 0; i < 10000; i++) {
+            final ServiceInformation si = strategy.select(ring);
+            strategy.requestStarted(si);
+            pending.add(si);
+            hits.put(si, hits.get(si) + 1);
+            if (pending.size() > 20) {
+                strategy.requestFinished(pending.remove(), 0, true);
+            }
+        }
+        for (Integer count : hits.values()) {
+            Assert.assertTrue("Uneven load: " + hits.values(), count > 900 && count < 1100);
+        }
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesOutstanding()
+    {
+        final ConsistentHashRing ring = createRing(2);
+        final PowerOfTwoChoicesLoadBalancingStrategy strategy = new PowerOfTwoChoicesLoadBalancingStrategy(new FakeTicker());
+        strategy.select(ring);
+
+        strategy.requestStarted(ring.getServer(0));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertSame(ring.getServer(1), strategy.select(ring));
+        }
+        Assert.assertEquals(1, strategy.getOutstanding(ring.getServer(0)));
+
+        strategy.requestFinished(ring.getServer(0), 10, false);
+        Assert.assertEquals(0, strategy.getOutstanding(ring.getServer(0)));
+
+        strategy.requestStarted(ring.getServer(1));
+        strategy.requestAbandoned(ring.getServer(1));
+        Assert.assertEquals(0, strategy.getOutstanding(ring.getServer(1)));
+    }
+
+    @Test
+    public void testPeakEwmaPrefersFaster()
+    {
+        final ConsistentHashRing ring = createRing(2);
+        final PeakEwmaLoadBalancingStrategy strategy = new PeakEwmaLoadBalancingStrategy(new FakeTicker());
+        strategy.select(ring);
+
+        finish(strategy, ring.getServer(0), 100);
+        finish(strategy, ring.getServer(1), 10);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertSame(ring.getServer(1), strategy.select(ring));
+        }
+    }
+
+    @Test
+    public void testPeakEwmaOutstanding()
+    {
+        final ConsistentHashRing ring = createRing(2);
+        final PeakEwmaLoadBalancingStrategy strategy = new PeakEwmaLoadBalancingStrategy(new FakeTicker());
+        strategy.select(ring);
+
+        finish(strategy, ring.getServer(0), 10);
+        finish(strategy, ring.getServer(1), 10);
+        strategy.requestStarted(ring.getServer(0));
+        Assert.assertSame(ring.getServer(1), strategy.select(ring));
+
+        // An unanswered server without a response time is not preferred.
+        final ConsistentHashRing fresh = createRing(2);
+        strategy.select(fresh);
+        strategy.requestStarted(fresh.getServer(1));
+        Assert.assertSame(fresh.getServer(0), strategy.select(fresh));
+    }
+
+    @Test
+    public void testPeakEwmaDecay()
+    {
+        final FakeTicker ticker = new FakeTicker();
+        final ConsistentHashRing ring = createRing(2);
+        final PeakEwmaLoadBalancingStrategy strategy = new PeakEwmaLoadBalancingStrategy(ticker);
+        strategy.select(ring);
+
+        final ServiceInformation server = ring.getServer(0);
+        finish(strategy, server, 10);
+        finish(strategy, server, 100);
+        Assert.assertEquals("slower response is taken at once", TimeUnit.MILLISECONDS.toNanos(100), strategy.getCost(server), 1.0);
+
+        // A faster response right away barely moves the average, over time it takes over.
+        finish(strategy, server, 10);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), strategy.getCost(server), 1.0);
+        ticker.now += PeakEwmaLoadBalancingStrategy.DECAY_TIME * 5;
+        finish(strategy, server, 10);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), strategy.getCost(server), TimeUnit.MILLISECONDS.toNanos(1));
+
+        strategy.requestStarted(server);
+        strategy.requestFinished(server, 1, false);
+        Assert.assertEquals(PeakEwmaLoadBalancingStrategy.FAILURE_LATENCY, strategy.getCost(server), 1.0);
+    }
+
+    @Test
+    public void testPeakEwmaOutstandingExpires()
+    {
+        final FakeTicker ticker = new FakeTicker();
+        final ConsistentHashRing ring = createRing(2);
+        final PeakEwmaLoadBalancingStrategy strategy = new PeakEwmaLoadBalancingStrategy(ticker);
+        strategy.select(ring);
+
+        final ServiceInformation server = ring.getServer(0);
+        finish(strategy, server, 10);
+        strategy.requestStarted(server);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10) * 2, strategy.getCost(server), 1.0);
+
+        // The end of the request is never reported.
+        ticker.now += OutstandingRequests.WINDOW * 2;
+        final double decayed = strategy.getCost(server);
+        Assert.assertTrue(decayed < TimeUnit.MILLISECONDS.toNanos(10));
+
+        // Reported after it expired, neither the count nor the average change.
+        strategy.requestFinished(server, OutstandingRequests.WINDOW * 2, false);
+        Assert.assertEquals(decayed, strategy.getCost(server), 0.0);
+    }
+
+    @Test
+    public void testPeakEwmaAbandoned()
+    {
+        final ConsistentHashRing ring = createRing(2);
+        final PeakEwmaLoadBalancingStrategy strategy = new PeakEwmaLoadBalancingStrategy(new FakeTicker());
+        strategy.select(ring);
+
+        final ServiceInformation server = ring.getServer(0);
+        finish(strategy, server, 10);
+        strategy.requestStarted(server);
+        strategy.requestAbandoned(server);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), strategy.getCost(server), 1.0);
+    }
+
+    @Test
+    public void testPeakEwmaRingSwap()
+    {
+        final ConsistentHashRing ring = createRing(3);
+        final PeakEwmaLoadBalancingStrategy strategy = new PeakEwmaLoadBalancingStrategy(new FakeTicker());
+        strategy.select(ring);
+        for (ServiceInformation si : ring) {
+            finish(strategy, si, 10);
+        }
+
+        // Same servers as equal but new instances, one server left and one joined.
+        final List<ServiceInformation> services = Lists.newArrayList();
+        for (int i = 0; i < 2; i++) {
+            final ServiceInformation si = ring.getServer(i);
+            services.add(ServiceInformation.staticAnnouncement(si.getServiceId(), si.getServiceName(), si.getServiceType(), "http",
+                si.getProperty(ServiceInformation.PROP_SERVICE_ADDRESS), 80));
+        }
+        services.add(ServiceInformation.staticAnnouncement(UUID.randomUUID(), "fake", null, "http", "10.0.0.9", 80));
+        final ConsistentHashRing newRing = new ConsistentHashRing(services);
+        strategy.select(newRing);
+
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), strategy.getCost(services.get(0)), 1.0);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), strategy.getCost(services.get(1)), 1.0);
+        Assert.assertEquals(0.0, strategy.getCost(services.get(2)), 0.0);
+        Assert.assertEquals(0.0, strategy.getCost(ring.getServer(2)), 0.0);
+    }
+
+    @Test
+    public void testSingleServer()
+    {
+        final ConsistentHashRing ring = createRing(1);
+        for (String name : new String [] { "random", "round-robin", "power-of-two-choices", "peak-ewma" }) {
+            Assert.assertSame(ring.getServer(0), LoadBalancingStrategies.forName(name).select(ring));
+        }
+    }
+
+    @Test
+    public void testClassName()
+    {
+        final LoadBalancingStrategy strategy = LoadBalancingStrategies.forName(FirstServerStrategy.class.getName());
+        Assert.assertTrue(strategy instanceof FirstServerStrategy);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName()
+    {
+        LoadBalancingStrategies.forName("fastest");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoStrategyClass()
+    {
+        LoadBalancingStrategies.forName(String.class.getName());
+    }
+
+    @Test
+    public void testConfig()
+    {
+        final Properties props = new Properties();
+        props.setProperty("ness.discovery.load-balancing", "round-robin");
+        props.setProperty("ness.discovery.user.load-balancing", "power-of-two-choices");
+        final DiscoveryClientConfig config = new ConfigurationObjectFactory(props).build(DiscoveryClientConfig.class);
+
+        Assert.assertEquals("power-of-two-choices", config.getLoadBalancing("user"));
+        Assert.assertEquals("round-robin", config.getLoadBalancing("friend"));
+
+        final DiscoveryClientConfig defaultConfig = new ConfigurationObjectFactory(new Properties()).build(DiscoveryClientConfig.class);
+        Assert.assertEquals("random", defaultConfig.getLoadBalancing("user"));
+    }
+
+    private static void finish(final PeakEwmaLoadBalancingStrategy strategy, final ServiceInformation si, final long millis)
+    {
+        strategy.requestStarted(si);
+        strategy.requestFinished(si, TimeUnit.MILLISECONDS.toNanos(millis), true);
+    }
+
+    private static class FakeTicker extends Ticker
+    {
+        private long now = 0;
+
+        @Override
+        public long read()
+        {
+            return now;
+        }
+    }
+
+    public static class FirstServerStrategy implements LoadBalancingStrategy
+    {
+        @Override
+        public ServiceInformation select(final ConsistentHashRing ring)
+        {
+            return ring.getServer(0);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+public class TestNodeLayout
+{
+    private static final UUID SERVICE_ID = UUID.fromString("3f2a6c1e-8d4b-4c2a-9b1e-2f6d7c8a9b0c");
+
+    @Test
+    public void testFlat()
+    {
+        final ServiceInformation si = ServiceInformation.staticAnnouncement(SERVICE_ID, "user", "http", "http", "10.0.0.1", 80);
+        Assert.assertEquals(si.getAnnouncementName(), NodeLayout.FLAT.getNodeName(si));
+    }
+
+    @Test
+    public void testHierarchical()
+    {
+        final ServiceInformation si = ServiceInformation.staticAnnouncement(SERVICE_ID, "user", "http", "http", "10.0.0.1", 80);
+        Assert.assertEquals("user/http", NodeLayout.getTypeNodeName(si));
+        Assert.assertEquals("user/http/" + SERVICE_ID, NodeLayout.HIERARCHICAL.getNodeName(si));
+    }
+
+    @Test
+    public void testHierarchicalUntyped()
+    {
+        final ServiceInformation si = ServiceInformation.staticAnnouncement(SERVICE_ID, "user", null, "http", "10.0.0.1", 80);
+        Assert.assertEquals("user/" + NodeLayout.UNTYPED_NODE + "/" + SERVICE_ID, NodeLayout.HIERARCHICAL.getNodeName(si));
+    }
+
+    @Test
+    public void testForName()
+    {
+        Assert.assertSame(NodeLayout.FLAT, NodeLayout.forName("flat"));
+        Assert.assertSame(NodeLayout.HIERARCHICAL, NodeLayout.forName("Hierarchical"));
+        Assert.assertSame(NodeLayout.FLAT, NodeLayout.forName(" FLAT "));
+    }
+
+    @Test
+    public void testForConfig()
+    {
+        Assert.assertSame(NodeLayout.FLAT, NodeLayout.forConfig(new DiscoveryClientConfig() {}));
+        Assert.assertSame(NodeLayout.HIERARCHICAL, NodeLayout.forConfig(layoutConfig(" hierarchical")));
+        Assert.assertSame(NodeLayout.FLAT, NodeLayout.forConfig(layoutConfig("tree")));
+    }
+
+    private static DiscoveryClientConfig layoutConfig(final String layout)
+    {
+        return new DiscoveryClientConfig() {
+            @Override
+            public String getLayout()
+            {
+                return layout;
+            }
+        };
+    }
+}
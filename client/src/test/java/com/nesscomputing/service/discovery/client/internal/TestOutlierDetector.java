@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+public class TestOutlierDetector
+{
+    private final FakeTicker ticker = new FakeTicker();
+
+    private final List<ServiceInformation> servers = Lists.newArrayList();
+    {
+        for (int i = 0; i < 10; i++) {
+            servers.add(ServiceInformation.forService("user", "http", "http", "10.0.0." + i, 80));
+        }
+    }
+
+    private final OutlierDetector detector = new OutlierDetector(new DiscoveryClientConfig() {}, ticker);
+
+    private void fail(final ServiceInformation server, final int count)
+    {
+        for (int i = 0; i < count; i++) {
+            detector.report(server, false, servers.size());
+        }
+    }
+
+    @Test
+    public void testEjection()
+    {
+        final ServiceInformation server = servers.get(0);
+
+        // Below the error rate.
+        for (int i = 0; i < 10; i++) {
+            detector.report(server, i < 6, servers.size());
+        }
+        Assert.assertFalse(detector.isEjected(server));
+
+        fail(server, 10);
+        Assert.assertTrue(detector.isEjected(server));
+        Assert.assertFalse(detector.isEjected(servers.get(1)));
+
+        ticker.advance(29, TimeUnit.SECONDS);
+        Assert.assertTrue(detector.isEjected(server));
+        ticker.advance(1, TimeUnit.SECONDS);
+        Assert.assertFalse(detector.isEjected(server));
+
+        // Ejected again right away, for twice as long.
+        fail(server, 10);
+        ticker.advance(59, TimeUnit.SECONDS);
+        Assert.assertTrue(detector.isEjected(server));
+        ticker.advance(1, TimeUnit.SECONDS);
+        Assert.assertFalse(detector.isEjected(server));
+    }
+
+    @Test
+    public void testOldFailuresExpire()
+    {
+        final ServiceInformation server = servers.get(0);
+        fail(server, 9);
+        ticker.advance(10, TimeUnit.SECONDS);
+        fail(server, 1);
+        Assert.assertFalse(detector.isEjected(server));
+    }
+
+    @Test
+    public void testMaxEjectedShare()
+    {
+        for (final ServiceInformation server : servers) {
+            fail(server, 10);
+        }
+
+        int ejected = 0;
+        for (final ServiceInformation server : servers) {
+            if (detector.isEjected(server)) {
+                ejected++;
+            }
+        }
+        Assert.assertEquals(2, ejected);
+    }
+
+    @Test
+    public void testNeverEjectsLastServer()
+    {
+        final ServiceInformation server = servers.get(0);
+        for (int i = 0; i < 10; i++) {
+            detector.report(server, false, 1);
+        }
+        Assert.assertFalse(detector.isEjected(server));
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        final OutlierDetector disabled = new OutlierDetector(new DiscoveryClientConfig() {
+            @Override
+            public boolean isOutlierEjectionEnabled()
+            {
+                return false;
+            }
+        }, ticker);
+
+        for (int i = 0; i < 20; i++) {
+            disabled.report(servers.get(0), false, servers.size());
+        }
+        Assert.assertFalse(disabled.isEjected(servers.get(0)));
+    }
+
+    @Test
+    public void testLookupSkipsEjected() throws Exception
+    {
+        final List<ServiceInformation> two = ImmutableList.of(servers.get(0), servers.get(1));
+        final AbstractDiscoveryClient client = new AbstractDiscoveryClient(false, new DiscoveryClientConfig() {
+            @Override
+            public double getOutlierMaxEjectedShare()
+            {
+                return 0.5;
+            }
+        }) {};
+        client.getStateOfTheWorldHolder().setState(ImmutableMap.of("user", new ConsistentRingGroup(two)));
+
+        for (int i = 0; i < 10; i++) {
+            client.reportFailure(servers.get(0), 1, TimeUnit.MILLISECONDS);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(servers.get(1), client.findServiceInformation("user", "http"));
+        }
+    }
+
+    @Test
+    public void testAbandonedIsNoFailure() throws Exception
+    {
+        final List<ServiceInformation> two = ImmutableList.of(servers.get(0), servers.get(1));
+        final AbstractDiscoveryClient client = new AbstractDiscoveryClient(false, new DiscoveryClientConfig() {
+            @Override
+            public double getOutlierMaxEjectedShare()
+            {
+                return 0.5;
+            }
+        }) {};
+        client.getStateOfTheWorldHolder().setState(ImmutableMap.of("user", new ConsistentRingGroup(two)));
+
+        for (int i = 0; i < 20; i++) {
+            client.reportRequest(servers.get(0));
+            client.reportAbandoned(servers.get(0));
+        }
+
+        boolean found = false;
+        for (int i = 0; i < 100 && !found; i++) {
+            found = servers.get(0).equals(client.findServiceInformation("user", "http"));
+        }
+        Assert.assertTrue(found);
+    }
+
+    private static class FakeTicker extends Ticker
+    {
+        private long now = 0;
+
+        @Override
+        public long read()
+        {
+            return now;
+        }
+
+        void advance(final long time, final TimeUnit unit)
+        {
+            now += unit.toNanos(time);
+        }
+    }
+}
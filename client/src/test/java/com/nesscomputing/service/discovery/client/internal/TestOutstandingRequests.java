@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import static com.nesscomputing.service.discovery.client.internal.OutstandingRequests.WINDOW;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestOutstandingRequests
+{
+    private final OutstandingRequests outstanding = new OutstandingRequests();
+
+    @Test
+    public void testFinish()
+    {
+        outstanding.start(0);
+        outstanding.start(1);
+        Assert.assertEquals(2, outstanding.get(2));
+
+        Assert.assertTrue(outstanding.finish(0, 5));
+        Assert.assertEquals(1, outstanding.get(5));
+
+        // Not below zero.
+        Assert.assertTrue(outstanding.finish(1, 5));
+        Assert.assertTrue(outstanding.finish(1, 5));
+        Assert.assertEquals(0, outstanding.get(5));
+    }
+
+    @Test
+    public void testExpiry()
+    {
+        outstanding.start(0);
+        Assert.assertEquals(1, outstanding.get(WINDOW * 2 - 1));
+        Assert.assertEquals(0, outstanding.get(WINDOW * 2));
+
+        // Stale, the count of the request expired.
+        outstanding.start(WINDOW * 2);
+        Assert.assertFalse(outstanding.finish(0, WINDOW * 2));
+        Assert.assertEquals(1, outstanding.get(WINDOW * 2));
+
+        Assert.assertTrue(outstanding.finish(WINDOW * 2, WINDOW * 3));
+        Assert.assertEquals(0, outstanding.get(WINDOW * 3));
+    }
+
+    @Test
+    public void testAbandonReleasesOldest()
+    {
+        outstanding.start(0);
+        outstanding.start(WINDOW);
+        outstanding.abandon(WINDOW);
+        Assert.assertEquals(1, outstanding.get(WINDOW));
+
+        // The request of the second window is still counted after the first one expired.
+        Assert.assertEquals(1, outstanding.get(WINDOW * 2));
+
+        outstanding.abandon(WINDOW);
+        outstanding.abandon(WINDOW);
+        Assert.assertEquals(0, outstanding.get(WINDOW));
+    }
+
+    @Test
+    public void testNegativeTimes()
+    {
+        outstanding.start(-1);
+        Assert.assertEquals(1, outstanding.get(WINDOW - 1));
+        Assert.assertEquals(0, outstanding.get(WINDOW));
+        Assert.assertTrue(outstanding.finish(-1, 0));
+        Assert.assertEquals(0, outstanding.get(0));
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.skife.config.ConfigurationObjectFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+public class TestRingStrategy
+{
+    private static final RingStrategy [] STRATEGIES = new RingStrategy [] {
+        RingStrategies.COMPATIBLE,
+        new KetamaRingStrategy(HashAlgorithm.KETAMA_HASH, 40),
+        new KetamaRingStrategy(HashAlgorithm.FNV1_32_HASH, 100, 1),
+        new RendezvousRingStrategy(HashAlgorithm.FNV1A_32_HASH),
+        new MaglevRingStrategy(HashAlgorithm.FNV1_32_HASH, 100),
+        new JumpRingStrategy(HashAlgorithm.FNV1_32_HASH)
+    };
+
+    private static List<ServiceInformation> createServers(final Random random, final int count)
+    {
+        final List<ServiceInformation> servers = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            servers.add(new ServiceInformation("blah", "fake", new UUID(random.nextLong(), random.nextLong()), Maps.<String, String>newHashMap()));
+        }
+        return servers;
+    }
+
+    @Test
+    public void testDistribution()
+    {
+        final List<ServiceInformation> servers = createServers(new Random(1), 10);
+        for (RingStrategy strategy : STRATEGIES) {
+            final ConsistentHashRing ring = new ConsistentHashRing(servers, strategy);
+            final Map<ServiceInformation, Integer> hits = Maps.newHashMap();
+            for (int i = 0; i < 10000; i++) {
+                final ServiceInformation si = ring.get("key-" + i);
+                hits.put(si, hits.containsKey(si) ? hits.get(si) + 1 : 1);
+            }
+            Assert.assertEquals(strategy.toString(), 10, hits.size());
+            for (Integer count : hits.values()) {
+                Assert.assertTrue(strategy + " is uneven: " + hits.values(), count > 500 && count < 1500);
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveServer()
+    {
+        final List<ServiceInformation> servers = createServers(new Random(2), 10);
+        for (RingStrategy strategy : STRATEGIES) {
+            final ConsistentHashRing ring = new ConsistentHashRing(servers, strategy);
+            // Jump hashing only keeps keys in place when the last server goes away.
+            final ServiceInformation removed = (strategy instanceof JumpRingStrategy) ? ring.getServer(ring.size() - 1) : servers.get(3);
+            final ConsistentHashRing smaller = ring.withChanges(Lists.<ServiceInformation>newArrayList(), Lists.newArrayList(removed));
+            Assert.assertEquals(9, smaller.size());
+
+            int moved = 0;
+            for (int i = 0; i < 10000; i++) {
+                final String key = "key-" + i;
+                final ServiceInformation before = ring.get(key);
+                if (!before.equals(removed) && !before.equals(smaller.get(key))) {
+                    moved++;
+                }
+            }
+            // Maglev may move a few keys between surviving servers, everything else moves none.
+            final int limit = (strategy instanceof MaglevRingStrategy) ? 1000 : 0;
+            Assert.assertTrue(strategy + " moved " + moved + " keys", moved <= limit);
+        }
+    }
+
+    @Test
+    public void testWithChangesMatchesRebuild()
+    {
+        final Random random = new Random(3);
+        for (RingStrategy strategy : STRATEGIES) {
+            final List<ServiceInformation> servers = createServers(random, 50);
+            ConsistentHashRing ring = new ConsistentHashRing(servers, strategy);
+            for (int round = 0; round < 5; round++) {
+                final List<ServiceInformation> removed = Lists.newArrayList();
+                for (int i = 0; i < 5; i++) {
+                    removed.add(servers.remove(random.nextInt(servers.size())));
+                }
+                final List<ServiceInformation> added = createServers(random, 5);
+                servers.addAll(added);
+
+                ring = ring.withChanges(added, removed);
+                Assert.assertSame(strategy, ring.getStrategy());
+                final ConsistentHashRing rebuilt = new ConsistentHashRing(servers, strategy);
+                for (int i = 0; i < 1000; i++) {
+                    final String key = String.valueOf(random.nextLong());
+                    Assert.assertEquals(strategy.toString(), rebuilt.get(key), ring.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelMerge()
+    {
+        final List<ServiceInformation> servers = createServers(new Random(5), 333);
+        final RingLayout parallel = new KetamaRingStrategy(HashAlgorithm.FNV1_32_HASH, 100, 1000).build(servers);
+        final RingLayout sequential = new KetamaRingStrategy(HashAlgorithm.FNV1_32_HASH, 100, Integer.MAX_VALUE).build(servers);
+        Assert.assertEquals(sequential, parallel);
+        Assert.assertEquals(sequential, RingStrategies.COMPATIBLE.build(servers));
+    }
+
+    @Test
+    public void testSingleServer()
+    {
+        final List<ServiceInformation> servers = createServers(new Random(4), 1);
+        for (RingStrategy strategy : STRATEGIES) {
+            final ConsistentHashRing ring = new ConsistentHashRing(servers, strategy);
+            Assert.assertEquals(servers.get(0), ring.get("foo"));
+        }
+    }
+
+    @Test
+    public void testForName()
+    {
+        Assert.assertSame(RingStrategies.COMPATIBLE, RingStrategies.forName("ketama", "FNV1_32_HASH", 100));
+        Assert.assertSame(RingStrategies.COMPATIBLE, RingStrategies.forName("ketama", "fnv1_32", 100));
+        Assert.assertTrue(RingStrategies.forName("ketama", "FNV1_32_HASH", 50) instanceof KetamaRingStrategy);
+        Assert.assertTrue(RingStrategies.forName("rendezvous", "crc32", 100) instanceof RendezvousRingStrategy);
+        Assert.assertTrue(RingStrategies.forName("maglev", "FNV1A_64_HASH", 100) instanceof MaglevRingStrategy);
+        Assert.assertTrue(RingStrategies.forName("jump", "native", 100) instanceof JumpRingStrategy);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownStrategy()
+    {
+        RingStrategies.forName("circle", "FNV1_32_HASH", 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownHash()
+    {
+        RingStrategies.forName("ketama", "SHA1", 100);
+    }
+
+    @Test
+    public void testConfig()
+    {
+        final Properties props = new Properties();
+        props.setProperty("ness.discovery.ring-virtual-nodes", "160");
+        props.setProperty("ness.discovery.cache.ring-strategy", "maglev");
+        props.setProperty("ness.discovery.cache.ring-hash", "KETAMA_HASH");
+        final DiscoveryClientConfig config = new ConfigurationObjectFactory(props).build(DiscoveryClientConfig.class);
+
+        Assert.assertEquals("maglev(KETAMA_HASH, 160)", RingStrategies.forService(config, "cache").toString());
+        Assert.assertEquals("ketama(FNV1_32_HASH, 160)", RingStrategies.forService(config, "user").toString());
+
+        final DiscoveryClientConfig defaultConfig = new ConfigurationObjectFactory(new Properties()).build(DiscoveryClientConfig.class);
+        Assert.assertSame(RingStrategies.COMPATIBLE, RingStrategies.forService(defaultConfig, "user"));
+    }
+}
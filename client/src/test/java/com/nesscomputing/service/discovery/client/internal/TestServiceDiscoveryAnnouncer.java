@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.nesscomputing.service.discovery.client.AnnouncementFormat;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.testing.lessio.AllowLocalFileAccess;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+import com.nesscomputing.testing.lessio.AllowNetworkListen;
+
+@AllowLocalFileAccess(paths={"%TMP_DIR%"})
+@AllowNetworkListen(ports={0})
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestServiceDiscoveryAnnouncer
+{
+    private static final String ROOT = "/ness/srvc";
+
+    @Rule
+    public EmbeddedZookeeper zookeeperServer = new EmbeddedZookeeper();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ServiceInformation user = ServiceInformation.forService("user", "http", "http", "10.0.0.1", 80);
+    private final ServiceInformation billing = ServiceInformation.forService("billing", "http", "http", "10.0.0.2", 80);
+
+    private ZooKeeper zookeeper = null;
+    private ServiceDiscoveryAnnouncer announcer = null;
+    private long generation = 0L;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        zookeeper = zookeeperServer.connect();
+        zookeeper.create("/ness", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        announcer = new ServiceDiscoveryAnnouncer(new DiscoveryClientConfig() {}, objectMapper);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        zookeeper.close();
+    }
+
+    @Test
+    public void testMissingNodesCreated() throws Exception
+    {
+        createRoot();
+        announcer.announce(user);
+        announcer.announce(billing);
+        run();
+
+        Assert.assertEquals(user, read(user));
+        Assert.assertEquals(billing, read(billing));
+        Assert.assertEquals(2, zookeeper.getChildren(ROOT, false).size());
+    }
+
+    @Test
+    public void testExistingNodesKept() throws Exception
+    {
+        createRoot();
+        zookeeper.create(getPath(user), AnnouncementFormat.JSON.encode(objectMapper, user), Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        final Stat stat = zookeeper.exists(getPath(user), false);
+
+        announcer.announce(user);
+        announcer.announce(billing);
+        run();
+        run();
+
+        Assert.assertEquals(stat, zookeeper.exists(getPath(user), false));
+        Assert.assertEquals(billing, read(billing));
+    }
+
+    @Test
+    public void testStaleNodesDeleted() throws Exception
+    {
+        createRoot();
+        announcer.announce(user);
+        announcer.announce(billing);
+        run();
+        final Stat stat = zookeeper.exists(getPath(user), false);
+
+        announcer.unannounce(billing);
+        run();
+        Assert.assertEquals(ImmutableList.of(NodeLayout.FLAT.getNodeName(user)), zookeeper.getChildren(ROOT, false));
+        Assert.assertEquals(stat, zookeeper.exists(getPath(user), false));
+
+        announcer.unannounceAll();
+        run();
+        Assert.assertTrue(zookeeper.getChildren(ROOT, false).isEmpty());
+    }
+
+    @Test
+    public void testFailureRetried() throws Exception
+    {
+        // Without the root, the create callback reports a failure.
+        announcer.announce(user);
+        try {
+            announcer.visit(ImmutableList.<String>of(), zookeeper, ++generation);
+            Assert.fail();
+        }
+        catch (KeeperException.NoNodeException nne) {
+            // Expected.
+        }
+
+        createRoot();
+        run();
+        Assert.assertEquals(user, read(user));
+    }
+
+    private void createRoot() throws Exception
+    {
+        zookeeper.create(ROOT, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Runs the announcer once, like the discovery thread does.
+     */
+    private void run() throws Exception
+    {
+        announcer.visit(zookeeper.getChildren(ROOT, false), zookeeper, ++generation);
+    }
+
+    private ServiceInformation read(final ServiceInformation serviceInformation) throws Exception
+    {
+        return AnnouncementFormat.decode(objectMapper, zookeeper.getData(getPath(serviceInformation), false, null));
+    }
+
+    private static String getPath(final ServiceInformation serviceInformation)
+    {
+        return ROOT + "/" + NodeLayout.FLAT.getNodeName(serviceInformation);
+    }
+}
@@ -0,0 +1,416 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.skife.config.TimeSpan;
+
+import com.nesscomputing.service.discovery.client.AnnouncementFormat;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceDiscoveryEvent;
+import com.nesscomputing.service.discovery.client.ServiceDiscoveryListener;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.testing.lessio.AllowLocalFileAccess;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+import com.nesscomputing.testing.lessio.AllowNetworkListen;
+
+@AllowLocalFileAccess(paths={"%TMP_DIR%"})
+@AllowNetworkListen(ports={0})
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestServiceDiscoveryReader
+{
+    private static final String ROOT = "/ness/srvc";
+
+    @Rule
+    public EmbeddedZookeeper zookeeperServer = new EmbeddedZookeeper();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ServiceInformation user = ServiceInformation.forService("user", "http", "http", "10.0.0.1", 80);
+    private final ServiceInformation billing = ServiceInformation.forService("billing", "http", "http", "10.0.0.2", 80);
+
+    private ZooKeeper zookeeper = null;
+    private ExecutorService executor = null;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        zookeeper = zookeeperServer.connect();
+        zookeeper.create("/ness", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zookeeper.create(ROOT, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        executor.shutdownNow();
+        zookeeper.close();
+    }
+
+    @Test
+    public void testFilterAnnouncements()
+    {
+        final String user = ServiceInformation.staticAnnouncement(UUID.randomUUID(), "user", "http", "http", "10.0.0.1", 80).getAnnouncementName();
+        final String users = ServiceInformation.staticAnnouncement(UUID.randomUUID(), "users", "http", "http", "10.0.0.2", 80).getAnnouncementName();
+        final String untyped = ServiceInformation.staticAnnouncement(UUID.randomUUID(), "user", null, "http", "10.0.0.3", 80).getAnnouncementName();
+        final List<String> rootNodes = ImmutableList.of(user, users, untyped, "user");
+
+        Assert.assertEquals(ImmutableList.of(user, untyped), ServiceDiscoveryReader.filterAnnouncements(rootNodes, ImmutableList.of("user")));
+        Assert.assertEquals(ImmutableList.of(users), ServiceDiscoveryReader.filterAnnouncements(rootNodes, ImmutableList.of("users", "unknown")));
+        Assert.assertTrue(ServiceDiscoveryReader.filterAnnouncements(rootNodes, Collections.<String>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testLazyFirstLookupWaits() throws Exception
+    {
+        announce(user);
+        announce(billing);
+
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(true);
+        final ServiceDiscoveryReader reader = new ServiceDiscoveryReader(lazyConfig(null), objectMapper, holder);
+        scan(reader);
+        Assert.assertTrue(holder.getState().isEmpty());
+
+        final Future<?> lookup = registerInterest(reader, "user", 10, TimeUnit.SECONDS);
+        Thread.sleep(200L);
+        Assert.assertFalse(lookup.isDone());
+
+        scan(reader);
+        lookup.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(ImmutableSet.of("user"), holder.getState().keySet());
+        Assert.assertEquals(ImmutableList.of(user), holder.getState().get("user").getAll());
+    }
+
+    @Test
+    public void testLazyLookupTimeout() throws Exception
+    {
+        announce(user);
+
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(true);
+        final ServiceDiscoveryReader reader = new ServiceDiscoveryReader(lazyConfig(null), objectMapper, holder);
+
+        final long start = System.nanoTime();
+        reader.registerInterest("user", 200, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        Assert.assertTrue(holder.getState().isEmpty());
+
+        // The interest stays, the next scan reads the service.
+        scan(reader);
+        Assert.assertEquals(ImmutableSet.of("user"), holder.getState().keySet());
+    }
+
+    @Test
+    public void testIdleServiceEvicted() throws Exception
+    {
+        announce(user);
+        announce(billing);
+
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(true);
+        final ServiceDiscoveryReader reader = new ServiceDiscoveryReader(lazyConfig(new TimeSpan(1, TimeUnit.MILLISECONDS)), objectMapper, holder);
+        reader.registerInterest("user", 0, TimeUnit.MILLISECONDS);
+        reader.registerInterest("billing", 0, TimeUnit.MILLISECONDS);
+        scan(reader);
+        Assert.assertEquals(ImmutableSet.of("user", "billing"), holder.getState().keySet());
+
+        Thread.sleep(10L);
+        reader.registerInterest("billing", 0, TimeUnit.MILLISECONDS);
+        scan(reader);
+        Assert.assertEquals(ImmutableSet.of("billing"), holder.getState().keySet());
+    }
+
+    @Test
+    public void testListenedServiceNotEvicted() throws Exception
+    {
+        announce(user);
+
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(true);
+        final ServiceDiscoveryReader reader = new ServiceDiscoveryReader(lazyConfig(new TimeSpan(1, TimeUnit.MILLISECONDS)), objectMapper, holder);
+        final ServiceDiscoveryListener listener = new ServiceDiscoveryListener() {
+            @Override
+            public void onWorldChange(final ServiceDiscoveryEvent event) {
+            }
+        };
+        holder.getDispatcher().addListener(listener, "user", null);
+
+        reader.registerInterest("user", 0, TimeUnit.MILLISECONDS);
+        scan(reader);
+        Thread.sleep(10L);
+        scan(reader);
+        Assert.assertEquals(ImmutableSet.of("user"), holder.getState().keySet());
+
+        holder.getDispatcher().removeListener(listener);
+        scan(reader);
+        Assert.assertTrue(holder.getState().isEmpty());
+    }
+
+    @Test
+    public void testLookupDuringEvictionKeepsInterest() throws Exception
+    {
+        announce(user);
+
+        final AtomicReference<ServiceDiscoveryReader> readerHolder = new AtomicReference<ServiceDiscoveryReader>();
+        final AtomicBoolean lookupOnEviction = new AtomicBoolean(false);
+
+        // The eviction asks the dispatcher for listeners right before it drops the interest, which is
+        // the latest point where a lookup can still be missed.
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(true) {
+            @Override
+            WorldChangeDispatcher getDispatcher()
+            {
+                if (lookupOnEviction.getAndSet(false)) {
+                    try {
+                        readerHolder.get().registerInterest("user", 0, TimeUnit.MILLISECONDS);
+                    }
+                    catch (InterruptedException ie) {
+                        throw Throwables.propagate(ie);
+                    }
+                }
+                return super.getDispatcher();
+            }
+        };
+        final ServiceDiscoveryReader reader = new ServiceDiscoveryReader(lazyConfig(new TimeSpan(1, TimeUnit.MILLISECONDS)), objectMapper, holder);
+        readerHolder.set(reader);
+
+        reader.registerInterest("user", 0, TimeUnit.MILLISECONDS);
+        scan(reader);
+        Thread.sleep(10L);
+        lookupOnEviction.set(true);
+        scan(reader);
+        Assert.assertFalse(lookupOnEviction.get());
+        Assert.assertEquals(ImmutableSet.of("user"), holder.getState().keySet());
+
+        // Without another lookup, the service goes away.
+        scan(reader);
+        Thread.sleep(10L);
+        scan(reader);
+        Assert.assertTrue(holder.getState().isEmpty());
+    }
+
+    @Test
+    public void testStaleSnapshotWithoutWaiting() throws Exception
+    {
+        final ServiceInformation oldUser = ServiceInformation.forService("user", "http", "http", "10.0.0.9", 80);
+        final File snapshot = new File(folder.getRoot(), "snapshot");
+        WorldStateSnapshot.write(snapshot, objectMapper, ImmutableList.of(oldUser));
+        announce(user);
+        announce(billing);
+
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(true);
+        final ServiceDiscoveryReader reader = new ServiceDiscoveryReader(lazyConfig(null, snapshot.getPath()), objectMapper, holder);
+        Assert.assertTrue(reader.loadSnapshot());
+
+        long start = System.nanoTime();
+        reader.registerInterest("user", 10, TimeUnit.SECONDS);
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        Assert.assertTrue(holder.isStale());
+        Assert.assertEquals(ImmutableList.of(oldUser), holder.getState().get("user").getAll());
+
+        // A service that is not in the snapshot still waits for zookeeper.
+        start = System.nanoTime();
+        reader.registerInterest("billing", 200, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+
+        scan(reader);
+        Assert.assertFalse(holder.isStale());
+        Assert.assertEquals(ImmutableList.of(user), holder.getState().get("user").getAll());
+        Assert.assertEquals(ImmutableList.of(billing), holder.getState().get("billing").getAll());
+    }
+
+    @Test
+    public void testCachedAnnouncementIsCurrent()
+    {
+        final ServiceDiscoveryReader.CachedAnnouncement cached = new ServiceDiscoveryReader.CachedAnnouncement(user, 17L, 0);
+        Assert.assertTrue(cached.isCurrent(stat(17L, 0)));
+        Assert.assertFalse(cached.isCurrent(stat(17L, 1)));
+        Assert.assertFalse(cached.isCurrent(stat(18L, 0)));
+    }
+
+    @Test
+    public void testReplacedNodeReloaded() throws Exception
+    {
+        announce(user);
+
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(true);
+        final ServiceDiscoveryReader reader = new ServiceDiscoveryReader(revalidatingConfig(), objectMapper, holder);
+        scan(reader);
+        Assert.assertEquals(ImmutableList.of(user), holder.getState().get("user").getAll());
+
+        // Same node name, new node: only the czxid differs.
+        final String path = ROOT + "/" + NodeLayout.FLAT.getNodeName(user);
+        final ServiceInformation movedUser = withPort(user, 81);
+        zookeeper.delete(path, -1);
+        zookeeper.create(path, AnnouncementFormat.JSON.encode(objectMapper, movedUser), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        scan(reader);
+        Assert.assertEquals("81", holder.getState().get("user").getAll().get(0).getProperty(ServiceInformation.PROP_SERVICE_PORT));
+
+        // Same node, new data: only the version differs.
+        zookeeper.setData(path, AnnouncementFormat.JSON.encode(objectMapper, withPort(user, 82)), -1);
+        scan(reader);
+        Assert.assertEquals("82", holder.getState().get("user").getAll().get(0).getProperty(ServiceInformation.PROP_SERVICE_PORT));
+    }
+
+    @Test
+    public void testKnownNodeNotReadBeforeRevalidation() throws Exception
+    {
+        announce(user);
+
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(true);
+        final ServiceDiscoveryReader reader = new ServiceDiscoveryReader(new DiscoveryClientConfig() {}, objectMapper, holder);
+        scan(reader);
+
+        zookeeper.setData(ROOT + "/" + NodeLayout.FLAT.getNodeName(user), AnnouncementFormat.JSON.encode(objectMapper, withPort(user, 81)), -1);
+        scan(reader);
+        Assert.assertEquals(ImmutableList.of(user), holder.getState().get("user").getAll());
+    }
+
+    @Test
+    public void testVanishedNodeDropped() throws Exception
+    {
+        announce(user);
+        announce(billing);
+
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(true);
+        final ServiceDiscoveryReader reader = new ServiceDiscoveryReader(revalidatingConfig(), objectMapper, holder);
+        scan(reader);
+        Assert.assertEquals(ImmutableSet.of("user", "billing"), holder.getState().keySet());
+
+        // Gone from the listing.
+        zookeeper.delete(ROOT + "/" + NodeLayout.FLAT.getNodeName(billing), -1);
+        scan(reader);
+        Assert.assertEquals(ImmutableSet.of("user"), holder.getState().keySet());
+
+        // Gone between the listing and the revalidation.
+        final List<String> children = zookeeper.getChildren(ROOT, false);
+        zookeeper.delete(ROOT + "/" + NodeLayout.FLAT.getNodeName(user), -1);
+        reader.visit(children, zookeeper, 0L);
+        Assert.assertTrue(holder.getState().isEmpty());
+    }
+
+    private DiscoveryClientConfig lazyConfig(final TimeSpan idleTime)
+    {
+        return lazyConfig(idleTime, null);
+    }
+
+    private DiscoveryClientConfig lazyConfig(final TimeSpan idleTime, final String snapshotFile)
+    {
+        return new DiscoveryClientConfig() {
+            @Override
+            public boolean isLazy()
+            {
+                return true;
+            }
+
+            @Override
+            public TimeSpan getLazyIdleTime()
+            {
+                return idleTime == null ? super.getLazyIdleTime() : idleTime;
+            }
+
+            @Override
+            public String getSnapshotFile()
+            {
+                return snapshotFile;
+            }
+        };
+    }
+
+    /**
+     * Returns a config that revalidates all known nodes on every scan.
+     */
+    private DiscoveryClientConfig revalidatingConfig()
+    {
+        return new DiscoveryClientConfig() {
+            @Override
+            public TimeSpan getScanInterval()
+            {
+                return new TimeSpan(0, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+    private static ServiceInformation withPort(final ServiceInformation serviceInformation, final int port)
+    {
+        return new ServiceInformation(serviceInformation.getServiceName(), serviceInformation.getServiceType(), serviceInformation.getServiceId(),
+                                      ImmutableMap.of(ServiceInformation.PROP_SERVICE_SCHEME, "http",
+                                                      ServiceInformation.PROP_SERVICE_ADDRESS, serviceInformation.getProperty(ServiceInformation.PROP_SERVICE_ADDRESS),
+                                                      ServiceInformation.PROP_SERVICE_PORT, Integer.toString(port)));
+    }
+
+    private static Stat stat(final long czxid, final int version)
+    {
+        final Stat stat = new Stat();
+        stat.setCzxid(czxid);
+        stat.setVersion(version);
+        return stat;
+    }
+
+    private void announce(final ServiceInformation serviceInformation) throws Exception
+    {
+        zookeeper.create(ROOT + "/" + NodeLayout.FLAT.getNodeName(serviceInformation), AnnouncementFormat.JSON.encode(objectMapper, serviceInformation),
+                         Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Runs the reader once, like the discovery thread does.
+     */
+    private void scan(final ServiceDiscoveryReader reader) throws Exception
+    {
+        reader.visit(zookeeper.getChildren(ROOT, false), zookeeper, 0L);
+    }
+
+    private Future<?> registerInterest(final ServiceDiscoveryReader reader, final String serviceName, final long timeout, final TimeUnit unit)
+    {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException
+            {
+                reader.registerInterest(serviceName, timeout, unit);
+                return null;
+            }
+        });
+    }
+}
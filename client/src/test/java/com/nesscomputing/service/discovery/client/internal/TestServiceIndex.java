@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+public class TestServiceIndex
+{
+    private final ServiceInformation dynamic = ServiceInformation.forService("user", "http", "http", "10.0.0.1", 80);
+    private final ServiceInformation static1 = ServiceInformation.staticAnnouncement(UUID.randomUUID(), "user", "http", "http", "10.0.0.1", 8080);
+    private final ServiceInformation static2 = ServiceInformation.staticAnnouncement(UUID.randomUUID(), "billing", null, "http", "10.0.0.2", 80);
+
+    private final Map<String, ConsistentRingGroup> state = ImmutableMap.of(
+        "user", new ConsistentRingGroup(ImmutableList.of(dynamic, static1)),
+        "billing", new ConsistentRingGroup(ImmutableList.of(static2)));
+
+    @Test
+    public void testLookups()
+    {
+        final ServiceIndex index = new ServiceIndex(state);
+
+        Assert.assertSame(static1, index.getByServiceId(static1.getServiceId()));
+        Assert.assertSame(dynamic, index.getByServiceId(dynamic.getServiceId()));
+        Assert.assertNull(index.getByServiceId(UUID.randomUUID()));
+
+        Assert.assertEquals(ImmutableSet.of(dynamic, static1), ImmutableSet.copyOf(index.getByAddress("10.0.0.1")));
+        Assert.assertTrue(index.getByAddress("10.0.0.9").isEmpty());
+
+        Assert.assertEquals(ImmutableSet.of(static1, static2), ImmutableSet.copyOf(index.getStaticAnnouncements()));
+        Assert.assertEquals(ImmutableList.of(static2), index.getStaticAnnouncements("billing"));
+        Assert.assertTrue(index.getStaticAnnouncements("unknown").isEmpty());
+    }
+
+    @Test
+    public void testRebuiltOnChange()
+    {
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(false);
+        Assert.assertTrue(holder.getIndex().getStaticAnnouncements().isEmpty());
+
+        holder.setState(state);
+        final ServiceIndex index = holder.getIndex();
+        Assert.assertSame(index, holder.getIndex());
+        Assert.assertEquals(2, index.getStaticAnnouncements().size());
+
+        holder.setState(ImmutableMap.of("billing", state.get("billing")));
+        Assert.assertNotSame(index, holder.getIndex());
+        Assert.assertNull(holder.getIndex().getByServiceId(static1.getServiceId()));
+        Assert.assertSame(static2, holder.getIndex().getByServiceId(static2.getServiceId()));
+    }
+}
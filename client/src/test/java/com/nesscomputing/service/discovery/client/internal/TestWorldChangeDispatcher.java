@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.service.discovery.client.ServiceDiscoveryEvent;
+import com.nesscomputing.service.discovery.client.ServiceDiscoveryListener;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+public class TestWorldChangeDispatcher
+{
+    private final UUID userId = UUID.randomUUID();
+    private final ServiceInformation user = ServiceInformation.staticAnnouncement(userId, "user", "http", "http", "10.0.0.1", 80);
+    private final ServiceInformation userMoved = ServiceInformation.staticAnnouncement(userId, "user", "http", "http", "10.0.0.1", 8080);
+    private final ServiceInformation userHttps = ServiceInformation.forService("user", "https", "https", "10.0.0.2", 443);
+    private final ServiceInformation billing = ServiceInformation.forService("billing", null, "http", "10.0.0.3", 80);
+
+    private StateOfTheWorldHolder holder;
+    private RecordingListener all;
+    private RecordingListener userHttp;
+
+    @Before
+    public void setUp()
+    {
+        holder = new StateOfTheWorldHolder(false);
+        holder.getDispatcher().setExecutor(MoreExecutors.sameThreadExecutor());
+
+        all = new RecordingListener();
+        userHttp = new RecordingListener();
+        holder.getDispatcher().addListener(all, null, null);
+        holder.getDispatcher().addListener(userHttp, "user", "http");
+    }
+
+    @Test
+    public void testDiffs()
+    {
+        final ConsistentRingGroup billingGroup = new ConsistentRingGroup(ImmutableList.of(billing));
+
+        holder.setState(state(new ConsistentRingGroup(ImmutableList.of(user, userHttps)), billingGroup));
+        Assert.assertEquals(1, all.events.size());
+        Assert.assertEquals(ImmutableSet.of(user, userHttps, billing), ImmutableSet.copyOf(all.events.get(0).getAdded()));
+        Assert.assertEquals(holder.getGeneration(), all.events.get(0).getGeneration());
+        Assert.assertEquals(ImmutableList.of(user), userHttp.events.get(0).getAdded());
+
+        // Same content under the same id is a change, the billing group is untouched.
+        holder.setState(state(new ConsistentRingGroup(ImmutableList.of(userMoved)), billingGroup));
+        final ServiceDiscoveryEvent event = all.events.get(1);
+        Assert.assertEquals(ImmutableList.of(userMoved), event.getChanged());
+        Assert.assertEquals(ImmutableList.of(userHttps), event.getRemoved());
+        Assert.assertTrue(event.getAdded().isEmpty());
+
+        Assert.assertEquals(2, userHttp.events.size());
+        Assert.assertEquals(ImmutableList.of(userMoved), userHttp.events.get(1).getChanged());
+        Assert.assertTrue(userHttp.events.get(1).getRemoved().isEmpty());
+
+        // Only billing changes, the user listener is not called.
+        holder.setState(state(new ConsistentRingGroup(ImmutableList.of(userMoved)), null));
+        Assert.assertEquals(ImmutableList.of(billing), all.events.get(2).getRemoved());
+        Assert.assertEquals(2, userHttp.events.size());
+    }
+
+    @Test
+    public void testRemoveListener()
+    {
+        holder.getDispatcher().removeListener(all);
+        Assert.assertTrue(holder.getDispatcher().isListenedTo("user"));
+        Assert.assertFalse(holder.getDispatcher().isListenedTo("billing"));
+
+        holder.setState(state(new ConsistentRingGroup(ImmutableList.of(user)), null));
+        Assert.assertTrue(all.events.isEmpty());
+        Assert.assertEquals(1, userHttp.events.size());
+    }
+
+    @Test
+    public void testOrderedOnPool() throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            holder.getDispatcher().setExecutor(executor);
+            final int changes = 200;
+            for (int i = 1; i <= changes; i++) {
+                holder.setState(state(null, new ConsistentRingGroup(ImmutableList.of(ServiceInformation.forService("billing", null, "http", "10.0.0.3", i)))));
+            }
+
+            final long end = System.currentTimeMillis() + 5000;
+            while (all.events.size() < changes && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+
+            final List<ServiceDiscoveryEvent> events = all.events;
+            Assert.assertEquals(changes, events.size());
+            for (int i = 1; i < events.size(); i++) {
+                Assert.assertTrue(events.get(i).getGeneration() > events.get(i - 1).getGeneration());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Map<String, ConsistentRingGroup> state(final ConsistentRingGroup user, final ConsistentRingGroup billing)
+    {
+        final ImmutableMap.Builder<String, ConsistentRingGroup> builder = ImmutableMap.builder();
+        if (user != null) {
+            builder.put("user", user);
+        }
+        if (billing != null) {
+            builder.put("billing", billing);
+        }
+        return builder.build();
+    }
+
+    private static class RecordingListener implements ServiceDiscoveryListener
+    {
+        private final List<ServiceDiscoveryEvent> events = new CopyOnWriteArrayList<ServiceDiscoveryEvent>();
+
+        @Override
+        public void onWorldChange(final ServiceDiscoveryEvent event)
+        {
+            events.add(event);
+        }
+    }
+}
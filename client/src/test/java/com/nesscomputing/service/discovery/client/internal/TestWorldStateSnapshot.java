@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.client.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+
+public class TestWorldStateSnapshot
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final List<ServiceInformation> announcements = ImmutableList.of(
+        ServiceInformation.staticAnnouncement(UUID.randomUUID(), "user", "http", "http", "10.0.0.1", 80),
+        ServiceInformation.staticAnnouncement(UUID.randomUUID(), "user", null, "http", "10.0.0.2", 8080),
+        ServiceInformation.forService("billing", "https", "https", "10.0.0.3", 443));
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        final File file = new File(folder.getRoot(), "snapshot");
+        WorldStateSnapshot.write(file, objectMapper, announcements);
+        Assert.assertEquals(announcements, WorldStateSnapshot.read(file, objectMapper));
+
+        // Replaces the existing snapshot.
+        WorldStateSnapshot.write(file, objectMapper, announcements.subList(0, 1));
+        Assert.assertEquals(announcements.subList(0, 1), WorldStateSnapshot.read(file, objectMapper));
+        Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testEmpty() throws IOException
+    {
+        final File file = new File(folder.getRoot(), "snapshot");
+        WorldStateSnapshot.write(file, objectMapper, Collections.<ServiceInformation>emptyList());
+        Assert.assertTrue(WorldStateSnapshot.read(file, objectMapper).isEmpty());
+    }
+
+    @Test(expected=IOException.class)
+    public void testTruncated() throws IOException
+    {
+        final File file = new File(folder.getRoot(), "snapshot");
+        WorldStateSnapshot.write(file, objectMapper, announcements);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        }
+        finally {
+            raf.close();
+        }
+        WorldStateSnapshot.read(file, objectMapper);
+    }
+
+    @Test(expected=IOException.class)
+    public void testGarbage() throws IOException
+    {
+        final File file = folder.newFile("snapshot");
+        objectMapper.writeValue(file, announcements);
+        WorldStateSnapshot.read(file, objectMapper);
+    }
+
+    @Test
+    public void testSkipsUnusable() throws IOException
+    {
+        final File file = new File(folder.getRoot(), "snapshot");
+        final ServiceInformation noAddress = new ServiceInformation("user", "http", UUID.randomUUID(), ImmutableMap.<String, String>of());
+        WorldStateSnapshot.write(file, objectMapper, ImmutableList.<ServiceInformation>builder().addAll(announcements).add(noAddress).build());
+        Assert.assertEquals(announcements, WorldStateSnapshot.read(file, objectMapper));
+    }
+
+    @Test
+    public void testLazyLookup() throws Exception
+    {
+        final File file = new File(folder.getRoot(), "snapshot");
+        WorldStateSnapshot.write(file, objectMapper, announcements);
+        final DiscoveryClientConfig config = new DiscoveryClientConfig() {
+            @Override
+            public boolean isLazy()
+            {
+                return true;
+            }
+
+            @Override
+            public String getSnapshotFile()
+            {
+                return file.getPath();
+            }
+        };
+
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(true);
+        final ServiceDiscoveryReader reader = new ServiceDiscoveryReader(config, objectMapper, holder);
+        Assert.assertTrue(reader.loadSnapshot());
+
+        // No zookeeper scan ever runs here, a service from the snapshot must not wait for one.
+        final long start = System.nanoTime();
+        reader.registerInterest("user", 10, TimeUnit.SECONDS);
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        Assert.assertEquals(2, holder.getState().get("user").getAll().size());
+    }
+
+    @Test
+    public void testProvisionalState()
+    {
+        final StateOfTheWorldHolder holder = new StateOfTheWorldHolder(true);
+        final Map<String, ConsistentRingGroup> provisional = ImmutableMap.of("user", new ConsistentRingGroup(announcements.subList(0, 2)));
+
+        Assert.assertTrue(holder.setProvisionalState(provisional));
+        Assert.assertTrue(holder.isStale());
+        Assert.assertEquals(provisional, holder.getState());
+
+        holder.setState(Collections.<String, ConsistentRingGroup>emptyMap());
+        Assert.assertFalse(holder.isStale());
+
+        // A real state always wins over a snapshot.
+        Assert.assertFalse(holder.setProvisionalState(provisional));
+        Assert.assertFalse(holder.isStale());
+        Assert.assertTrue(holder.getState().isEmpty());
+    }
+}
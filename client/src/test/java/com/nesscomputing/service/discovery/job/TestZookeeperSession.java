@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.job;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestZookeeperSession
+{
+    @Test
+    public void testShared()
+    {
+        final ZookeeperSession session = ZookeeperSession.acquire("127.0.0.1:1");
+        final ZookeeperSession sameSession = ZookeeperSession.acquire("127.0.0.1:1");
+        final ZookeeperSession otherSession = ZookeeperSession.acquire("127.0.0.1:2");
+
+        Assert.assertSame(session, sameSession);
+        Assert.assertNotSame(session, otherSession);
+        Assert.assertEquals("127.0.0.1:2", otherSession.getConnectString());
+
+        session.release();
+        sameSession.release();
+        otherSession.release();
+    }
+
+    @Test
+    public void testReleaseLast()
+    {
+        final ZookeeperSession session = ZookeeperSession.acquire("127.0.0.1:3");
+        session.release();
+
+        final ZookeeperSession newSession = ZookeeperSession.acquire("127.0.0.1:3");
+        Assert.assertNotSame(session, newSession);
+        newSession.release();
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testReleaseTooOften()
+    {
+        final ZookeeperSession session = ZookeeperSession.acquire("127.0.0.1:4");
+        session.release();
+        session.release();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testEmptyConnectString()
+    {
+        ZookeeperSession.acquire("");
+    }
+}
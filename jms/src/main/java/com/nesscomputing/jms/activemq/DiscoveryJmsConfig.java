@@ -55,4 +55,25 @@ abstract class DiscoveryJmsConfig
     {
         return new TimeSpan(2, TimeUnit.SECONDS);
     }
+
+    /**
+     * If true, failover transports created by the srvc transport are told about brokers that
+     * appear or disappear in discovery.
+     */
+    @Config("ness.jms.srvc.live-update")
+    @Default("true")
+    public boolean isLiveUpdateEnabled()
+    {
+        return true;
+    }
+
+    /**
+     * If true, connections reconnect to spread over the brokers when the broker list was updated.
+     */
+    @Config("ness.jms.srvc.rebalance")
+    @Default("false")
+    public boolean isRebalanceOnUpdate()
+    {
+        return false;
+    }
 }
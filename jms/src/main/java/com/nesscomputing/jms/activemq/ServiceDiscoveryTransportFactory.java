@@ -22,6 +22,7 @@ import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentMap;
 
@@ -40,8 +41,11 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.nesscomputing.logging.Log;
 import com.nesscomputing.service.discovery.client.ReadOnlyDiscoveryClient;
+import com.nesscomputing.service.discovery.client.ServiceDiscoveryEvent;
+import com.nesscomputing.service.discovery.client.ServiceDiscoveryListener;
 import com.nesscomputing.service.discovery.client.ServiceInformation;
 
 /**
@@ -52,6 +56,10 @@ import com.nesscomputing.service.discovery.client.ServiceInformation;
  * name "activemq" and type "y".  They all must advertise URIs, which will then get built into a
  * <code>failover:(x,y)</code> transport.
  *
+ * The failover transport listens to discovery and gets the new list of brokers through
+ * {@link Transport#updateURIs(boolean, URI[])} whenever the brokers change, so existing connections
+ * learn about new brokers without reconnecting.
+ *
  * This code uses a static map to coordinate DiscoveryClients since the ActiveMQ TransportFactory
  * abstraction is static in nature.  A number of possibilities were examined but it seems impossible
  * to register a transport in a way that is truly IoC-friendly.
@@ -63,6 +71,12 @@ public class ServiceDiscoveryTransportFactory extends TransportFactory {
     private static final ConcurrentMap<UUID, ReadOnlyDiscoveryClient> DISCO_CLIENTS = Maps.newConcurrentMap();
     private static final ConcurrentMap<UUID, DiscoveryJmsConfig> CONFIGS = Maps.newConcurrentMap();
 
+    private static final Runnable NO_STOP_HOOK = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
     /**
      * Register a discoveryClient under a unique id.  This works around the TransportFactory's inherent staticness
      * so that we may use the correct discovery client even in the presence of multiple injectors in the same JVM.
@@ -83,8 +97,28 @@ public class ServiceDiscoveryTransportFactory extends TransportFactory {
     throws MalformedURLException, UnknownHostException, IOException {
 
         final Map<String, String> params = findParameters(location);
-        final List<ServiceInformation> services = getServiceInformations(location, params);
-        return buildTransport(params, services);
+        final ReadOnlyDiscoveryClient discoveryClient = getDiscoveryClient(params);
+        final DiscoveryJmsConfig config = getConfig(params);
+        final String serviceType = params.get("serviceType");
+        final List<ServiceInformation> services = findServices(discoveryClient, location.getHost(), serviceType);
+        final Transport transport = buildTransport(params, services);
+
+        Runnable stopHook = NO_STOP_HOOK;
+        if (config.isLiveUpdateEnabled() && transport.isUpdateURIsSupported()) {
+            final BrokerListUpdater updater = new BrokerListUpdater(discoveryClient, location.getHost(), serviceType, transport, config.isRebalanceOnUpdate(), services);
+            discoveryClient.addListener(updater, location.getHost(), serviceType);
+            // Catch up with changes between the lookup and the registration.
+            updater.refresh();
+            // Closing the connection stops the transport, stop listening right then.
+            stopHook = new Runnable() {
+                @Override
+                public void run() {
+                    updater.close();
+                }
+            };
+        }
+
+        return interceptPropertySetters(transport, stopHook);
 
     }
 
@@ -135,20 +169,12 @@ public class ServiceDiscoveryTransportFactory extends TransportFactory {
     /**
      * Find and return applicable services for a given connection
      */
-    private List<ServiceInformation> getServiceInformations(URI location, final Map<String, String> params)
-            throws IOException {
-        final ReadOnlyDiscoveryClient discoveryClient = getDiscoveryClient(params);
-
-        final String serviceType = params.get("serviceType");
-
-        final List<ServiceInformation> services;
-
+    private static List<ServiceInformation> findServices(final ReadOnlyDiscoveryClient discoveryClient, final String serviceName, final String serviceType) {
         if (serviceType != null) {
-            services = discoveryClient.findAllServiceInformation(location.getHost(), serviceType);
+            return discoveryClient.findAllServiceInformation(serviceName, serviceType);
         } else {
-            services = discoveryClient.findAllServiceInformation(location.getHost());
+            return discoveryClient.findAllServiceInformation(serviceName);
         }
-        return services;
     }
 
     /**
@@ -167,7 +193,7 @@ public class ServiceDiscoveryTransportFactory extends TransportFactory {
         try {
             final URI uri = URI.create(uriBuilder.toString());
             LOG.debug("Service discovery transport discovered %s", uri);
-            return interceptPropertySetters(TransportFactory.compositeConnect(uri));
+            return TransportFactory.compositeConnect(uri);
         } catch (final Exception e) {
             Throwables.propagateIfPossible(e, IOException.class);
             throw new IOException("Could not create failover transport", e);
@@ -178,15 +204,38 @@ public class ServiceDiscoveryTransportFactory extends TransportFactory {
      * ActiveMQ expects to reflectively call setX for every property x specified in the connection string.
      * Since we are actually constructing a failover transport, these properties are obviously not expected
      * and ActiveMQ complains that we are specifying invalid parameters.  So create a CGLIB proxy that
-     * intercepts and ignores appropriate setter calls.
+     * intercepts and ignores appropriate setter calls. The stop hook runs when the transport is stopped.
      */
-    private Transport interceptPropertySetters(Transport transport) {
-        final Enhancer e = new Enhancer();
-        e.setInterfaces(new Class<?>[] {Transport.class, ServiceTransportBeanSetters.class});
-        final TransportDelegationFilter filter = new TransportDelegationFilter(transport, ServiceTransportBeanSetters.class);
-        e.setCallbackFilter(filter);
-        e.setCallbacks(filter.getCallbacks());
-        return (Transport) e.create();
+    static Transport interceptPropertySetters(final Transport transport, final Runnable stopHook) throws IOException {
+        final Class<?> proxyClass = ProxyClassHolder.PROXY_CLASS;
+
+        // The callbacks are registered for this thread only and picked up by the constructor.
+        Enhancer.registerCallbacks(proxyClass, TransportDelegationFilter.getCallbacks(transport, stopHook));
+        try {
+            return (Transport) proxyClass.newInstance();
+        } catch (final InstantiationException e) {
+            throw new IOException("Could not create transport proxy", e);
+        } catch (final IllegalAccessException e) {
+            throw new IOException("Could not create transport proxy", e);
+        } finally {
+            Enhancer.registerCallbacks(proxyClass, null);
+        }
+    }
+
+    /**
+     * The proxy only implements interfaces and its callbacks are passed in per instance, so one generated
+     * class serves all transports. Generating a class is expensive, creating an instance is not.
+     */
+    private static final class ProxyClassHolder {
+        private static final Class<?> PROXY_CLASS = createProxyClass();
+
+        private static Class<?> createProxyClass() {
+            final Enhancer e = new Enhancer();
+            e.setInterfaces(new Class<?>[] {Transport.class, ServiceTransportBeanSetters.class});
+            e.setCallbackFilter(new TransportDelegationFilter(ServiceTransportBeanSetters.class));
+            e.setCallbackTypes(TransportDelegationFilter.getCallbackTypes());
+            return e.createClass();
+        }
     }
 
     private static final Function<ServiceInformation, String> SERVICE_TO_URI = new Function<ServiceInformation, String>() {
@@ -198,4 +247,82 @@ public class ServiceDiscoveryTransportFactory extends TransportFactory {
             return uri;
         }
     };
+
+    /**
+     * Sends the current brokers to a failover transport whenever they change in discovery. The transport
+     * adds and drops them without reconnecting, unless rebalancing is enabled.
+     */
+    static final class BrokerListUpdater implements ServiceDiscoveryListener {
+        private final ReadOnlyDiscoveryClient discoveryClient;
+        private final String serviceName;
+        private final String serviceType;
+        private final Transport transport;
+        private final boolean rebalance;
+
+        private Set<URI> brokers;
+        private boolean closed = false;
+
+        BrokerListUpdater(final ReadOnlyDiscoveryClient discoveryClient, final String serviceName, final String serviceType, final Transport transport, final boolean rebalance,
+                          final List<ServiceInformation> services) {
+            this.discoveryClient = discoveryClient;
+            this.serviceName = serviceName;
+            this.serviceType = serviceType;
+            this.transport = transport;
+            this.rebalance = rebalance;
+            this.brokers = toBrokers(services);
+        }
+
+        @Override
+        public void onWorldChange(final ServiceDiscoveryEvent event) {
+            refresh();
+        }
+
+        synchronized void refresh() {
+            if (closed) {
+                return;
+            }
+            if (transport.isDisposed()) {
+                close();
+                return;
+            }
+
+            final Set<URI> newBrokers = toBrokers(findServices(discoveryClient, serviceName, serviceType));
+
+            // Keep the last known brokers while there are none, the transport keeps trying them.
+            if (newBrokers.isEmpty() || newBrokers.equals(brokers)) {
+                return;
+            }
+
+            try {
+                transport.updateURIs(rebalance, newBrokers.toArray(new URI[newBrokers.size()]));
+                brokers = newBrokers;
+                LOG.info("Updated brokers for %s to %s", serviceName, newBrokers);
+            } catch (final IOException e) {
+                LOG.warn(e, "Could not update brokers for %s", serviceName);
+            }
+        }
+
+        /**
+         * Stops listening to discovery. Called when the transport is stopped.
+         */
+        synchronized void close() {
+            if (!closed) {
+                closed = true;
+                discoveryClient.removeListener(this);
+                LOG.debug("Transport for %s was closed, no longer updating it", serviceName);
+            }
+        }
+
+        private static Set<URI> toBrokers(final List<ServiceInformation> services) {
+            final Set<URI> result = Sets.newLinkedHashSet();
+            for (final ServiceInformation service : services) {
+                try {
+                    result.add(URI.create(SERVICE_TO_URI.apply(service)));
+                } catch (final IllegalArgumentException e) {
+                    LOG.warn(e, "Ignoring broker %s", service);
+                }
+            }
+            return result;
+        }
+    }
 }
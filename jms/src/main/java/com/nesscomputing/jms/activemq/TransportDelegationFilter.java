@@ -29,38 +29,50 @@ import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
 
 /**
- * CGLIB filter which ignores all methods that are on a specified interface
+ * CGLIB filter which ignores all methods that are on a specified interface, runs a hook after stop()
  * and delegates the remaining methods to a given object.
+ *
+ * The filter only decides which callback handles a method and holds no transport, so one generated
+ * class serves all transports. The transport and the hook are passed in with the callbacks of each
+ * instance, see {@link #getCallbacks(Transport, Runnable)}.
  */
 class TransportDelegationFilter implements CallbackFilter {
     private static final Log LOG = Log.findLog();
 
-    private final Transport actualTransport;
+    private static final int PASSTHRU = 0;
+    private static final int NOOP = 1;
+    private static final int STOP = 2;
 
     private final Class<?> beanClass;
 
-    TransportDelegationFilter(Transport actualTransport, Class<?> beanClass) {
-        this.actualTransport = actualTransport;
+    TransportDelegationFilter(Class<?> beanClass) {
         this.beanClass = beanClass;
     }
 
-    private final Callback[] callbacks = new Callback[] {
-            new PassthruCallback(),
-            new NoOpCallback()
-    };
+    static Callback[] getCallbacks(final Transport actualTransport, final Runnable stopHook) {
+        return new Callback[] {
+                new PassthruCallback(actualTransport),
+                new NoOpCallback(),
+                new StopCallback(actualTransport, stopHook)
+        };
+    }
 
-    public Callback[] getCallbacks() {
-        return callbacks;
+    static Class<?>[] getCallbackTypes() {
+        return new Class<?>[] { Dispatcher.class, MethodInterceptor.class, MethodInterceptor.class };
     }
 
     @Override
     public int accept(Method method) {
+        if ("stop".equals(method.getName()) && method.getParameterTypes().length == 0) {
+            return STOP;
+        }
+
         try {
             // We only care if the method exists, but there seems to not be a better way to ask if an object responds to a method.
             // This is all done at class creation time so the overhead of a few exceptions should not be onerous.
             beanClass.getMethod(method.getName(), method.getParameterTypes());
             // Found on the ignore class, so return the index of the NoOpCallback
-            return 1;
+            return NOOP;
         } catch (SecurityException e) {
             Throwables.propagate(e);
         } catch (NoSuchMethodException e) {
@@ -69,10 +81,27 @@ class TransportDelegationFilter implements CallbackFilter {
         }
 
         // Not found on the ignore class, so return the index of the PassthruCallback
-        return 0;
+        return PASSTHRU;
     }
 
-    private class PassthruCallback implements Dispatcher {
+    // CGLIB caches generated classes by filter, so equal filters must share the class.
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TransportDelegationFilter && beanClass.equals(((TransportDelegationFilter) other).beanClass);
+    }
+
+    @Override
+    public int hashCode() {
+        return beanClass.hashCode();
+    }
+
+    private static class PassthruCallback implements Dispatcher {
+        private final Transport actualTransport;
+
+        PassthruCallback(final Transport actualTransport) {
+            this.actualTransport = actualTransport;
+        }
+
         @Override
         public Object loadObject() throws Exception {
             return actualTransport;
@@ -85,4 +114,24 @@ class TransportDelegationFilter implements CallbackFilter {
             return null;
         }
     }
+
+    private static class StopCallback implements MethodInterceptor {
+        private final Transport actualTransport;
+        private final Runnable stopHook;
+
+        StopCallback(final Transport actualTransport, final Runnable stopHook) {
+            this.actualTransport = actualTransport;
+            this.stopHook = stopHook;
+        }
+
+        @Override
+        public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+            try {
+                actualTransport.stop();
+                return null;
+            } finally {
+                stopHook.run();
+            }
+        }
+    }
 }
@@ -15,7 +15,15 @@
  */
 package com.nesscomputing.jms.activemq;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
@@ -27,11 +35,15 @@ import javax.jms.TextMessage;
 
 
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.transport.Transport;
 import org.apache.commons.lang3.ObjectUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
@@ -42,6 +54,7 @@ import com.nesscomputing.jms.JmsModule;
 import com.nesscomputing.logging.Log;
 import com.nesscomputing.service.discovery.client.ReadOnlyDiscoveryClient;
 import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.testing.client.MemoryDiscoveryClient;
 import com.nesscomputing.service.discovery.testing.client.MockedReadOnlyDiscoveryClient;
 import com.nesscomputing.testing.lessio.AllowDNSResolution;
 
@@ -114,4 +127,151 @@ public class ServiceDiscoveryTransportFactoryTest {
         producer.send(session.createTextMessage(uniqueId));
         session.close();
     }
+
+    @Test
+    public void testBrokerAdded() throws Exception {
+        final MemoryDiscoveryClient discoveryClient = createDiscoveryClient();
+        final ServiceInformation first = createBroker("tcp://broker-1:61616");
+        discoveryClient.announce(first);
+
+        final RecordingTransport recorder = new RecordingTransport();
+        final ServiceDiscoveryTransportFactory.BrokerListUpdater updater = createUpdater(discoveryClient, recorder);
+
+        discoveryClient.announce(createBroker("tcp://broker-2:61616"));
+
+        Assert.assertEquals(1, recorder.updates.size());
+        Assert.assertEquals(ImmutableSet.of(URI.create("tcp://broker-1:61616"), URI.create("tcp://broker-2:61616")), ImmutableSet.copyOf(recorder.updates.get(0)));
+
+        updater.close();
+    }
+
+    @Test
+    public void testEmptyBrokersKeepLastKnown() throws Exception {
+        final MemoryDiscoveryClient discoveryClient = createDiscoveryClient();
+        final ServiceInformation first = createBroker("tcp://broker-1:61616");
+        discoveryClient.announce(first);
+
+        final RecordingTransport recorder = new RecordingTransport();
+        final ServiceDiscoveryTransportFactory.BrokerListUpdater updater = createUpdater(discoveryClient, recorder);
+
+        discoveryClient.unannounce(first);
+        Assert.assertTrue(recorder.updates.isEmpty());
+
+        // Coming back is no change from the last known brokers.
+        discoveryClient.announce(first);
+        Assert.assertTrue(recorder.updates.isEmpty());
+
+        updater.close();
+    }
+
+    @Test
+    public void testStopRemovesListener() throws Exception {
+        final MemoryDiscoveryClient discoveryClient = createDiscoveryClient();
+        discoveryClient.announce(createBroker("tcp://broker-1:61616"));
+
+        final RecordingTransport recorder = new RecordingTransport();
+        final ServiceDiscoveryTransportFactory.BrokerListUpdater updater = createUpdater(discoveryClient, recorder);
+        final Transport proxy = ServiceDiscoveryTransportFactory.interceptPropertySetters(recorder.getTransport(), new Runnable() {
+            @Override
+            public void run() {
+                updater.close();
+            }
+        });
+
+        proxy.stop();
+        Assert.assertEquals(Collections.singletonList("stop"), recorder.calls);
+
+        discoveryClient.announce(createBroker("tcp://broker-2:61616"));
+        Assert.assertTrue(recorder.updates.isEmpty());
+    }
+
+    @Test
+    public void testProxyClassShared() throws Exception {
+        final RecordingTransport firstRecorder = new RecordingTransport();
+        final RecordingTransport secondRecorder = new RecordingTransport();
+        final AtomicInteger stops = new AtomicInteger();
+        final Runnable stopHook = new Runnable() {
+            @Override
+            public void run() {
+                stops.incrementAndGet();
+            }
+        };
+
+        final Transport first = ServiceDiscoveryTransportFactory.interceptPropertySetters(firstRecorder.getTransport(), stopHook);
+        final Transport second = ServiceDiscoveryTransportFactory.interceptPropertySetters(secondRecorder.getTransport(), stopHook);
+        Assert.assertSame(first.getClass(), second.getClass());
+
+        ((ServiceTransportBeanSetters) first).setDiscoveryId(uniqueId);
+        ((ServiceTransportBeanSetters) second).setServiceType("test");
+        Assert.assertTrue(firstRecorder.calls.isEmpty());
+        Assert.assertTrue(secondRecorder.calls.isEmpty());
+
+        // Each proxy delegates to its own transport.
+        Assert.assertTrue(second.isUpdateURIsSupported());
+        Assert.assertTrue(firstRecorder.calls.isEmpty());
+        Assert.assertEquals(Collections.singletonList("isUpdateURIsSupported"), secondRecorder.calls);
+
+        first.stop();
+        Assert.assertEquals(Collections.singletonList("stop"), firstRecorder.calls);
+        Assert.assertEquals(1, stops.get());
+    }
+
+    private static MemoryDiscoveryClient createDiscoveryClient() {
+        final MemoryDiscoveryClient discoveryClient = new MemoryDiscoveryClient();
+        discoveryClient.setListenerExecutor(MoreExecutors.sameThreadExecutor());
+        return discoveryClient;
+    }
+
+    private static ServiceInformation createBroker(final String uri) {
+        return new ServiceInformation("broker", null, UUID.randomUUID(), ImmutableMap.of("uri", uri));
+    }
+
+    private static ServiceDiscoveryTransportFactory.BrokerListUpdater createUpdater(final MemoryDiscoveryClient discoveryClient, final RecordingTransport recorder) {
+        final ServiceDiscoveryTransportFactory.BrokerListUpdater updater = new ServiceDiscoveryTransportFactory.BrokerListUpdater(
+            discoveryClient, "broker", null, recorder.getTransport(), false, discoveryClient.findAllServiceInformation("broker"));
+        discoveryClient.addListener(updater, "broker", null);
+        return updater;
+    }
+
+    /**
+     * Records the calls to a transport and the brokers it was updated with.
+     */
+    private static class RecordingTransport implements InvocationHandler {
+        private final List<String> calls = new CopyOnWriteArrayList<String>();
+        private final List<List<URI>> updates = new CopyOnWriteArrayList<List<URI>>();
+        private final Transport transport = (Transport) Proxy.newProxyInstance(Transport.class.getClassLoader(), new Class<?>[] {Transport.class}, this);
+
+        Transport getTransport() {
+            return transport;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("toString".equals(name)) {
+                return "RecordingTransport";
+            }
+
+            if ("updateURIs".equals(name)) {
+                updates.add(ImmutableList.copyOf((URI[]) args[1]));
+            } else if (!"isDisposed".equals(name)) {
+                calls.add(name);
+            }
+
+            if ("isUpdateURIsSupported".equals(name)) {
+                return Boolean.TRUE;
+            } else if (method.getReturnType() == boolean.class) {
+                return Boolean.FALSE;
+            } else if (method.getReturnType() == int.class) {
+                return 0;
+            } else if (method.getReturnType() == long.class) {
+                return 0L;
+            }
+            return null;
+        }
+    }
 }
@@ -17,6 +17,7 @@ package com.nesscomputing.service.discovery.server;
 
 import org.skife.config.Config;
 import org.skife.config.Default;
+import org.skife.config.TimeSpan;
 
 public abstract class DiscoveryServerConfig
 {
@@ -29,4 +30,56 @@ public abstract class DiscoveryServerConfig
     {
         return "/ness/srvc";
     }
+
+    /**
+     * Whether the server publishes the compacted state of all announcements for clients. Defaults to true.
+     */
+    @Config("ness.discovery.compactor.enabled")
+    @Default("true")
+    public boolean isCompactorEnabled()
+    {
+        return true;
+    }
+
+    /**
+     * Number of world changes that the state endpoint keeps as deltas. Clients that are further behind get a
+     * full state. Defaults to 256.
+     */
+    @Config("ness.discovery.state.history")
+    @Default("256")
+    public int getStateHistory()
+    {
+        return 256;
+    }
+
+    /**
+     * Longest time that a long-poll request on the state endpoint waits for a change. Defaults to 60 seconds.
+     */
+    @Config("ness.discovery.state.max-wait")
+    @Default("60s")
+    public TimeSpan getStateMaxWait()
+    {
+        return new TimeSpan("60s");
+    }
+
+    /**
+     * Number of rendered responses of the state resources that are kept. Responses are rendered once per state
+     * of the world and query. Defaults to 1024.
+     */
+    @Config("ness.discovery.state.cache-size")
+    @Default("1024")
+    public int getStateCacheSize()
+    {
+        return 1024;
+    }
+
+    /**
+     * Whether the state resources send gzip compressed responses to clients that accept them. Defaults to true.
+     */
+    @Config("ness.discovery.state.compressed")
+    @Default("true")
+    public boolean isStateCompressed()
+    {
+        return true;
+    }
 }
@@ -41,10 +41,12 @@ import com.nesscomputing.service.discovery.client.DiscoveryClientModule;
 import com.nesscomputing.service.discovery.job.ZookeeperJob;
 import com.nesscomputing.service.discovery.job.ZookeeperJobProcessor;
 import com.nesscomputing.service.discovery.server.announce.ConfigStaticAnnouncer;
+import com.nesscomputing.service.discovery.server.compactor.StateCompactor;
 import com.nesscomputing.service.discovery.server.job.BuildPathJob;
 import com.nesscomputing.service.discovery.server.resources.ServiceLookupResource;
 import com.nesscomputing.service.discovery.server.resources.StateOfTheWorldResource;
 import com.nesscomputing.service.discovery.server.resources.StaticAnnouncementResource;
+import com.nesscomputing.service.discovery.server.state.StateOfTheWorldTracker;
 import com.nesscomputing.service.discovery.server.zookeeper.ZookeeperCleanupJob;
 import com.nesscomputing.service.discovery.server.zookeeper.ZookeeperModule;
 
@@ -90,11 +92,13 @@ public class DiscoveryServerMain extends StandaloneServer
                 bind(DiscoveryServerConfig.class).toProvider(ConfigProvider.of(DiscoveryServerConfig.class)).in(Scopes.SINGLETON);
                 bind(ZookeeperJobProcessor.class).in(Scopes.SINGLETON);
 
+                bind(StateOfTheWorldTracker.class);
                 bind(StateOfTheWorldResource.class);
                 bind(ServiceLookupResource.class);
                 bind(StaticAnnouncementResource.class);
 
                 bind(ConfigStaticAnnouncer.class).asEagerSingleton();
+                bind(StateCompactor.class).asEagerSingleton();
             }
         };
     }
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.server.compactor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import com.nesscomputing.logging.Log;
+import com.nesscomputing.service.discovery.client.internal.CompactedState;
+import com.nesscomputing.service.discovery.job.ZookeeperProcessingTask;
+
+/**
+ * Watches the discovery root and publishes the {@link CompactedState} whenever the announcements change. Nodes
+ * are only read when they show up, existing nodes are revalidated once per scan interval to catch nodes that
+ * were replaced under the same name.
+ */
+class CompactorTask extends ZookeeperProcessingTask
+{
+    private static final Log LOG = Log.findLog();
+
+    private final String root;
+    private final String statePath;
+    private final long scanInterval;
+    private final long zookeeperTimeout;
+
+    private volatile long lastScan = System.nanoTime();
+
+    /** Announcement nodes by name. Written from zookeeper callbacks. */
+    private final Map<String, CompactedState.Node> nodes = new ConcurrentHashMap<String, CompactedState.Node>();
+
+    private int publishedCversion = -1;
+
+    /** True if a node was replaced since the last state was published. */
+    private volatile boolean dirty = false;
+
+    CompactorTask(final String connectString, final String root, final long tickInterval, final long scanInterval, final long zookeeperTimeout)
+    {
+        super(connectString, tickInterval);
+
+        this.root = root;
+        this.statePath = CompactedState.getStatePath(root);
+        this.scanInterval = TimeUnit.MILLISECONDS.toNanos(scanInterval);
+        this.zookeeperTimeout = zookeeperTimeout;
+    }
+
+    @Override
+    protected long determineCurrentGeneration(final AtomicLong generation, final long tick)
+    {
+        final long now = System.nanoTime();
+        if (now - lastScan >= scanInterval) {
+            lastScan = now;
+            return generation.incrementAndGet();
+        }
+        return generation.get();
+    }
+
+    @Override
+    protected long determineWaitTime()
+    {
+        final long remaining = lastScan + scanInterval - System.nanoTime();
+        return remaining > 0 ? TimeUnit.NANOSECONDS.toMillis(remaining) + 1 : 0;
+    }
+
+    @Override
+    protected boolean doWork(final ZooKeeper zookeeper, final long tick) throws IOException, KeeperException, InterruptedException
+    {
+        final Stat rootStat = new Stat();
+        final List<String> children = zookeeper.getChildren(root, this, rootStat);
+
+        nodes.keySet().retainAll(children);
+
+        final List<String> nodesToRead = new ArrayList<String>();
+        final List<String> nodesToCheck = new ArrayList<String>();
+        // Without a child change this is a periodic scan.
+        final boolean revalidate = rootStat.getCversion() == publishedCversion;
+        for (final String child : children) {
+            if (!nodes.containsKey(child)) {
+                nodesToRead.add(child);
+            }
+            else if (revalidate) {
+                nodesToCheck.add(child);
+            }
+        }
+
+        final CountDownLatch latch = new CountDownLatch(nodesToRead.size() + nodesToCheck.size());
+        for (final String child : nodesToRead) {
+            readNode(zookeeper, child, latch);
+        }
+        for (final String child : nodesToCheck) {
+            zookeeper.exists(root + "/" + child, false, new StatCallback() {
+                @Override
+                public void processResult(final int rc, final String path, final Object ctx, final Stat stat) {
+                    final CompactedState.Node node = nodes.get(child);
+                    if (stat != null && node != null && node.getCzxid() == stat.getCzxid() && node.getVersion() == stat.getVersion()) {
+                        latch.countDown();
+                    }
+                    else {
+                        nodes.remove(child);
+                        dirty = true;
+                        readNode(zookeeper, child, latch);
+                    }
+                }
+            }, null);
+        }
+
+        if (!latch.await(zookeeperTimeout, TimeUnit.MILLISECONDS)) {
+            throw KeeperException.create(Code.OPERATIONTIMEOUT, root);
+        }
+
+        if (rootStat.getCversion() != publishedCversion || dirty) {
+            dirty = false;
+            final List<CompactedState.Node> state = new ArrayList<CompactedState.Node>(children.size());
+            for (final String child : children) {
+                final CompactedState.Node node = nodes.get(child);
+                if (node != null) {
+                    state.add(node);
+                }
+            }
+            if (publish(zookeeper, rootStat.getCversion(), state)) {
+                publishedCversion = rootStat.getCversion();
+            }
+        }
+        return true;
+    }
+
+    private void readNode(final ZooKeeper zookeeper, final String child, final CountDownLatch latch)
+    {
+        zookeeper.getData(root + "/" + child, false, new DataCallback() {
+            @Override
+            public void processResult(final int rc, final String path, final Object ctx, final byte [] data, final Stat stat) {
+                if (data != null && data.length > 0 && stat != null) {
+                    nodes.put(child, new CompactedState.Node(child, stat.getCzxid(), stat.getVersion(), data));
+                }
+                // Otherwise the node went away (it shows up as a child change) or is empty, which clients would
+                // skip anyway.
+                latch.countDown();
+            }
+        }, null);
+    }
+
+    /**
+     * Publishes a new compacted state. Several discovery servers may publish at the same time, the update of the
+     * state node is conditional so that only one of them wins.
+     *
+     * @return True if the state was published.
+     */
+    private boolean publish(final ZooKeeper zookeeper, final int rootCversion, final List<CompactedState.Node> state) throws KeeperException, InterruptedException, IOException
+    {
+        try {
+            zookeeper.create(statePath, new byte [0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        }
+        catch (KeeperException.NodeExistsException nee) {
+            LOG.trace("State node exists");
+        }
+
+        final Stat stateStat = new Stat();
+        final List<String> oldChunks = zookeeper.getChildren(statePath, false, stateStat);
+
+        // The generation is the version the state node has once this update went through.
+        final long generation = stateStat.getVersion() + 1;
+        final CompactedState compactedState = new CompactedState(generation, rootCversion, state);
+        final List<byte []> chunks = compactedState.encodeChunks();
+
+        final List<String> newChunks = new ArrayList<String>(chunks.size());
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                final String chunkName = CompactedState.getChunkName(generation, i);
+                zookeeper.create(statePath + "/" + chunkName, chunks.get(i), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                newChunks.add(chunkName);
+            }
+            zookeeper.setData(statePath, compactedState.encodeHeader(chunks), stateStat.getVersion());
+        }
+        catch (KeeperException.NodeExistsException nee) {
+            LOG.debug("Another server publishes generation %d, skipping", generation);
+            deleteChunks(zookeeper, newChunks);
+            return false;
+        }
+        catch (KeeperException.BadVersionException bve) {
+            LOG.debug("Another server published generation %d first, skipping", generation);
+            deleteChunks(zookeeper, newChunks);
+            return false;
+        }
+
+        final List<String> staleChunks = new ArrayList<String>();
+        for (final String chunkName : oldChunks) {
+            if (CompactedState.getChunkGeneration(chunkName) < generation) {
+                staleChunks.add(chunkName);
+            }
+        }
+        deleteChunks(zookeeper, staleChunks);
+
+        LOG.debug("Published compacted state %d: %d announcements in %d chunks", generation, state.size(), chunks.size());
+        return true;
+    }
+
+    private void deleteChunks(final ZooKeeper zookeeper, final List<String> chunkNames) throws KeeperException, InterruptedException
+    {
+        for (final String chunkName : chunkNames) {
+            try {
+                zookeeper.delete(statePath + "/" + chunkName, -1);
+            }
+            catch (KeeperException.NoNodeException nne) {
+                LOG.trace("Chunk %s is already gone", chunkName);
+            }
+        }
+    }
+}
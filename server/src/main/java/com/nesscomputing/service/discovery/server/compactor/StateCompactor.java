@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.server.compactor;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.lifecycle.guice.OnStage;
+import com.nesscomputing.logging.Log;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.DiscoveryClientModule;
+import com.nesscomputing.service.discovery.client.internal.NodeLayout;
+import com.nesscomputing.service.discovery.server.DiscoveryServerConfig;
+
+/**
+ * Publishes the compacted state of all announcements, so that clients with <code>ness.discovery.compacted-state</code>
+ * enabled can read all announcements with a few reads. Uses the zookeeper session of the discovery client.
+ */
+@Singleton
+public class StateCompactor
+{
+    private static final Log LOG = Log.findLog();
+
+    private final String connectString;
+    private final DiscoveryServerConfig serverConfig;
+    private final DiscoveryClientConfig clientConfig;
+
+    private Thread compactorThread = null;
+
+    @Inject
+    StateCompactor(@Named(DiscoveryClientModule.ZOOKEEPER_CONNECT_NAME) final String connectString,
+                   final DiscoveryServerConfig serverConfig,
+                   final DiscoveryClientConfig clientConfig)
+    {
+        this.connectString = connectString;
+        this.serverConfig = serverConfig;
+        this.clientConfig = clientConfig;
+    }
+
+    @OnStage(LifecycleStage.START)
+    public synchronized void start()
+    {
+        if (!serverConfig.isCompactorEnabled()) {
+            LOG.info("State compactor is disabled.");
+            return;
+        }
+        if (NodeLayout.forConfig(clientConfig) != NodeLayout.FLAT) {
+            LOG.warn("State compactor only supports the flat layout, not starting it!");
+            return;
+        }
+
+        if (compactorThread == null) {
+            compactorThread = new Thread(new CompactorTask(connectString,
+                                                           serverConfig.getRoot(),
+                                                           clientConfig.getTickInterval().getMillis(),
+                                                           clientConfig.getScanInterval().getMillis(),
+                                                           clientConfig.getZookeeperTimeout().getMillis()));
+            compactorThread.setName("discovery-state-compactor");
+            compactorThread.setDaemon(true);
+            compactorThread.start();
+            LOG.info("Started state compactor");
+        }
+    }
+
+    @OnStage(LifecycleStage.STOP)
+    public synchronized void stop()
+    {
+        if (compactorThread != null) {
+            compactorThread.interrupt();
+            try {
+                compactorThread.join(clientConfig.getZookeeperTimeout().getMillis());
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            compactorThread = null;
+            LOG.info("Stopped state compactor");
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.server.resources;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.nesscomputing.service.discovery.server.state.RenderedStateCache.Rendered;
+
+/**
+ * Builds responses from pre-rendered state. The cached bytes are handed to the container as they are.
+ */
+final class RenderedResponses
+{
+    private RenderedResponses()
+    {
+    }
+
+    static Response ok(final Rendered rendered, final EntityTag tag, final String acceptEncoding)
+    {
+        final byte [] gzip = acceptsGzip(acceptEncoding) ? rendered.getGzip() : null;
+
+        final ResponseBuilder builder = Response.ok(gzip == null ? rendered.getJson() : gzip)
+            .type(MediaType.APPLICATION_JSON)
+            .tag(tag)
+            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (gzip != null) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return builder.build();
+    }
+
+    static boolean acceptsGzip(final String acceptEncoding)
+    {
+        if (StringUtils.isBlank(acceptEncoding)) {
+            return false;
+        }
+
+        for (final String coding : StringUtils.split(acceptEncoding, ",")) {
+            final String [] parts = StringUtils.split(coding, ";");
+            if (parts.length == 0) {
+                continue;
+            }
+            final String name = parts[0].trim();
+            if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+                for (int i = 1; i < parts.length; i++) {
+                    final String param = StringUtils.deleteWhitespace(parts[i]);
+                    if (param.startsWith("q=") && StringUtils.strip(param.substring(2), "0.").isEmpty()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+}
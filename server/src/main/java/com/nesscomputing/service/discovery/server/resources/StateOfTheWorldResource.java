@@ -15,59 +15,159 @@
  */
 package com.nesscomputing.service.discovery.server.resources;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
 
 import org.apache.commons.lang3.StringUtils;
+import org.skife.config.TimeSpan;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import com.nesscomputing.service.discovery.client.ReadOnlyDiscoveryClient;
 import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.client.StateOfTheWorldDelta;
+import com.nesscomputing.service.discovery.server.DiscoveryServerConfig;
+import com.nesscomputing.service.discovery.server.state.RenderedStateCache;
+import com.nesscomputing.service.discovery.server.state.RenderedStateCache.Rendered;
+import com.nesscomputing.service.discovery.server.state.StateOfTheWorldTracker;
 
 /**
  * Returns the state of the world as a JSON array. Can be limited by serviceName and serviceType.
+ * <p>
+ * The response carries the version of the state as ETag and supports If-None-Match. With
+ * <code>since=&lt;version&gt;</code>, only the changes since that version are returned (or the full state
+ * if the version is unknown, e.g. because it came from another server). Adding <code>wait=30s</code> waits for a
+ * change if there is none yet and returns 304 if the wait expired.
+ * <p>
+ * Responses are rendered once per generation and query and sent gzip compressed to clients that accept it.
  */
 @Path("/state")
 public class StateOfTheWorldResource
 {
+    private static final Joiner KEY_JOINER = Joiner.on('\0').useForNull("\1");
+
     private final ReadOnlyDiscoveryClient discoveryClient;
+    private final StateOfTheWorldTracker tracker;
+    private final RenderedStateCache cache;
+    private final long maxWait;
 
     @Inject
-    public StateOfTheWorldResource(final ReadOnlyDiscoveryClient discoveryClient)
+    public StateOfTheWorldResource(final ReadOnlyDiscoveryClient discoveryClient,
+                                   final StateOfTheWorldTracker tracker,
+                                   final RenderedStateCache cache,
+                                   final DiscoveryServerConfig serverConfig)
     {
         this.discoveryClient = discoveryClient;
+        this.tracker = tracker;
+        this.cache = cache;
+        this.maxWait = serverConfig.getStateMaxWait().getMillis();
     }
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     public Response getState(@QueryParam("serviceName") final String serviceName,
-                             @QueryParam("serviceType") final String serviceType)
+                             @QueryParam("serviceType") final String serviceType,
+                             @QueryParam("since") final String since,
+                             @QueryParam("wait") final String wait,
+                             @HeaderParam(HttpHeaders.ACCEPT_ENCODING) final String acceptEncoding,
+                             @Context final Request request) throws InterruptedException
     {
-        final Collection<ServiceInformation> result;
+        if (since == null) {
+            final long generation = tracker.getGeneration();
+            final EntityTag tag = new EntityTag(tracker.toVersion(generation));
+            final ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null) {
+                return notModified.build();
+            }
+            // The state may be newer than the tag, which only causes a client to fetch it again.
+            final Rendered rendered = cache.render(KEY_JOINER.join("state", serviceName, serviceType), generation, new Supplier<List<ServiceInformation>>() {
+                @Override
+                public List<ServiceInformation> get()
+                {
+                    if (!StringUtils.isBlank(serviceName)) {
+                        // serviceType can be null for this call, this returns all services
+                        return discoveryClient.findAllServiceInformation(serviceName, serviceType);
+                    }
+                    return tracker.getState();
+                }
+            });
+            return RenderedResponses.ok(rendered, tag, acceptEncoding);
+        }
 
-        if (!StringUtils.isBlank(serviceName)) {
-            // serviceType can be null for this call, this returns all services
-            result = discoveryClient.findAllServiceInformation(serviceName, serviceType);
+        if (!StringUtils.isBlank(wait)) {
+            tracker.waitForChange(since, Math.min(parseWait(wait), maxWait), TimeUnit.MILLISECONDS);
         }
-        else {
-            result = Lists.newArrayList();
-            final Map<String, List<ServiceInformation>> serviceMap = discoveryClient.findAllServiceInformation();
 
-            for (List<ServiceInformation> serviceList : serviceMap.values()) {
-                result.addAll(serviceList);
+        final long generation = tracker.getGeneration();
+        final String version = tracker.toVersion(generation);
+        final EntityTag tag = new EntityTag(version);
+        if (version.equals(since)) {
+            return Response.notModified(tag).build();
+        }
+
+        // Clients that waited on the same version are woken up together. One of them renders the delta, the
+        // others wait for it and send the same bytes.
+        final Rendered rendered = cache.render(KEY_JOINER.join("delta", since, serviceName, serviceType), generation, new Supplier<StateOfTheWorldDelta>() {
+            @Override
+            public StateOfTheWorldDelta get()
+            {
+                final StateOfTheWorldDelta delta = tracker.getChanges(since);
+                return new StateOfTheWorldDelta(delta.getEpoch(),
+                                                delta.getGeneration(),
+                                                delta.isFull(),
+                                                filter(delta.getAdded(), serviceName, serviceType),
+                                                filter(delta.getRemoved(), serviceName, serviceType));
             }
+        });
+        return RenderedResponses.ok(rendered, tag, acceptEncoding);
+    }
+
+    private static long parseWait(final String wait)
+    {
+        try {
+            return new TimeSpan(wait).getMillis();
+        }
+        catch (IllegalArgumentException iae) {
+            throw new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                    .entity(ImmutableMap.of(
+                            "detail", "The wait time is not valid: " + wait,
+                            "field", "wait"))
+                    .type(MediaType.APPLICATION_JSON)
+                    .build());
+        }
+    }
+
+    private static List<ServiceInformation> filter(final List<ServiceInformation> announcements, final String serviceName, final String serviceType)
+    {
+        if (StringUtils.isBlank(serviceName)) {
+            return announcements;
         }
 
-        return Response.ok(result).build();
+        // Without a service type, the changes of all types are returned.
+        final List<ServiceInformation> result = new ArrayList<ServiceInformation>();
+        for (final ServiceInformation si : announcements) {
+            if (serviceName.equals(si.getServiceName()) && (serviceType == null || serviceType.equals(si.getServiceType()))) {
+                result.add(si);
+            }
+        }
+        return result;
     }
 }
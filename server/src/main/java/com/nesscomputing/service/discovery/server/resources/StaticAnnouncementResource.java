@@ -16,30 +16,31 @@
 package com.nesscomputing.service.discovery.server.resources;
 
 import java.net.URI;
-import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 
-import javax.annotation.Nullable;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 
 import org.apache.commons.lang3.ObjectUtils;
@@ -47,6 +48,9 @@ import org.apache.commons.lang3.StringUtils;
 
 import com.nesscomputing.service.discovery.client.DiscoveryClient;
 import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.server.state.RenderedStateCache;
+import com.nesscomputing.service.discovery.server.state.RenderedStateCache.Rendered;
+import com.nesscomputing.service.discovery.server.state.StateOfTheWorldTracker;
 
 @Path("/announcement")
 @Produces(MediaType.APPLICATION_JSON)
@@ -54,11 +58,15 @@ import com.nesscomputing.service.discovery.client.ServiceInformation;
 public class StaticAnnouncementResource
 {
     private final DiscoveryClient discoveryClient;
+    private final StateOfTheWorldTracker tracker;
+    private final RenderedStateCache cache;
 
     @Inject
-    StaticAnnouncementResource(DiscoveryClient discoveryClient)
+    StaticAnnouncementResource(DiscoveryClient discoveryClient, StateOfTheWorldTracker tracker, RenderedStateCache cache)
     {
         this.discoveryClient = discoveryClient;
+        this.tracker = tracker;
+        this.cache = cache;
     }
 
     @POST
@@ -105,8 +113,22 @@ public class StaticAnnouncementResource
     }
 
     @GET
-    public Map<String, List<ServiceInformation>> getStaticAnnouncements() {
-        return ImmutableMap.of("results", findStaticAnnouncements());
+    public Response getStaticAnnouncements(@HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding, @Context Request request) {
+        final long generation = tracker.getGeneration();
+        final EntityTag tag = new EntityTag(tracker.toVersion(generation));
+        final ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+
+        final Rendered rendered = cache.render("announcements", generation, new Supplier<Map<String, List<ServiceInformation>>>() {
+            @Override
+            public Map<String, List<ServiceInformation>> get()
+            {
+                return ImmutableMap.of("results", discoveryClient.findStaticAnnouncements());
+            }
+        });
+        return RenderedResponses.ok(rendered, tag, acceptEncoding);
     }
 
     @GET
@@ -143,29 +165,9 @@ public class StaticAnnouncementResource
         }
     }
 
-    private List<ServiceInformation> findStaticAnnouncements()
-    {
-        final Iterable<ServiceInformation> announcements = Iterables.concat(discoveryClient.findAllServiceInformation().values());
-
-        final List<ServiceInformation> results = Lists.newArrayList();
-
-        for (final ServiceInformation si : announcements) {
-            if (si.isStaticAnnouncement()) {
-                results.add(si);
-            }
-        }
-        return results;
-    }
-
     private ServiceInformation findStaticAnnouncement(final UUID serviceId)
     {
-        final Collection<ServiceInformation> victim = Collections2.filter(findStaticAnnouncements(), new Predicate<ServiceInformation>() {
-            @Override
-            public boolean apply(@Nullable ServiceInformation input)
-            {
-                return input != null && input.getServiceId().equals(serviceId);
-            }
-        });
-        return Iterables.getOnlyElement(victim, null);
+        final ServiceInformation announcement = discoveryClient.findServiceInformation(serviceId);
+        return announcement != null && announcement.isStaticAnnouncement() ? announcement : null;
     }
 }
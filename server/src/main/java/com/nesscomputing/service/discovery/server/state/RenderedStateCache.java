@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.server.state;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.nesscomputing.service.discovery.server.DiscoveryServerConfig;
+
+/**
+ * Keeps the serialized responses of the state resources. A response is rendered once per generation of the state
+ * of the world and query, every other request for it just writes out the cached bytes. Requests that come in while
+ * the response is rendered wait for it, so a change of the state is rendered once no matter how many clients ask
+ * for it at the same time. Responses of older generations are not asked for any more and age out of the cache.
+ */
+@Singleton
+public class RenderedStateCache
+{
+    /** Responses smaller than this are not worth compressing. */
+    static final int MIN_COMPRESS_SIZE = 1024;
+
+    private final ObjectMapper objectMapper;
+    private final boolean compress;
+    private final Cache<RenderKey, Rendered> cache;
+
+    @Inject
+    RenderedStateCache(final ObjectMapper objectMapper, final DiscoveryServerConfig serverConfig)
+    {
+        this.objectMapper = objectMapper;
+        this.compress = serverConfig.isStateCompressed();
+        this.cache = CacheBuilder.newBuilder().maximumSize(serverConfig.getStateCacheSize()).build();
+    }
+
+    /**
+     * Returns the rendered response for a query at the given generation. The content is only asked for if the
+     * response was not rendered yet for this generation.
+     */
+    public Rendered render(final String key, final long generation, final Supplier<?> content)
+    {
+        try {
+            return cache.get(new RenderKey(key, generation), new Callable<Rendered>() {
+                @Override
+                public Rendered call()
+                {
+                    return new Rendered(generation, serialize(content.get()));
+                }
+            });
+        }
+        catch (ExecutionException ee) {
+            throw Throwables.propagate(ee.getCause());
+        }
+        catch (UncheckedExecutionException uee) {
+            throw Throwables.propagate(uee.getCause());
+        }
+    }
+
+    private byte [] serialize(final Object content)
+    {
+        try {
+            return objectMapper.writeValueAsBytes(content);
+        }
+        catch (IOException ioe) {
+            throw Throwables.propagate(ioe);
+        }
+    }
+
+    private byte [] gzip(final byte [] json)
+    {
+        if (!compress || json.length < MIN_COMPRESS_SIZE) {
+            return null;
+        }
+
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream(json.length / 4);
+            final GZIPOutputStream gos = new GZIPOutputStream(bos);
+            gos.write(json);
+            gos.close();
+            return bos.size() < json.length ? bos.toByteArray() : null;
+        }
+        catch (IOException ioe) {
+            throw Throwables.propagate(ioe);
+        }
+    }
+
+    private static final class RenderKey
+    {
+        private final String key;
+        private final long generation;
+
+        private RenderKey(final String key, final long generation)
+        {
+            this.key = key;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (!(other instanceof RenderKey)) {
+                return false;
+            }
+            final RenderKey that = (RenderKey) other;
+            return generation == that.generation && key.equals(that.key);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * key.hashCode() + (int) (generation ^ (generation >>> 32));
+        }
+    }
+
+    /**
+     * A rendered response. The compressed form is only built when a client asks for it.
+     */
+    public final class Rendered
+    {
+        private final long generation;
+        private final byte [] json;
+        private volatile boolean compressed = false;
+        private volatile byte [] gzip = null;
+
+        private Rendered(final long generation, final byte [] json)
+        {
+            this.generation = generation;
+            this.json = json;
+        }
+
+        public long getGeneration()
+        {
+            return generation;
+        }
+
+        /**
+         * Returns the JSON response. The array is shared and must not be modified.
+         */
+        public byte [] getJson()
+        {
+            return json;
+        }
+
+        /**
+         * Returns the gzip compressed JSON response or null if the response should be sent uncompressed.
+         */
+        public byte [] getGzip()
+        {
+            if (!compressed) {
+                synchronized (this) {
+                    if (!compressed) {
+                        gzip = RenderedStateCache.this.gzip(json);
+                        compressed = true;
+                    }
+                }
+            }
+            return gzip;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.server.state;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.nesscomputing.service.discovery.client.ReadOnlyDiscoveryClient;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.client.StateOfTheWorldDelta;
+import com.nesscomputing.service.discovery.client.internal.AbstractDiscoveryClient;
+import com.nesscomputing.service.discovery.server.DiscoveryServerConfig;
+
+/**
+ * Tracks the changes of the state of the world for the state endpoint. The deltas of the last changes are kept
+ * in a ring buffer, so that clients which poll the state only fetch what changed since the version they know.
+ * The state is only copied out of the discovery client once per change.
+ *
+ * A version is a random epoch of this process and the generation of the state, see
+ * {@link StateOfTheWorldDelta#toVersion(long, long)}. Generations of discovery servers that started at about the
+ * same time overlap, the epoch keeps a version of another server from being taken for one of this server.
+ */
+@Singleton
+public class StateOfTheWorldTracker
+{
+    /** Generation of a version that is not from this process. */
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    private final long epoch = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+
+    private final AbstractDiscoveryClient discoveryClient;
+
+    /** Ring buffer of the last deltas, oldest first starting at historyStart. */
+    private final Delta [] history;
+    private int historyStart = 0;
+    private int historySize = 0;
+
+    private long generation = Long.MIN_VALUE;
+    private Set<ServiceInformation> state = Collections.emptySet();
+    private List<ServiceInformation> stateList = Collections.emptyList();
+
+    @Inject
+    StateOfTheWorldTracker(final ReadOnlyDiscoveryClient discoveryClient, final DiscoveryServerConfig serverConfig)
+    {
+        Preconditions.checkArgument(discoveryClient instanceof AbstractDiscoveryClient, "Discovery client %s does not track generations", discoveryClient);
+        Preconditions.checkArgument(serverConfig.getStateHistory() > 0, "state history must be positive");
+
+        this.discoveryClient = (AbstractDiscoveryClient) discoveryClient;
+        this.history = new Delta [serverConfig.getStateHistory()];
+    }
+
+    /**
+     * Returns the current generation.
+     */
+    public synchronized long getGeneration()
+    {
+        refresh();
+        return generation;
+    }
+
+    /**
+     * Returns the current version.
+     */
+    public synchronized String getVersion()
+    {
+        refresh();
+        return toVersion(generation);
+    }
+
+    /**
+     * Returns the version of a generation of this process.
+     */
+    public String toVersion(final long generation)
+    {
+        return StateOfTheWorldDelta.toVersion(epoch, generation);
+    }
+
+    /**
+     * Returns all announcements of the current generation.
+     */
+    public synchronized List<ServiceInformation> getState()
+    {
+        refresh();
+        return stateList;
+    }
+
+    /**
+     * Returns the changes since the given version. Returns a full delta if that version is unknown,
+     * e.g. because it is too old or came from another server.
+     */
+    public synchronized StateOfTheWorldDelta getChanges(final String since)
+    {
+        refresh();
+
+        final long sinceGeneration = parseGeneration(since);
+        if (sinceGeneration == generation) {
+            return new StateOfTheWorldDelta(epoch, generation, false, Collections.<ServiceInformation>emptyList(), Collections.<ServiceInformation>emptyList());
+        }
+
+        final int first = sinceGeneration == UNKNOWN ? -1 : findDelta(sinceGeneration);
+        if (first < 0) {
+            return new StateOfTheWorldDelta(epoch, generation, true, stateList, Collections.<ServiceInformation>emptyList());
+        }
+
+        // Collapse the deltas, an announcement that came and went again cancels out.
+        final Set<ServiceInformation> added = new LinkedHashSet<ServiceInformation>();
+        final Set<ServiceInformation> removed = new LinkedHashSet<ServiceInformation>();
+        for (int i = first; i < historySize; i++) {
+            final Delta delta = history[(historyStart + i) % history.length];
+            for (final ServiceInformation si : delta.removed) {
+                if (!added.remove(si)) {
+                    removed.add(si);
+                }
+            }
+            for (final ServiceInformation si : delta.added) {
+                if (!removed.remove(si)) {
+                    added.add(si);
+                }
+            }
+        }
+        return new StateOfTheWorldDelta(epoch, generation, false, new ArrayList<ServiceInformation>(added), new ArrayList<ServiceInformation>(removed));
+    }
+
+    /**
+     * Waits until the state changed from the given version or the timeout expired. Does not wait for an unknown
+     * version, its changes are the full state.
+     */
+    public void waitForChange(final String since, final long timeout, final TimeUnit timeUnit) throws InterruptedException
+    {
+        final long sinceGeneration = parseGeneration(since);
+        if (sinceGeneration == getGeneration()) {
+            discoveryClient.waitForStateChange(sinceGeneration, timeout, timeUnit);
+        }
+    }
+
+    /**
+     * Returns the generation of a version of this process, or {@link #UNKNOWN}.
+     */
+    private long parseGeneration(final String version)
+    {
+        // The epoch is never negative, a generation can be.
+        final int dash = version == null ? -1 : version.indexOf('-', 1);
+        if (dash < 0) {
+            return UNKNOWN;
+        }
+        try {
+            if (Long.parseLong(version.substring(0, dash)) != epoch) {
+                return UNKNOWN;
+            }
+            return Long.parseLong(version.substring(dash + 1));
+        }
+        catch (NumberFormatException nfe) {
+            return UNKNOWN;
+        }
+    }
+
+    private int findDelta(final long since)
+    {
+        for (int i = historySize - 1; i >= 0; i--) {
+            if (history[(historyStart + i) % history.length].from == since) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void refresh()
+    {
+        // Read the generation first, the state may be newer than that but never older.
+        final long currentGeneration = discoveryClient.getStateGeneration();
+        if (currentGeneration == generation) {
+            return;
+        }
+
+        final Set<ServiceInformation> newState = Sets.newLinkedHashSet(Iterables.concat(discoveryClient.findAllServiceInformation().values()));
+        if (generation != Long.MIN_VALUE) {
+            final Delta delta = new Delta(generation,
+                                          new ArrayList<ServiceInformation>(Sets.difference(newState, state)),
+                                          new ArrayList<ServiceInformation>(Sets.difference(state, newState)));
+            if (historySize == history.length) {
+                history[historyStart] = delta;
+                historyStart = (historyStart + 1) % history.length;
+            }
+            else {
+                history[(historyStart + historySize) % history.length] = delta;
+                historySize++;
+            }
+        }
+
+        generation = currentGeneration;
+        state = newState;
+        stateList = Collections.unmodifiableList(new ArrayList<ServiceInformation>(newState));
+    }
+
+    private static final class Delta
+    {
+        /** Generation this delta applies to. */
+        private final long from;
+        private final List<ServiceInformation> added;
+        private final List<ServiceInformation> removed;
+
+        private Delta(final long from, final List<ServiceInformation> added, final List<ServiceInformation> removed)
+        {
+            this.from = from;
+            this.added = added;
+            this.removed = removed;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.server.compactor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.NIOServerCnxn;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.service.discovery.client.AnnouncementFormat;
+import com.nesscomputing.service.discovery.client.DiscoveryClientConfig;
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.client.internal.CompactedState;
+import com.nesscomputing.service.discovery.client.internal.ReadOnlyDiscoveryClientImpl;
+import com.nesscomputing.testing.lessio.AllowLocalFileAccess;
+import com.nesscomputing.testing.lessio.AllowNetworkAccess;
+import com.nesscomputing.testing.lessio.AllowNetworkListen;
+
+@AllowLocalFileAccess(paths={"%TMP_DIR%"})
+@AllowNetworkListen(ports={0})
+@AllowNetworkAccess(endpoints={"127.0.0.1:*"})
+public class TestCompactorTask
+{
+    private static final String ROOT = "/ness/srvc";
+    private static final String STATE_PATH = CompactedState.getStatePath(ROOT);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private File dataDir = null;
+    private NIOServerCnxn.Factory factory = null;
+    private RacingZooKeeper zookeeper = null;
+    private CompactorTask task = null;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dataDir = Files.createTempDir();
+        factory = new NIOServerCnxn.Factory(new InetSocketAddress("127.0.0.1", 0));
+        factory.startup(new ZooKeeperServer(dataDir, dataDir, 2000));
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        zookeeper = new RacingZooKeeper(getConnectString(), new Watcher() {
+            @Override
+            public void process(final WatchedEvent event) {
+                if (event.getState() == KeeperState.SyncConnected) {
+                    connected.countDown();
+                }
+            }
+        });
+        Assert.assertTrue(connected.await(5, TimeUnit.SECONDS));
+        zookeeper.create("/ness", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zookeeper.create(ROOT, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+
+        task = new CompactorTask(getConnectString(), ROOT, 50L, TimeUnit.MINUTES.toMillis(2), 5000L);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        zookeeper.close();
+        factory.shutdown();
+        delete(dataDir);
+    }
+
+    @Test
+    public void testPublish() throws Exception
+    {
+        final List<ServiceInformation> services = announceServices(3);
+        Assert.assertTrue(task.doWork(zookeeper, 0L));
+
+        final Stat rootStat = zookeeper.exists(ROOT, false);
+        final CompactedState state = readState();
+        Assert.assertEquals(1L, state.getGeneration());
+        Assert.assertEquals(rootStat.getCversion(), state.getRootCversion());
+        Assert.assertEquals(3, state.getNodes().size());
+
+        final List<ServiceInformation> published = new ArrayList<ServiceInformation>();
+        for (final CompactedState.Node node : state.getNodes()) {
+            final ServiceInformation si = AnnouncementFormat.decode(objectMapper, node.getData());
+            Assert.assertEquals(si.getAnnouncementName(), node.getName());
+            Assert.assertEquals(zookeeper.exists(ROOT + "/" + node.getName(), false).getCzxid(), node.getCzxid());
+            published.add(si);
+        }
+        Assert.assertEquals(ImmutableSet.copyOf(services), ImmutableSet.copyOf(published));
+
+        // Nothing changed, nothing is published.
+        Assert.assertTrue(task.doWork(zookeeper, 1L));
+        Assert.assertEquals(1L, readState().getGeneration());
+    }
+
+    @Test
+    public void testOldChunksDeleted() throws Exception
+    {
+        announceServices(1);
+        task.doWork(zookeeper, 0L);
+        Assert.assertEquals(ImmutableList.of(CompactedState.getChunkName(1L, 0)), zookeeper.getChildren(STATE_PATH, false));
+
+        announce(ServiceInformation.forService("billing", "http", "http", "10.0.1.1", 80));
+        task.doWork(zookeeper, 1L);
+        Assert.assertEquals(ImmutableList.of(CompactedState.getChunkName(2L, 0)), zookeeper.getChildren(STATE_PATH, false));
+        Assert.assertEquals(2, readState().getNodes().size());
+    }
+
+    @Test
+    public void testLostRace() throws Exception
+    {
+        announceServices(1);
+        task.doWork(zookeeper, 0L);
+
+        // Another server publishes right before this one updates the state node.
+        announce(ServiceInformation.forService("billing", "http", "http", "10.0.1.1", 80));
+        zookeeper.raceOnce = true;
+        Assert.assertTrue(task.doWork(zookeeper, 1L));
+        Assert.assertFalse(zookeeper.raceOnce);
+        Assert.assertEquals(ImmutableList.of(CompactedState.getChunkName(1L, 0)), zookeeper.getChildren(STATE_PATH, false));
+
+        // Not published, so the next run tries again.
+        Assert.assertTrue(task.doWork(zookeeper, 2L));
+        final CompactedState state = readState();
+        Assert.assertEquals(3L, state.getGeneration());
+        Assert.assertEquals(2, state.getNodes().size());
+        Assert.assertEquals(ImmutableList.of(CompactedState.getChunkName(3L, 0)), zookeeper.getChildren(STATE_PATH, false));
+    }
+
+    @Test
+    public void testClientFallsBackWhenLagging() throws Exception
+    {
+        final List<ServiceInformation> services = announceServices(12);
+        task.doWork(zookeeper, 0L);
+
+        // Rewriting a node does not change the root, so clients still trust the compacted state.
+        final ServiceInformation first = services.get(0);
+        final ServiceInformation moved = new ServiceInformation(first.getServiceName(), first.getServiceType(), first.getServiceId(),
+                                                                ImmutableMap.of(ServiceInformation.PROP_SERVICE_SCHEME, "http",
+                                                                                ServiceInformation.PROP_SERVICE_ADDRESS, "10.0.0.0",
+                                                                                ServiceInformation.PROP_SERVICE_PORT, "81"));
+        zookeeper.setData(ROOT + "/" + first.getAnnouncementName(), AnnouncementFormat.JSON.encode(objectMapper, moved), -1);
+        Assert.assertTrue(findServices().contains(first));
+
+        // A new node makes the compacted state lag behind the root, so every node is read.
+        announce(ServiceInformation.forService("svc", "http", "http", "10.0.0.12", 80));
+        final List<ServiceInformation> found = findServices();
+        Assert.assertEquals(13, found.size());
+        Assert.assertTrue(found.contains(moved));
+        Assert.assertFalse(found.contains(first));
+    }
+
+    private List<ServiceInformation> findServices()
+    {
+        final ReadOnlyDiscoveryClientImpl client = new ReadOnlyDiscoveryClientImpl(getConnectString(), new DiscoveryClientConfig() {
+            @Override
+            public boolean isEnabled()
+            {
+                return true;
+            }
+
+            @Override
+            public boolean isCompactedState()
+            {
+                return true;
+            }
+        }, objectMapper);
+        client.start();
+        try {
+            return client.findAllServiceInformation("svc");
+        }
+        finally {
+            client.stop();
+        }
+    }
+
+    private List<ServiceInformation> announceServices(final int count) throws Exception
+    {
+        final List<ServiceInformation> services = new ArrayList<ServiceInformation>();
+        for (int i = 0; i < count; i++) {
+            final ServiceInformation si = ServiceInformation.forService("svc", "http", "http", "10.0.0." + i, 80);
+            announce(si);
+            services.add(si);
+        }
+        return services;
+    }
+
+    private void announce(final ServiceInformation serviceInformation) throws Exception
+    {
+        zookeeper.create(ROOT + "/" + serviceInformation.getAnnouncementName(), AnnouncementFormat.JSON.encode(objectMapper, serviceInformation),
+                         Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    }
+
+    private CompactedState readState() throws Exception
+    {
+        final Stat stat = new Stat();
+        final byte [] header = zookeeper.getData(STATE_PATH, false, stat);
+        final List<byte []> chunks = new ArrayList<byte []>();
+        for (int i = 0; zookeeper.exists(STATE_PATH + "/" + CompactedState.getChunkName(stat.getVersion(), i), false) != null; i++) {
+            chunks.add(zookeeper.getData(STATE_PATH + "/" + CompactedState.getChunkName(stat.getVersion(), i), false, null));
+        }
+        return CompactedState.decode(header, chunks);
+    }
+
+    private String getConnectString()
+    {
+        return "127.0.0.1:" + factory.getLocalPort();
+    }
+
+    private static void delete(final File file)
+    {
+        final File [] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Lets another writer update a node between the read and the conditional write of the compactor.
+     */
+    private static class RacingZooKeeper extends ZooKeeper
+    {
+        private volatile boolean raceOnce = false;
+
+        RacingZooKeeper(final String connectString, final Watcher watcher) throws IOException
+        {
+            super(connectString, 5000, watcher);
+        }
+
+        @Override
+        public Stat setData(final String path, final byte [] data, final int version) throws KeeperException, InterruptedException
+        {
+            if (raceOnce) {
+                raceOnce = false;
+                super.setData(path, getData(path, false, null), -1);
+            }
+            return super.setData(path, data, version);
+        }
+    }
+}
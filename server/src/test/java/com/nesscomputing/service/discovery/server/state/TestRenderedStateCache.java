@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.server.state;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.server.DiscoveryServerConfig;
+import com.nesscomputing.service.discovery.server.state.RenderedStateCache.Rendered;
+
+public class TestRenderedStateCache
+{
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final RenderedStateCache cache = new RenderedStateCache(objectMapper, new DiscoveryServerConfig() {});
+
+    @Test
+    public void testRenderedOncePerGeneration() throws IOException
+    {
+        final List<ServiceInformation> state = ImmutableList.of(ServiceInformation.forService("a", null, "http", "10.0.0.1", 80));
+        final CountingSupplier supplier = new CountingSupplier(state);
+
+        final Rendered first = cache.render("state", 1L, supplier);
+        Assert.assertSame(first, cache.render("state", 1L, supplier));
+        Assert.assertEquals(1, supplier.getCount());
+        Assert.assertEquals(state, objectMapper.readValue(first.getJson(), new TypeReference<List<ServiceInformation>>() {}));
+
+        // Another query is rendered separately.
+        cache.render("other", 1L, supplier);
+        Assert.assertEquals(2, supplier.getCount());
+
+        // A new generation renders again.
+        final Rendered second = cache.render("state", 2L, supplier);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(2L, second.getGeneration());
+        Assert.assertEquals(3, supplier.getCount());
+
+        // A request that still sees the old generation does not replace the newer response.
+        cache.render("state", 1L, supplier);
+        Assert.assertSame(second, cache.render("state", 2L, supplier));
+    }
+
+    @Test
+    public void testConcurrentRenderedOnce() throws Exception
+    {
+        final List<ServiceInformation> state = ImmutableList.of(ServiceInformation.forService("a", null, "http", "10.0.0.1", 80));
+        final CountingSupplier supplier = new CountingSupplier(state) {
+            @Override
+            public List<ServiceInformation> get()
+            {
+                try {
+                    // Slow enough for all other requests to come in.
+                    Thread.sleep(200);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.get();
+            }
+        };
+
+        final int threads = 8;
+        final CountDownLatch go = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Rendered>> results = new ArrayList<Future<Rendered>>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Rendered>() {
+                    @Override
+                    public Rendered call() throws Exception
+                    {
+                        go.await();
+                        return cache.render("state", 1L, supplier);
+                    }
+                }));
+            }
+            go.countDown();
+
+            final Rendered first = results.get(0).get();
+            for (final Future<Rendered> result : results) {
+                Assert.assertSame(first, result.get());
+            }
+            Assert.assertEquals(1, supplier.getCount());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFailurePropagates()
+    {
+        cache.render("state", 1L, new Supplier<List<ServiceInformation>>() {
+            @Override
+            public List<ServiceInformation> get()
+            {
+                throw new IllegalStateException();
+            }
+        });
+    }
+
+    @Test
+    public void testGzip() throws IOException
+    {
+        final List<ServiceInformation> state = new ArrayList<ServiceInformation>();
+        for (int i = 0; i < 100; i++) {
+            state.add(ServiceInformation.staticAnnouncement(UUID.randomUUID(), "user", "http", "http", "10.0.0." + i, 80));
+        }
+
+        final Rendered rendered = cache.render("state", 1L, new CountingSupplier(state));
+        final byte [] gzip = rendered.getGzip();
+        Assert.assertNotNull(gzip);
+        Assert.assertTrue(gzip.length < rendered.getJson().length);
+        Assert.assertSame(gzip, rendered.getGzip());
+        Assert.assertEquals(state, objectMapper.readValue(new GZIPInputStream(new ByteArrayInputStream(gzip)), new TypeReference<List<ServiceInformation>>() {}));
+
+        // Small responses are not compressed.
+        Assert.assertNull(cache.render("small", 1L, new CountingSupplier(state.subList(0, 1))).getGzip());
+    }
+
+    @Test
+    public void testGzipDisabled()
+    {
+        final RenderedStateCache uncompressed = new RenderedStateCache(objectMapper, new DiscoveryServerConfig() {
+            @Override
+            public boolean isStateCompressed()
+            {
+                return false;
+            }
+        });
+
+        final List<ServiceInformation> state = new ArrayList<ServiceInformation>();
+        for (int i = 0; i < 100; i++) {
+            state.add(ServiceInformation.forService("user", "http", "http", "10.0.0." + i, 80));
+        }
+        Assert.assertNull(uncompressed.render("state", 1L, new CountingSupplier(state)).getGzip());
+    }
+
+    private static class CountingSupplier implements Supplier<List<ServiceInformation>>
+    {
+        private final List<ServiceInformation> state;
+        private final AtomicInteger count = new AtomicInteger();
+
+        CountingSupplier(final List<ServiceInformation> state)
+        {
+            this.state = state;
+        }
+
+        @Override
+        public List<ServiceInformation> get()
+        {
+            count.incrementAndGet();
+            return state;
+        }
+
+        int getCount()
+        {
+            return count.get();
+        }
+    }
+}
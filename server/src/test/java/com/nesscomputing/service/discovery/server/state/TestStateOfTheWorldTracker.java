@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.service.discovery.server.state;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.config.TimeSpan;
+
+import com.nesscomputing.service.discovery.client.ServiceInformation;
+import com.nesscomputing.service.discovery.client.StateOfTheWorldDelta;
+import com.nesscomputing.service.discovery.client.internal.AbstractDiscoveryClient;
+import com.nesscomputing.service.discovery.client.internal.ConsistentRingGroup;
+import com.nesscomputing.service.discovery.server.DiscoveryServerConfig;
+
+public class TestStateOfTheWorldTracker
+{
+    private final ServiceInformation a = ServiceInformation.forService("a", null, "http", "10.0.0.1", 80);
+    private final ServiceInformation b = ServiceInformation.forService("b", "x", "http", "10.0.0.2", 80);
+    private final ServiceInformation c = ServiceInformation.forService("b", "y", "http", "10.0.0.3", 80);
+
+    private TestClient client;
+    private StateOfTheWorldTracker tracker;
+
+    @Before
+    public void setUp()
+    {
+        client = new TestClient();
+        tracker = new StateOfTheWorldTracker(client, new DiscoveryServerConfig() {
+            @Override
+            public int getStateHistory()
+            {
+                return 3;
+            }
+
+            @Override
+            public TimeSpan getStateMaxWait()
+            {
+                return new TimeSpan("1s");
+            }
+        });
+    }
+
+    @Test
+    public void testDeltas()
+    {
+        client.setState(a);
+        final long g1 = tracker.getGeneration();
+        final String v1 = tracker.toVersion(g1);
+        Assert.assertEquals(ImmutableList.of(a), tracker.getState());
+
+        client.setState(a, b);
+        final long g2 = tracker.getGeneration();
+        final String v2 = tracker.toVersion(g2);
+        Assert.assertTrue(g2 > g1);
+
+        client.setState(b, c);
+        final String v3 = tracker.getVersion();
+
+        StateOfTheWorldDelta delta = tracker.getChanges(v1);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(v3, delta.getVersion());
+        Assert.assertEquals(ImmutableSet.of(b, c), ImmutableSet.copyOf(delta.getAdded()));
+        Assert.assertEquals(ImmutableList.of(a), delta.getRemoved());
+
+        delta = tracker.getChanges(v2);
+        Assert.assertEquals(ImmutableList.of(c), delta.getAdded());
+        Assert.assertEquals(ImmutableList.of(a), delta.getRemoved());
+
+        Assert.assertTrue(tracker.getChanges(v3).isEmpty());
+    }
+
+    @Test
+    public void testCancelOut()
+    {
+        client.setState(a);
+        final String v1 = tracker.getVersion();
+        client.setState(a, b);
+        tracker.getGeneration();
+        client.setState(a);
+        tracker.getGeneration();
+
+        final StateOfTheWorldDelta delta = tracker.getChanges(v1);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertTrue(delta.getAdded().isEmpty());
+        Assert.assertTrue(delta.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void testFull()
+    {
+        client.setState(a);
+        final String v1 = tracker.getVersion();
+        for (int i = 0; i < 4; i++) {
+            client.setState(i % 2 == 0 ? new ServiceInformation [] { a, b } : new ServiceInformation [] { a });
+            tracker.getGeneration();
+        }
+
+        // Fell out of the history.
+        StateOfTheWorldDelta delta = tracker.getChanges(v1);
+        Assert.assertTrue(delta.isFull());
+        Assert.assertEquals(ImmutableList.of(a), delta.getAdded());
+
+        // Unknown generation.
+        delta = tracker.getChanges(tracker.toVersion(12345L));
+        Assert.assertTrue(delta.isFull());
+
+        // No version at all.
+        Assert.assertTrue(tracker.getChanges("-1").isFull());
+        Assert.assertTrue(tracker.getChanges("garbage").isFull());
+    }
+
+    @Test
+    public void testOtherEpoch() throws Exception
+    {
+        // Another server with the very same generations.
+        final StateOfTheWorldTracker other = new StateOfTheWorldTracker(client, new DiscoveryServerConfig() {});
+
+        client.setState(a);
+        final String v1 = tracker.getVersion();
+        Assert.assertEquals(tracker.getGeneration(), other.getGeneration());
+        client.setState(a, b);
+
+        final StateOfTheWorldDelta delta = other.getChanges(v1);
+        Assert.assertTrue(delta.isFull());
+        Assert.assertEquals(ImmutableSet.of(a, b), ImmutableSet.copyOf(delta.getAdded()));
+
+        // Not waiting for a change of an unknown version.
+        final long start = System.nanoTime();
+        other.waitForChange(tracker.getVersion(), 10, TimeUnit.SECONDS);
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testWait() throws Exception
+    {
+        client.setState(a);
+        final String v1 = tracker.getVersion();
+
+        long start = System.nanoTime();
+        tracker.waitForChange(v1, 100, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertTrue(tracker.getChanges(v1).isEmpty());
+
+        final Thread thread = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                client.setState(a, b);
+            }
+        };
+        thread.start();
+
+        start = System.nanoTime();
+        tracker.waitForChange(v1, 10, TimeUnit.SECONDS);
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        Assert.assertEquals(ImmutableList.of(b), tracker.getChanges(v1).getAdded());
+        thread.join();
+    }
+
+    private static class TestClient extends AbstractDiscoveryClient
+    {
+        TestClient()
+        {
+            super(true);
+        }
+
+        void setState(final ServiceInformation ... announcements)
+        {
+            final Map<String, List<ServiceInformation>> services = new HashMap<String, List<ServiceInformation>>();
+            for (final ServiceInformation si : announcements) {
+                List<ServiceInformation> list = services.get(si.getServiceName());
+                if (list == null) {
+                    list = new ArrayList<ServiceInformation>();
+                    services.put(si.getServiceName(), list);
+                }
+                list.add(si);
+            }
+            final Map<String, ConsistentRingGroup> state = new HashMap<String, ConsistentRingGroup>();
+            for (final Map.Entry<String, List<ServiceInformation>> entry : services.entrySet()) {
+                state.put(entry.getKey(), new ConsistentRingGroup(entry.getValue()));
+            }
+            getStateOfTheWorldHolder().setState(state);
+        }
+    }
+}